@@ -0,0 +1,93 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Random;
+
+/**
+ * Reproducible boards for the benchmarks.
+ *
+ * A board is the deal of the variant for a seed, followed by a number of
+ * random legal moves so that stacks hold real runs instead of a fresh deal.
+ */
+public class BenchmarkBoards {
+
+  // Screen size used to lay out the anchors for the hit tests.
+  public static final int WIDTH = 800;
+  public static final int HEIGHT = 480;
+
+  public static final int BOARD_COUNT = 16;
+  public static final int MOVE_COUNT = 60;
+
+  public static HeadlessGame Create(int type, long seed) {
+    return Create(type, seed, MOVE_COUNT);
+  }
+
+  public static HeadlessGame Create(int type, long seed, int moves) {
+    GameSettings settings = new SimpleSettings();
+    Random random = new Random(seed);
+    HeadlessGame game = new HeadlessGame(type, seed, settings);
+    Play(game, random, moves);
+    game.GetRules().Resize(WIDTH, HEIGHT);
+    return game;
+  }
+
+  public static HeadlessGame[] CreateAll(int type) {
+    HeadlessGame[] games = new HeadlessGame[BOARD_COUNT];
+    for (int i = 0; i < BOARD_COUNT; i++) {
+      games[i] = Create(type, type * 1000L + i);
+    }
+    return games;
+  }
+
+  // A copy of card that is not on any anchor.
+  static Card CopyCard(Card card) {
+    return new Card(card.getValue().ordinal() + 1, card.getSuit().ordinal());
+  }
+
+  // A copy of the top card of from, held over the top card of over.
+  static MoveCard HoldOver(CardAnchor from, CardAnchor over) {
+    MoveCard moveCard = new MoveCard();
+    Card card = CopyCard(from.GetCards()[from.GetCount()-1]);
+    if (over.GetCount() > 0) {
+      Card target = over.GetCards()[over.GetCount()-1];
+      card.SetPosition(target.GetX(), target.GetY());
+    } else {
+      card.SetPosition(over.GetX(), over.GetY());
+    }
+    moveCard.SetAnchor(from);
+    moveCard.AddCard(card);
+    return moveCard;
+  }
+
+  private static void Play(HeadlessGame game, Random random, int moves) {
+    CardAnchor[] anchor = game.GetAnchors();
+    for (int step = 0; step < moves && !game.IsWon(); step++) {
+      boolean moved = false;
+      for (int tries = 0; tries < 30 && !moved; tries++) {
+        int from = random.nextInt(anchor.length);
+        int to = random.nextInt(anchor.length);
+        int count = anchor[from].GetMovableCount();
+        if (count > 0) {
+          moved = game.MoveCards(from, 1 + random.nextInt(count), to);
+        }
+      }
+      if (!moved) {
+        game.Deal();
+      }
+    }
+  }
+}
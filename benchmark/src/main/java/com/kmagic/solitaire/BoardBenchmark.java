@@ -0,0 +1,79 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Copying and hashing the compact Board against taking a snapshot of the
+ * Card based anchors. Run with -prof gc, only the snapshot should allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+  @Param({"1", "2", "3", "4"})
+  public int mType;
+
+  private HeadlessGame mGame;
+  private Board mBoard;
+  private Board mCopy;
+
+  @Setup
+  public void Setup() {
+    mGame = BenchmarkBoards.Create(mType, mType);
+    mBoard = mGame.GetBoard();
+    mCopy = new Board(mBoard);
+  }
+
+  @Benchmark
+  public Board CopyFrom() {
+    mCopy.CopyFrom(mBoard);
+    return mCopy;
+  }
+
+  @Benchmark
+  public long Hash() {
+    return mBoard.Hash();
+  }
+
+  @Benchmark
+  public void Equals(Blackhole bh) {
+    bh.consume(mCopy.Equals(mBoard));
+  }
+
+  @Benchmark
+  public Board FromAnchors() {
+    return mGame.GetBoard();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The drop target scan run when a dragged card is released, see
+ * Rules.GetDropAnchor. Each top card of a board is released over every
+ * other anchor, so hits, near hits and misses are all measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DropAnchorBenchmark {
+
+  @Param({"1", "2", "3", "4"})
+  public int mType;
+
+  private Rules[] mRules;
+  private MoveCard[] mMoveCard;
+
+  @Setup
+  public void Setup() {
+    List<Rules> rules = new ArrayList<Rules>();
+    List<MoveCard> moveCards = new ArrayList<MoveCard>();
+    for (HeadlessGame game : BenchmarkBoards.CreateAll(mType)) {
+      CardAnchor[] anchor = game.GetAnchors();
+      for (int i = 0; i < anchor.length; i++) {
+        if (anchor[i].GetMovableCount() == 0) {
+          continue;
+        }
+        for (int j = 0; j < anchor.length; j++) {
+          if (j != i) {
+            rules.add(game.GetRules());
+            moveCards.add(BenchmarkBoards.HoldOver(anchor[i], anchor[j]));
+          }
+        }
+      }
+    }
+    mRules = rules.toArray(new Rules[rules.size()]);
+    mMoveCard = moveCards.toArray(new MoveCard[moveCards.size()]);
+  }
+
+  @Benchmark
+  public void GetDropAnchor(Blackhole bh) {
+    for (int i = 0; i < mRules.length; i++) {
+      bh.consume(mRules[i].GetDropAnchor(mMoveCard[i]));
+    }
+  }
+}
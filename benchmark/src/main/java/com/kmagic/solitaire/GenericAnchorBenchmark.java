@@ -0,0 +1,86 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * GenericAnchor build and pick up checks on the tableaus of the variants
+ * using it. Each operation covers every anchor of BOARD_COUNT boards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenericAnchorBenchmark {
+
+  @Param({"1", "2", "4"})
+  public int mType;
+
+  private GenericAnchor[] mAnchor;
+  private Card[] mCard;
+
+  @Setup
+  public void Setup() {
+    List<GenericAnchor> anchors = new ArrayList<GenericAnchor>();
+    List<Card> cards = new ArrayList<Card>();
+    for (HeadlessGame game : BenchmarkBoards.CreateAll(mType)) {
+      for (CardAnchor anchor : game.GetAnchors()) {
+        if (anchor instanceof GenericAnchor) {
+          anchors.add((GenericAnchor)anchor);
+        }
+        if (anchor.GetCount() > 0) {
+          cards.add(BenchmarkBoards.CopyCard(anchor.GetCards()[anchor.GetCount()-1]));
+        }
+      }
+    }
+    mAnchor = anchors.toArray(new GenericAnchor[anchors.size()]);
+    mCard = cards.toArray(new Card[cards.size()]);
+  }
+
+  @Benchmark
+  public void CanBuildCard(Blackhole bh) {
+    for (GenericAnchor anchor : mAnchor) {
+      for (Card card : mCard) {
+        bh.consume(anchor.CanBuildCard(card));
+      }
+    }
+  }
+
+  @Benchmark
+  public void GetMovableCount(Blackhole bh) {
+    for (GenericAnchor anchor : mAnchor) {
+      bh.consume(anchor.GetMovableCount());
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to solve seeded Klondike deals with each of the four rule sets, and
+ * to find a winnable deal as a new game does with "winnable deals only".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KlondikeSolverBenchmark {
+
+  @Param({"true", "false"})
+  public boolean mDealThree;
+
+  @Param({"true", "false"})
+  public boolean mStyleNormal;
+
+  private GameSettings mSettings;
+  private KlondikeSolver mSolver;
+  private Board[] mBoard;
+  private int mDealsLeft;
+  private int mNext;
+
+  @Setup
+  public void Setup() {
+    mSettings = new SimpleSettings()
+        .putBoolean("SolitaireDealThree", mDealThree)
+        .putBoolean("SolitaireStyleNormal", mStyleNormal);
+    mSolver = new KlondikeSolver();
+    mBoard = new Board[BenchmarkBoards.BOARD_COUNT];
+    for (int i = 0; i < mBoard.length; i++) {
+      HeadlessGame game = new HeadlessGame(Rules.SOLITAIRE, i, mSettings);
+      mBoard[i] = game.GetBoard();
+      mDealsLeft = game.GetRules().GetRulesExtra();
+    }
+  }
+
+  @Benchmark
+  public Object Solve() {
+    mNext = (mNext + 1) % mBoard.length;
+    return mSolver.Solve(mBoard[mNext], mDealThree, mDealsLeft);
+  }
+
+  @Benchmark
+  public long FindWinnable() {
+    return WinnableDeals.Find(Rules.SOLITAIRE, mSettings, 1000);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Save and restore of a Spider game 500 moves in, in memory and through a
+ * file with the rename.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveFileBenchmark {
+
+  private static final int MOVE_COUNT = 500;
+
+  private HeadlessGame mGame;
+  private SaveFile mSaveFile;
+  private byte[] mSave;
+  private int mSaveLength;
+  private MoveHistory mHistory;
+  private File mFile;
+
+  @Setup
+  public void Setup() throws IOException {
+    mGame = BenchmarkBoards.Create(Rules.SPIDER, 1, MOVE_COUNT);
+    mSaveFile = new SaveFile();
+    mSaveLength = mSaveFile.Encode(mGame.GetRules(), mGame.GetMoveHistory(), 0);
+    mSave = mSaveFile.GetBuffer().clone();
+    mHistory = new MoveHistory();
+    mFile = File.createTempFile("solitaire", ".bin");
+  }
+
+  @TearDown
+  public void TearDown() {
+    mFile.delete();
+  }
+
+  @Benchmark
+  public int Encode() {
+    return mSaveFile.Encode(mGame.GetRules(), mGame.GetMoveHistory(), 0);
+  }
+
+  @Benchmark
+  public Object Restore() {
+    mHistory.Clear();
+    mSaveFile.Decode(mSave, mSaveLength, mHistory);
+    return Rules.CreateRules(mSaveFile.GetType(), mSaveFile.GetState(), mGame,
+                             new SimpleSettings(), mHistory);
+  }
+
+  @Benchmark
+  public Object WriteAndRead() throws IOException {
+    mSaveFile.Write(mFile, mGame.GetRules(), mGame.GetMoveHistory(), 0);
+    mHistory.Clear();
+    mSaveFile.Read(mFile, mHistory);
+    return mSaveFile.GetState();
+  }
+}
@@ -0,0 +1,72 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to solve seeded Spider deals with one, two and four suits, and to
+ * find a winnable deal when the pool of checked deals is empty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpiderSolverBenchmark {
+
+  @Param({"1", "2", "4"})
+  public int mSuits;
+
+  private GameSettings mSettings;
+  private SpiderSolver mSolver;
+  private Board[] mBoard;
+  private int mNext;
+
+  @Setup
+  public void Setup() {
+    mSettings = new SimpleSettings().putInt("SpiderSuits", mSuits);
+    mSolver = new SpiderSolver();
+    mBoard = new Board[BenchmarkBoards.BOARD_COUNT];
+    for (int i = 0; i < mBoard.length; i++) {
+      mBoard[i] = new HeadlessGame(Rules.SPIDER, i, mSettings).GetBoard();
+    }
+  }
+
+  @Benchmark
+  public Object Solve() {
+    mNext = (mNext + 1) % mBoard.length;
+    return mSolver.Solve(mBoard[mNext]);
+  }
+
+  @Benchmark
+  public long FindWinnable() {
+    return WinnableDeals.Find(Rules.SPIDER, mSettings, 1000);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SpiderStack and FreecellStack checks on seeded mid game boards.
+ *
+ * Spider deals onto GenericAnchors now, the SpiderStacks here are filled
+ * with the same cards so both pick up checks can be compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackBenchmark {
+
+  private SpiderStack[] mSpiderStack;
+  private FreecellStack[] mFreecellStack;
+  private MoveCard[] mFreecellMoveCard;
+
+  @Setup
+  public void Setup() {
+    List<SpiderStack> spiderStacks = new ArrayList<SpiderStack>();
+    for (HeadlessGame game : BenchmarkBoards.CreateAll(Rules.SPIDER)) {
+      Rules rules = game.GetRules();
+      CardAnchor[] anchor = game.GetAnchors();
+      rules.SetIgnoreEvents(true);
+      for (int i = 0; i < 10; i++) {
+        SpiderStack stack = (SpiderStack)CardAnchor.CreateAnchor(CardAnchor.SPIDER_STACK, i, rules);
+        for (int j = 0; j < anchor[i].GetCount(); j++) {
+          stack.AddCard(anchor[i].GetCards()[j]);
+        }
+        stack.SetHiddenCount(anchor[i].GetHiddenCount());
+        spiderStacks.add(stack);
+      }
+      rules.SetIgnoreEvents(false);
+    }
+    mSpiderStack = spiderStacks.toArray(new SpiderStack[spiderStacks.size()]);
+
+    // Every top card held over every stack of the board.
+    List<FreecellStack> freecellStacks = new ArrayList<FreecellStack>();
+    List<MoveCard> moveCards = new ArrayList<MoveCard>();
+    for (HeadlessGame game : BenchmarkBoards.CreateAll(Rules.FREECELL)) {
+      CardAnchor[] anchor = game.GetAnchors();
+      for (int i = 8; i < 16; i++) {
+        for (int j = 0; j < anchor.length; j++) {
+          if (j != i && anchor[j].GetCount() > 0) {
+            freecellStacks.add((FreecellStack)anchor[i]);
+            moveCards.add(BenchmarkBoards.HoldOver(anchor[j], anchor[i]));
+          }
+        }
+      }
+    }
+    mFreecellStack = freecellStacks.toArray(new FreecellStack[freecellStacks.size()]);
+    mFreecellMoveCard = moveCards.toArray(new MoveCard[moveCards.size()]);
+  }
+
+  @Benchmark
+  public void SpiderStackGetMovableCount(Blackhole bh) {
+    for (SpiderStack stack : mSpiderStack) {
+      bh.consume(stack.GetMovableCount());
+    }
+  }
+
+  @Benchmark
+  public void FreecellStackCanDropCard(Blackhole bh) {
+    for (int i = 0; i < mFreecellStack.length; i++) {
+      bh.consume(mFreecellStack[i].CanDropCard(mFreecellMoveCard[i], 0));
+    }
+  }
+}
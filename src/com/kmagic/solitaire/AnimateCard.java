@@ -16,115 +16,206 @@
 package com.kmagic.solitaire;
 
 import android.graphics.Canvas;
-import android.util.Log;
-import java.lang.InterruptedException;
-import java.lang.Runnable;
-import java.lang.Thread;
+import android.os.SystemClock;
 import java.lang.Math;
-import java.util.concurrent.Semaphore;
+import java.lang.Runnable;
+import java.util.ArrayList;
 
+// Flies cards to their anchors. Positions come off the clock rather than a
+// frame count, so a slow frame skips ahead instead of stretching the move,
+// and any number of moves can be in the air at once.
 public class AnimateCard {
 
-  private static final float PPF = 40;
+  // Cards fly at this many pixels a millisecond, each flight taking between
+  // MIN_MS and MAX_MS.
+  private static final float SPEED = 1.2f;
+  private static final int MIN_MS = 100;
+  private static final int MAX_MS = 400;
+
+  // A deal has its last card land this long after the first one leaves.
+  public static final int DEAL_MS = 500;
+  private static final int DEAL_FLIGHT_MS = 250;
+
+  private class Track {
+    public Card[] mCard;
+    public float[] mStartX;
+    public float[] mStartY;
+    public int mCount;
+    public float mDx;
+    public float mDy;
+    public long mStart;
+    public int mDuration;
+    public CardAnchor mAnchor;
+    public Runnable mCallback;
+
+    public Track() {
+      mCard = new Card[1];
+      mStartX = new float[1];
+      mStartY = new float[1];
+    }
+
+    public void Set(Card[] card, int count, CardAnchor anchor, Runnable callback) {
+      if (count > mCard.length) {
+        mCard = new Card[count];
+        mStartX = new float[count];
+        mStartY = new float[count];
+      }
+      for (int i = 0; i < count; i++) {
+        mCard[i] = card[i];
+        mStartX[i] = card[i].GetX();
+        mStartY[i] = card[i].GetY();
+      }
+      mCount = count;
+      mDx = anchor.GetX() - mStartX[0];
+      mDy = anchor.GetNewY() - mStartY[0];
+      mAnchor = anchor;
+      mCallback = callback;
+    }
+
+    // How far along the track the cards are at time now, eased in and out.
+    public float Position(long now) {
+      if (now <= mStart) {
+        return 0;
+      }
+      if (now >= mStart + mDuration) {
+        return 1;
+      }
+      float t = (float)(now - mStart) / mDuration;
+      return t * t * (3 - 2 * t);
+    }
+
+    public boolean Done(long now) { return now >= mStart + mDuration; }
+
+    public void Land() {
+      for (int i = 0; i < mCount; i++) {
+        mAnchor.AddCard(mCard[i]);
+        mCard[i] = null;
+      }
+      mAnchor = null;
+      mCallback = null;
+    }
+  }
 
   protected SolitaireView mView;
-  private Card[] mCard;
-  private CardAnchor mCardAnchor;
-  private int mCount;
-  private int mFrames;
-  private float mDx;
-  private float mDy;
-  private boolean mAnimate;
-  private Runnable mCallback;
+  // In flight, in the order they leave, and landed ones kept for reuse.
+  private ArrayList<Track> mTrack;
+  private ArrayList<Track> mFree;
+  private Card[] mOneCard;
 
   public AnimateCard(SolitaireView view) {
     mView = view;
-    mAnimate = false;
-    mCard = new Card[104];
-    mCallback = null;
+    mTrack = new ArrayList<Track>();
+    mFree = new ArrayList<Track>();
+    mOneCard = new Card[1];
   }
 
-  public boolean GetAnimate() { return mAnimate; }
+  public boolean GetAnimate() { return !mTrack.isEmpty(); }
 
   public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    if (mAnimate) {
-      for (int j = 0; j < mCount; j++) {
-        mCard[j].MovePosition(-mDx, -mDy);
+    if (mTrack.isEmpty()) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    for (int i = 0; i < mTrack.size(); i++) {
+      Track track = mTrack.get(i);
+      float pos = track.Position(now);
+      for (int j = 0; j < track.mCount; j++) {
+        Card card = track.mCard[j];
+        card.SetPosition(track.mStartX[j] + track.mDx * pos, track.mStartY[j] + track.mDy * pos);
+        drawMaster.DrawCard(canvas, card);
       }
-      for (int i = 0; i < mCount; i++) {
-        drawMaster.DrawCard(canvas, mCard[i]);
+    }
+
+    // Land what has arrived in the order it left, letting the rules see each
+    // card before the next one lands. A track waits for any earlier one to
+    // the same anchor so the cards stack in order.
+    boolean landed = false;
+    int idx = 0;
+    while (idx < mTrack.size()) {
+      Track track = mTrack.get(idx);
+      if (!track.Done(now) || Blocked(idx)) {
+        idx++;
+        continue;
       }
-      mFrames--;
-      if (mFrames <= 0) {
-        mAnimate = false;
-        Finish();
+      mTrack.remove(idx);
+      Runnable callback = track.mCallback;
+      track.Land();
+      mFree.add(track);
+      mView.DrawBoard();
+      if (callback != null) {
+        callback.run();
       }
+      mView.CardLanded();
+      landed = true;
+      // The callback may have started more moves.
+      idx = 0;
+    }
+    if (landed && mTrack.isEmpty()) {
+      mView.AnimationDone();
     }
   }
 
-  public void MoveCards(Card[] card, CardAnchor anchor, int count, Runnable callback) {
-    float x = anchor.GetX();
-    float y = anchor.GetNewY();
-    mCardAnchor = anchor;
-    mCallback = callback;
-    mAnimate = true;
-
-    for (int i = 0; i < count; i++) {
-      mCard[i] = card[i];
+  private boolean Blocked(int idx) {
+    CardAnchor anchor = mTrack.get(idx).mAnchor;
+    for (int i = 0; i < idx; i++) {
+      if (mTrack.get(i).mAnchor == anchor) {
+        return true;
+      }
     }
-    mCount = count;
-    Move(mCard[0], x, y);
+    return false;
   }
 
-  public void MoveCard(Card card, CardAnchor anchor) {
-    float x = anchor.GetX();
-    float y = anchor.GetNewY();
-    mCardAnchor = anchor;
-    mCallback = null;
-    mAnimate = true;
-
-    mCard[0] = card;
-    mCount = 1;
-    Move(card, x, y);
+  private Track NewTrack(Card[] card, int count, CardAnchor anchor, Runnable callback) {
+    Track ret = mFree.isEmpty() ? new Track() : mFree.remove(mFree.size() - 1);
+    ret.Set(card, count, anchor, callback);
+    return ret;
   }
 
-  private void Move(Card card, float x, float y) {
-    float dx = x - card.GetX(); 
-    float dy = y - card.GetY(); 
-
-    mFrames = Math.round((float)Math.sqrt(dx * dx + dy * dy) / PPF);
-    if (mFrames == 0) {
-      mFrames = 1;
+  // Keep mTrack in start order, after the tracks leaving at the same time.
+  private void AddTrack(Track track) {
+    int idx = mTrack.size();
+    while (idx > 0 && mTrack.get(idx - 1).mStart > track.mStart) {
+      idx--;
     }
-    mDx = dx / mFrames;
-    mDy = dy / mFrames;
+    mTrack.add(idx, track);
+  }
 
+  public void MoveCards(Card[] card, CardAnchor anchor, int count, Runnable callback) {
+    Track track = NewTrack(card, count, anchor, callback);
+    float distance = (float)Math.sqrt(track.mDx * track.mDx + track.mDy * track.mDy);
+    track.mStart = SystemClock.uptimeMillis();
+    track.mDuration = Math.max(MIN_MS, Math.min(MAX_MS, Math.round(distance / SPEED)));
+    AddTrack(track);
     mView.StartAnimating();
-    if (!mAnimate) {
-      Finish();
-    }
   }
 
-  private void Finish() {
-    for (int i = 0; i < mCount; i++) {
-      mCardAnchor.AddCard(mCard[i]);
-      mCard[i] = null;
-    }
-    mCardAnchor = null;
-    mView.DrawBoard();
-    if (mCallback != null) {
-      mCallback.run();
+  public void MoveCard(Card card, CardAnchor anchor) {
+    mOneCard[0] = card;
+    MoveCards(mOneCard, anchor, 1, null);
+    mOneCard[0] = null;
+  }
+
+  // Deal a card to each anchor, the cards leaving one after another so the
+  // whole deal takes DEAL_MS however far the cards go.
+  public void DealCards(Card[] card, CardAnchor[] anchor, int count) {
+    long now = SystemClock.uptimeMillis();
+    int stagger = count > 1 ? (DEAL_MS - DEAL_FLIGHT_MS) / (count - 1) : 0;
+    for (int i = 0; i < count; i++) {
+      mOneCard[0] = card[i];
+      Track track = NewTrack(mOneCard, 1, anchor[i], null);
+      track.mStart = now + i * stagger;
+      track.mDuration = DEAL_FLIGHT_MS;
+      AddTrack(track);
     }
+    mOneCard[0] = null;
+    mView.StartAnimating();
   }
 
   public void Cancel() {
-    if (mAnimate) {
-      for (int i = 0; i < mCount; i++) {
-        mCardAnchor.AddCard(mCard[i]);
-        mCard[i] = null;
-      }
-      mCardAnchor = null;
-      mAnimate = false;
+    for (int i = 0; i < mTrack.size(); i++) {
+      mTrack.get(i).Land();
+      mFree.add(mTrack.get(i));
     }
+    mTrack.clear();
   }
 }
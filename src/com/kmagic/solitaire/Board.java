@@ -0,0 +1,191 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+/**
+ * Compact copy of a board for solvers and simulations.
+ *
+ * A card is one byte, suit * 13 + rank with rank 0 for the ace and suits as
+ * in {@link Card.SuiteEnum#ordinal()}. Each anchor is a pile of such bytes
+ * with a hidden count, pile numbers are the anchor numbers. Once created a
+ * board can be copied, compared and hashed without allocating.
+ */
+public class Board {
+
+  public static final int RANK_COUNT = 13;
+
+  private final byte[][] mPile;
+  private final int[] mCount;
+  private final int[] mHidden;
+
+  public Board(int pileCount, int cardCount) {
+    mPile = new byte[pileCount][cardCount];
+    mCount = new int[pileCount];
+    mHidden = new int[pileCount];
+  }
+
+  public Board(Board other) {
+    this(other.mPile.length, other.mPile[0].length);
+    CopyFrom(other);
+  }
+
+  // ==========================================================================
+  // Card encoding
+  // -------------
+  public static int Code(int suit, int rank) { return suit * RANK_COUNT + rank; }
+  public static int Rank(int code) { return code % RANK_COUNT; }
+  public static int Suit(int code) { return code / RANK_COUNT; }
+  // Diamonds and hearts have odd suit numbers.
+  public static boolean IsRed(int code) { return (Suit(code) & 1) != 0; }
+
+  static int Code(Card card) {
+    return card.GetCode();
+  }
+
+  static Card ToCard(int code) {
+    return new Card(Rank(code) + 1, Suit(code));
+  }
+
+  // ==========================================================================
+  // Conversion
+  // ----------
+  static Board FromAnchors(CardAnchor[] anchor, int cardCount) {
+    Board board = new Board(anchor.length, cardCount);
+    for (int i = 0; i < anchor.length; i++) {
+      Card[] card = anchor[i].GetCards();
+      for (int j = 0; j < anchor[i].GetCount(); j++) {
+        board.Push(i, Code(card[j]));
+      }
+      board.mHidden[i] = anchor[i].GetHiddenCount();
+    }
+    return board;
+  }
+
+  public static Board FromState(GameState state) {
+    Board board = new Board(state.GetCardAnchorCount(), state.GetCardCount());
+    int[] value = state.GetValue();
+    int[] suit = state.GetSuit();
+    int cardIdx = 0;
+    for (int i = 0; i < state.GetCardAnchorCount(); i++) {
+      for (int j = 0; j < state.GetAnchorCardCount()[i]; j++, cardIdx++) {
+        board.Push(i, Code(suit[cardIdx], value[cardIdx] - 1));
+      }
+      board.mHidden[i] = state.GetAnchorHiddenCount()[i];
+    }
+    return board;
+  }
+
+  public GameState ToState(int rulesExtra, int score, long seed) {
+    int cardCount = GetCardCount();
+    int[] value = new int[cardCount];
+    int[] suit = new int[cardCount];
+    int cardIdx = 0;
+    for (int i = 0; i < mPile.length; i++) {
+      for (int j = 0; j < mCount[i]; j++, cardIdx++) {
+        value[cardIdx] = Rank(mPile[i][j]) + 1;
+        suit[cardIdx] = Suit(mPile[i][j]);
+      }
+    }
+    return new GameState(mPile.length, cardCount, mCount.clone(), mHidden.clone(),
+                         value, suit, rulesExtra, score, seed);
+  }
+
+  // ==========================================================================
+  // Piles
+  // -----
+  public int GetPileCount() { return mPile.length; }
+  public int GetCount(int pile) { return mCount[pile]; }
+  public int GetHiddenCount(int pile) { return mHidden[pile]; }
+  public int GetVisibleCount(int pile) { return mCount[pile] - mHidden[pile]; }
+  public int GetCard(int pile, int idx) { return mPile[pile][idx]; }
+  public void SetHiddenCount(int pile, int count) { mHidden[pile] = count; }
+
+  // Top card of pile, -1 if it is empty.
+  public int GetTopCard(int pile) {
+    return mCount[pile] > 0 ? mPile[pile][mCount[pile] - 1] : -1;
+  }
+
+  public int GetCardCount() {
+    int ret = 0;
+    for (int i = 0; i < mCount.length; i++) {
+      ret += mCount[i];
+    }
+    return ret;
+  }
+
+  public void Push(int pile, int code) {
+    mPile[pile][mCount[pile]++] = (byte)code;
+  }
+
+  public int Pop(int pile) {
+    return mPile[pile][--mCount[pile]];
+  }
+
+  // Move the top count cards of from onto to, keeping their order.
+  public void MoveCards(int from, int count, int to) {
+    mCount[from] -= count;
+    System.arraycopy(mPile[from], mCount[from], mPile[to], mCount[to], count);
+    mCount[to] += count;
+  }
+
+  // Turn the top card of pile face up, returns false if it already was.
+  public boolean Unhide(int pile) {
+    if (mHidden[pile] > 0 && mHidden[pile] == mCount[pile]) {
+      mHidden[pile]--;
+      return true;
+    }
+    return false;
+  }
+
+  // ==========================================================================
+  // Copy and compare
+  // ----------------
+  public void CopyFrom(Board other) {
+    for (int i = 0; i < mPile.length; i++) {
+      System.arraycopy(other.mPile[i], 0, mPile[i], 0, other.mCount[i]);
+      mCount[i] = other.mCount[i];
+      mHidden[i] = other.mHidden[i];
+    }
+  }
+
+  public boolean Equals(Board other) {
+    for (int i = 0; i < mPile.length; i++) {
+      if (mCount[i] != other.mCount[i] || mHidden[i] != other.mHidden[i]) {
+        return false;
+      }
+      for (int j = 0; j < mCount[i]; j++) {
+        if (mPile[i][j] != other.mPile[i][j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  // 64 bit FNV-1a over the piles, hidden counts included.
+  public long Hash() {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < mPile.length; i++) {
+      hash = (hash ^ mHidden[i]) * 0x100000001B3L;
+      for (int j = 0; j < mCount[i]; j++) {
+        hash = (hash ^ mPile[i][j]) * 0x100000001B3L;
+      }
+      // Pile separator so cards can't shift between piles unnoticed.
+      hash = (hash ^ 0xFF) * 0x100000001B3L;
+    }
+    return hash;
+  }
+}
@@ -15,8 +15,6 @@
 */ 
 package com.kmagic.solitaire;
 
-import android.util.Log;
-
 import com.kmagic.solitaire.Card.SuiteEnum;
 import com.kmagic.solitaire.Card.ValueEnum;
 
@@ -148,6 +146,8 @@ class Card {
 
   private final ValueEnum mValue;
   private final SuiteEnum mSuit;
+  // Board.Code() of the card, kept for the lookup tables.
+  private final int mCode;
   private float mX;
   private float mY;
 
@@ -169,8 +169,6 @@ class Card {
    * @param height2
    */
   public static void SetSize(int width2, int height2) {
-    Log.d("Card.java", "SetSize");
-    
     WIDTH = width2/11;
     HEIGHT = (WIDTH*64)/45;
         
@@ -181,6 +179,7 @@ class Card {
   public Card(ValueEnum value, SuiteEnum suit) {
     mValue = value;
     mSuit = suit;
+    mCode = Board.Code(suit.ordinal(), value.ordinal());
     mX = 1;
     mY = 1;
   }
@@ -197,6 +196,7 @@ class Card {
   public float GetY() { return mY; }
   public ValueEnum getValue() { return mValue; }
   public SuiteEnum getSuit() { return mSuit; }
+  int GetCode() { return mCode; }
 
   public void SetPosition(float x, float y) {
     mX = x;
@@ -18,9 +18,6 @@ package com.kmagic.solitaire;
 import com.kmagic.solitaire.Card.SuiteEnum;
 import com.kmagic.solitaire.Card.ValueEnum;
 
-import android.graphics.Canvas;
-import android.util.Log;
-
 
 class CardAnchor {
 
@@ -46,6 +43,14 @@ class CardAnchor {
   protected float mBottom;
   protected boolean mDone;
 
+  // Set when the anchor looks different from when it was last drawn. The
+  // bounds are the area the cards covered at that time.
+  private boolean mDirty;
+  private float mBoundLeft;
+  private float mBoundTop;
+  private float mBoundRight;
+  private float mBoundBottom;
+
   //Variables for GenericAnchor
   protected int mSTARTSEQ;
   protected int mBUILDSEQ;
@@ -106,6 +111,7 @@ class CardAnchor {
     mBottom = -1;
     mNumber = -1;
     mDone = false;
+    mDirty = true;
   }
 
   // ==========================================================================
@@ -120,11 +126,17 @@ class CardAnchor {
   public int GetVisibleCount() { return mCardCount - mHiddenCount; }
   public int GetMovableCount() { return mCardCount > 0 ? 1 : 0; }
   public float GetX() { return mX; }
+  public float GetY() { return mY; }
   public float GetNewY() { return mY; }
   public boolean IsDone() { return mDone; }
+  public boolean IsDirty() { return mDirty; }
+  public float GetBoundLeft() { return mBoundLeft; }
+  public float GetBoundTop() { return mBoundTop; }
+  public float GetBoundRight() { return mBoundRight; }
+  public float GetBoundBottom() { return mBoundBottom; }
 
   public void SetBottom(float edge) { mBottom = edge; }
-  public void SetHiddenCount(int count) { mHiddenCount = count; }
+  public void SetHiddenCount(int count) { mHiddenCount = count; mDirty = true; }
   public void SetLeftEdge(float edge) { mLeftEdge = edge; }
   public void SetMaxHeight(int maxHeight) { }
   public void SetNumber(int number) { mNumber = number; }
@@ -132,21 +144,22 @@ class CardAnchor {
   public void SetRules(Rules rules) { mRules = rules; }
   public void SetShowing(int showing) {  }
   protected void SetCardPosition(int idx) { mCard[idx].SetPosition(mX, mY); }
-  public void SetDone(boolean done) { mDone = done; }
+  public void SetDone(boolean done) { mDone = done; mDirty = true; }
+  protected void MarkDirty() { mDirty = true; }
 
   //Methods for GenericAnchor
   public void SetStartSeq(int seq){ mSTARTSEQ = seq; }
-  public void SetSeq(int seq){ mBUILDSEQ = seq; mMOVESEQ = seq; }
-  public void SetBuildSeq(int buildseq){ mBUILDSEQ = buildseq;  }
-  public void SetMoveSeq(int moveseq){ mMOVESEQ = moveseq;  }
+  public void SetSeq(int seq){ mBUILDSEQ = seq; mMOVESEQ = seq; RulesChanged(); }
+  public void SetBuildSeq(int buildseq){ mBUILDSEQ = buildseq; RulesChanged(); }
+  public void SetMoveSeq(int moveseq){ mMOVESEQ = moveseq; RulesChanged(); }
   
-  public void SetWrap(boolean wrap){ mBUILDWRAP = wrap; mMOVEWRAP = wrap; }
-  public void SetMoveWrap(boolean movewrap){ mMOVEWRAP = movewrap;  }
+  public void SetWrap(boolean wrap){ mBUILDWRAP = wrap; mMOVEWRAP = wrap; RulesChanged(); }
+  public void SetMoveWrap(boolean movewrap){ mMOVEWRAP = movewrap; RulesChanged(); }
   public void SetBuildWrap(boolean buildwrap){ mBUILDWRAP = buildwrap;  }
   
-  public void SetSuit(int suit){ mBUILDSUIT = suit; mMOVESUIT = suit; }
-  public void SetBuildSuit(int buildsuit){ mBUILDSUIT = buildsuit;  }
-  public void SetMoveSuit(int movesuit){ mMOVESUIT = movesuit;  }
+  public void SetSuit(int suit){ mBUILDSUIT = suit; mMOVESUIT = suit; RulesChanged(); }
+  public void SetBuildSuit(int buildsuit){ mBUILDSUIT = buildsuit; RulesChanged(); }
+  public void SetMoveSuit(int movesuit){ mMOVESUIT = movesuit; RulesChanged(); }
   
   public void SetBehavior(int beh){ mDROPOFF = beh; mPICKUP = beh; }
   public void SetDropoff(int dropoff){ mDROPOFF = dropoff;  }
@@ -155,11 +168,14 @@ class CardAnchor {
   public void SetDisplay(int display){ mDISPLAY = display;  }
   
   public void SetHack(int hack){ mHACK = hack; }
+  // A build or move rule above changed.
+  protected void RulesChanged() { }
   //End Methods for Generic Anchor  
   
   public void SetPosition(float x, float y) {
     mX = x;
     mY = y;
+    mDirty = true;
     for (int i = 0; i < mCardCount; i++) {
       SetCardPosition(i);
     }
@@ -170,6 +186,7 @@ class CardAnchor {
   // ----------------------
   public void AddCard(Card card) {
     mCard[mCardCount++] = card;
+    mDirty = true;
     SetCardPosition(mCardCount - 1);
   }
 
@@ -183,7 +200,19 @@ class CardAnchor {
   }
 
   public boolean DropSingleCard(Card card) { return false; }
-  public boolean CanDropCard(MoveCard moveCard, int close) { return false; }
+
+  // Can the cards held by moveCard be dropped here, taking the position of
+  // the held cards into account.
+  public boolean CanDropCard(MoveCard moveCard, int close) {
+    Card card = moveCard.GetTopCard();
+    if (IsOverCard(card.GetX() + Card.WIDTH/2, card.GetY() + Card.HEIGHT/2, close)) {
+      return CanDropCards(card, moveCard.GetCount());
+    }
+    return false;
+  }
+
+  // Rules only check: can count cards starting with card be put on this anchor.
+  public boolean CanDropCards(Card card, int count) { return false; }
 
   // ==========================================================================
   // Functions to take cards
@@ -201,6 +230,7 @@ class CardAnchor {
   public Card PopCard() {
     Card ret = mCard[--mCardCount];
     mCard[mCardCount] = null;
+    mDirty = true;
     return ret;
   }
 
@@ -212,6 +242,7 @@ class CardAnchor {
   public boolean UnhideTopCard() {
     if (mCardCount  > 0 && mHiddenCount > 0 && mHiddenCount == mCardCount) {
       mHiddenCount--;
+      mDirty = true;
       return true;
     }
     return false;
@@ -258,12 +289,38 @@ class CardAnchor {
   // ==========================================================================
   // Functions to Draw
   // ----------------------------
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
+  // The view draws cards from GetFirstDrawnCard() up to the top card.
+  public int GetFirstDrawnCard() { return mCardCount - 1; }
+  public boolean IsCardFaceUp(int idx) { return true; }
+
+  // Take the area the anchor now covers as its bounds and mark it clean,
+  // called by the view once the anchor is drawn.
+  public void UpdateBounds() {
     if (mCardCount == 0) {
-      drawMaster.DrawEmptyAnchor(canvas, mX, mY, mDone);
+      mBoundLeft = mX;
+      mBoundTop = mY;
+      mBoundRight = mX + Card.WIDTH;
+      mBoundBottom = mY + Card.HEIGHT;
     } else {
-      drawMaster.DrawCard(canvas, mCard[mCardCount-1]);
+      Card first = mCard[GetFirstDrawnCard()];
+      float left = first.GetX();
+      float top = first.GetY();
+      float right = left;
+      float bottom = top;
+      for (int i = GetFirstDrawnCard() + 1; i < mCardCount; i++) {
+        float x = mCard[i].GetX();
+        float y = mCard[i].GetY();
+        left = x < left ? x : left;
+        top = y < top ? y : top;
+        right = x > right ? x : right;
+        bottom = y > bottom ? y : bottom;
+      }
+      mBoundLeft = left;
+      mBoundTop = top;
+      mBoundRight = right + Card.WIDTH;
+      mBoundBottom = bottom + Card.HEIGHT;
     }
+    mDirty = false;
   }
 }
 
@@ -276,7 +333,7 @@ class DealTo extends CardAnchor {
   }
 
   @Override
-  public void SetShowing(int showing) { mShowing = showing; }
+  public void SetShowing(int showing) { mShowing = showing; MarkDirty(); }
 
   @Override
   protected void SetCardPosition(int idx) { 
@@ -313,16 +370,8 @@ class DealTo extends CardAnchor {
   }
 
   @Override
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    if (mCardCount == 0) {
-      drawMaster.DrawEmptyAnchor(canvas, mX, mY, mDone);
-    } else {
-      for (int i = mCardCount - mShowing; i < mCardCount; i++) {
-        if (i >= 0) {
-          drawMaster.DrawCard(canvas, mCard[i]);
-        }
-      }
-    }
+  public int GetFirstDrawnCard() {
+    return mCardCount - mShowing < 0 ? 0 : mCardCount - mShowing;
   }
 }
 
@@ -394,6 +443,7 @@ class SeqStack extends CardAnchor {
     if (IsOverDeck(x, y)) {
       if (mHiddenCount >= mCardCount) {
         mHiddenCount = mCardCount == 0 ? 0 : mCardCount - 1;
+        MarkDirty();
       } else if (mCardCount - mHiddenCount > 1) {
         return true;
       }
@@ -405,19 +455,10 @@ class SeqStack extends CardAnchor {
   public int GetMovableCount() { return GetVisibleCount(); }
 
   @Override
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    if (mCardCount == 0) {
-      drawMaster.DrawEmptyAnchor(canvas, mX, mY, mDone);
-    } else {
-      for (int i = 0; i < mCardCount; i++) {
-        if (i < mHiddenCount) {
-          drawMaster.DrawHiddenCard(canvas, mCard[i]);
-        } else {
-          drawMaster.DrawCard(canvas, mCard[i]);
-        }
-      }
-    }
-  }
+  public int GetFirstDrawnCard() { return 0; }
+
+  @Override
+  public boolean IsCardFaceUp(int idx) { return idx >= mHiddenCount; }
 
   private void CheckSizing() {
     if (mCardCount < 2 || mCardCount - mHiddenCount < 2) {
@@ -471,13 +512,7 @@ class DealFrom extends CardAnchor {
   }
 
   @Override
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    if (mCardCount == 0) {
-      drawMaster.DrawEmptyAnchor(canvas, mX, mY, mDone);
-    } else {
-      drawMaster.DrawHiddenCard(canvas, mCard[mCardCount-1]);
-    }
-  }
+  public boolean IsCardFaceUp(int idx) { return false; }
 }
 
 // Anchor that holds increasing same suited cards
@@ -490,24 +525,8 @@ class SeqSink extends CardAnchor {
   }
 
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
-    Card card = moveCard.GetTopCard();
-    float x = card.GetX() + Card.WIDTH/2;
-    float y = card.GetY() + Card.HEIGHT/2;
-    Card topCard = mCardCount > 0 ? mCard[mCardCount - 1] : null;
-    float my = mCardCount > 0 ? topCard.GetY() : mY;
-
-    if (IsOverCard(x, y, close)) {
-      if (moveCard.GetCount() == 1) {
-        if ((topCard == null && card.getValue() == ValueEnum.ACE) ||
-            (topCard != null && card.getSuit() == topCard.getSuit() &&
-             card.getValue().isPrevious(topCard.getValue()))) {
-          return true;
-        }
-      }
-    }
-
-    return false;
+  public boolean CanDropCards(Card card, int count) {
+    return count == 1 && DropSingleCard(card);
   }
 
   @Override
@@ -527,23 +546,16 @@ class SeqSink extends CardAnchor {
 class SuitSeqStack extends SeqStack {
 
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
-
-    Card card = moveCard.GetTopCard();
-    float x = card.GetX() + Card.WIDTH/2;
-    float y = card.GetY() + Card.HEIGHT/2;
+  public boolean CanDropCards(Card card, int count) {
     Card topCard = mCardCount > 0 ? mCard[mCardCount - 1] : null;
-    float my = mCardCount > 0 ? topCard.GetY() : mY;
 
-    if (IsOverCard(x, y, close)) {
-      if (topCard == null) {
-        if (card.getValue() == ValueEnum.KING) {
-          return true;
-        }        
-      } else if ((card.getSuit().isRed()) != (topCard.getSuit().isRed()) &&
-                 card.getValue().isNext(topCard.getValue())) {
+    if (topCard == null) {
+      if (card.getValue() == ValueEnum.KING) {
         return true;
-      }
+      }        
+    } else if ((card.getSuit().isRed()) != (topCard.getSuit().isRed()) &&
+               card.getValue().isNext(topCard.getValue())) {
+      return true;
     }
 
     return false;
@@ -574,21 +586,9 @@ class SpiderStack extends SeqStack {
   }
 
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
-
-    Card card = moveCard.GetTopCard();
-    float x = card.GetX() + Card.WIDTH/2;
-    float y = card.GetY() + Card.HEIGHT/2;
+  public boolean CanDropCards(Card card, int count) {
     Card topCard = mCardCount > 0 ? mCard[mCardCount - 1] : null;
-    float my = mCardCount > 0 ? topCard.GetY() : mY;
-
-    if (IsOverCard(x, y, close)) {
-      if (topCard == null || card.getValue().isNext(topCard.getValue())) {
-        return true;
-      }
-    }
-
-    return false;
+    return topCard == null || card.getValue().isNext(topCard.getValue());
   }
 
   @Override
@@ -654,23 +654,16 @@ class SpiderStack extends SeqStack {
 class FreecellStack extends SeqStack {
 
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
-
-    Card card = moveCard.GetTopCard();
-    float x = card.GetX() + Card.WIDTH/2;
-    float y = card.GetY() + Card.HEIGHT/2;
+  public boolean CanDropCards(Card card, int count) {
     Card topCard = mCardCount > 0 ? mCard[mCardCount - 1] : null;
-    float my = mCardCount > 0 ? topCard.GetY() : mY;
 
-    if (IsOverCard(x, y, close)) {
-      if (topCard == null) {
-        if (mRules.CountFreeSpaces() >= moveCard.GetCount()) {
-          return true;
-        }
-      } else if ((card.getSuit().isRed()) != (topCard.getSuit().isRed()) &&
-                 card.getValue().isNext(topCard.getValue())) {
+    if (topCard == null) {
+      if (mRules.CountFreeSpaces() >= count) {
         return true;
       }
+    } else if ((card.getSuit().isRed()) != (topCard.getSuit().isRed()) &&
+               card.getValue().isNext(topCard.getValue())) {
+      return true;
     }
 
     return false;
@@ -736,13 +729,8 @@ class FreecellStack extends SeqStack {
 class FreecellHold extends CardAnchor {
 
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
-    Card card = moveCard.GetTopCard();
-    if (mCardCount == 0 && moveCard.GetCount() == 1 &&
-        IsOverCard(card.GetX() + Card.WIDTH/2, card.GetY() + Card.HEIGHT/2, close)) {
-      return true;
-    }
-    return false;
+  public boolean CanDropCards(Card card, int count) {
+    return mCardCount == 0 && count == 1;
   }
 
 }
@@ -786,12 +774,58 @@ class GenericAnchor extends CardAnchor {
   protected static final int SMALL_SPACING = 7;
   protected static final int HIDDEN_SPACING = 3;
 
+  protected static final int SUIT_RULES = SUIT_SAME + 1;
+  protected static final int SEQ_RULES = SEQ_DSC + 1;
+
+  // The build and move rules compiled to tables, one long per card code
+  // with bit c set when the card of code c goes on that card. The move
+  // tables come in pairs, without and with wrapping.
+  private static final long[][] BUILD_TABLE = new long[SEQ_RULES * SUIT_RULES][];
+  private static final long[][] MOVE_TABLE = new long[SEQ_RULES * SUIT_RULES * 2][];
+
+  static {
+    Card[] card = new Card[Board.RANK_COUNT * 4];
+    for (SuiteEnum suit : SuiteEnum.values()) {
+      for (ValueEnum value : ValueEnum.values()) {
+        card[Board.Code(suit.ordinal(), value.ordinal())] = new Card(value, suit);
+      }
+    }
+    for (int seq = 0; seq < SEQ_RULES; seq++) {
+      for (int suit = 0; suit < SUIT_RULES; suit++) {
+        int rule = seq * SUIT_RULES + suit;
+        BUILD_TABLE[rule] = new long[card.length];
+        MOVE_TABLE[rule * 2] = new long[card.length];
+        MOVE_TABLE[rule * 2 + 1] = new long[card.length];
+        for (int i = 0; i < card.length; i++) {
+          for (int j = 0; j < card.length; j++) {
+            if (Builds(seq, suit, card[i], card[j])) {
+              BUILD_TABLE[rule][i] |= 1L << j;
+            }
+            if (Moves(seq, suit, false, card[i], card[j])) {
+              MOVE_TABLE[rule * 2][i] |= 1L << j;
+            }
+            if (Moves(seq, suit, true, card[i], card[j])) {
+              MOVE_TABLE[rule * 2 + 1][i] |= 1L << j;
+            }
+          }
+        }
+      }
+    }
+  }
+
   protected int mSpacing;
   protected boolean mHideHidden;
   protected int mMaxHeight;
+
+  private long[] mBuildTable;
+  private long[] mMoveTable;
+  // Length of the run a move could pick up ending at each card, hidden
+  // cards and the pickup rule aside.
+  private int[] mRun;
   
   public GenericAnchor(){
     super();
+    mRun = new int[MAX_CARDS];
     SetStartSeq(GenericAnchor.SEQ_ANY);
     SetBuildSeq(GenericAnchor.SEQ_ANY);
     SetBuildWrap(false);
@@ -833,9 +867,30 @@ class GenericAnchor extends CardAnchor {
     SetPosition(mX, mY);
   }
   
+  @Override
+  protected void RulesChanged() {
+    int rule = mBUILDSEQ * SUIT_RULES + mBUILDSUIT;
+    mBuildTable = BUILD_TABLE[rule];
+    rule = mMOVESEQ * SUIT_RULES + mMOVESUIT;
+    mMoveTable = MOVE_TABLE[rule * 2 + (mMOVEWRAP ? 1 : 0)];
+    for (int i = 0; i < mCardCount; i++) {
+      UpdateRun(i);
+    }
+  }
+
+  private void UpdateRun(int idx) {
+    if (idx > 0 &&
+        (mMoveTable[mCard[idx-1].GetCode()] & 1L << mCard[idx].GetCode()) != 0) {
+      mRun[idx] = mRun[idx-1] + 1;
+    } else {
+      mRun[idx] = 1;
+    }
+  }
+
   @Override
   public void AddCard(Card card) {
     super.AddCard(card);
+    UpdateRun(mCardCount - 1);
     CheckSizing();
     if (mHACK == GenericAnchor.DEALHACK){
       mRules.EventAlert(Rules.EVENT_STACK_ADD, this);
@@ -850,20 +905,11 @@ class GenericAnchor extends CardAnchor {
   }
   
   @Override
-  public boolean CanDropCard(MoveCard moveCard, int close) {
+  public boolean CanDropCards(Card card, int count) {
     if (mDROPOFF == GenericAnchor.PACK_NONE){
       return false;
     }
-    
-    Card card = moveCard.GetTopCard();
-    float x = card.GetX() + Card.WIDTH/2;
-    float y = card.GetY() + Card.HEIGHT/2;
-    //Card topCard = mCardCount > 0 ? mCard[mCardCount - 1] : null;
-    //float my = mCardCount > 0 ? topCard.GetY() : mY;
-    if (IsOverCard(x, y, close)) {
-      return CanBuildCard(card);
-    }
-    return false;
+    return CanBuildCard(card);
   }
   
   public boolean CanBuildCard(Card card){
@@ -882,14 +928,17 @@ class GenericAnchor extends CardAnchor {
           return true;
       }
     }
+    return (mBuildTable[topCard.GetCode()] & 1L << card.GetCode()) != 0;
+  }
+
+  // Can card be built on top by the build rule seq and suit.
+  private static boolean Builds(int seq, int suit, Card top, Card card) {
     ValueEnum value = card.getValue();
-    SuiteEnum suit = card.getSuit();
-    ValueEnum tvalue = topCard.getValue();
-    SuiteEnum tsuit = topCard.getSuit();
+    SuiteEnum csuit = card.getSuit();
+    ValueEnum tvalue = top.getValue();
+    SuiteEnum tsuit = top.getSuit();
     // Fail if sequence is wrong
-    switch (mBUILDSEQ){
-    //WRAP_NOWRAP=1; //Building stacks do not wrap
-    //WRAP_WRAP=2;   //Building stacks wraps around
+    switch (seq){
       case GenericAnchor.SEQ_ASC:
         if (!value.isPrevious(tvalue)){
           return false;
@@ -907,59 +956,78 @@ class GenericAnchor extends CardAnchor {
         break;
     }
     // Fail if suit is wrong
-    switch (mBUILDSUIT){
+    switch (suit){
       case GenericAnchor.SUIT_RB:
-        if (tsuit.isRed() == suit.isRed()) {  return false;  } //  Math.abs(tsuit - suit)%2 == 0)
+        if (tsuit.isRed() == csuit.isRed()) {  return false;  }
         break;
       case GenericAnchor.SUIT_OTHER:
-        if (tsuit == suit){  return false;  }
+        if (tsuit == csuit){  return false;  }
         break;
       case GenericAnchor.SUIT_COLOR:
-        if (tsuit.isRed() != suit.isRed() ){  return false;  } // Math.abs(tsuit - suit) != 2
+        if (tsuit.isRed() != csuit.isRed() ){  return false;  }
         break;
       case GenericAnchor.SUIT_SAME:
-        if (tsuit != suit){  return false;  }
+        if (tsuit != csuit){  return false;  }
         break;
     }
     // Passes all rules
     return true;
   }
+
+  // Can card sit on below in a run picked up by the move rule seq and suit.
+  private static boolean Moves(int seq, int suit, boolean wrap, Card below, Card card) {
+    boolean h = true;
+    switch (seq){
+      case GenericAnchor.SEQ_ASC:
+        h = IsSeqAsc(below, card, wrap);
+        break;
+      case GenericAnchor.SEQ_DSC:
+        h = IsSeqAsc(card, below, wrap);
+        break;
+      case GenericAnchor.SEQ_SEQ:
+        h = IsSeqAsc(card, below, wrap) || IsSeqAsc(below, card, wrap);
+        break;
+    }
+    if (!h){
+      return false;
+    }
+    switch (suit){
+      case GenericAnchor.SUIT_COLOR:
+        return below.getSuit().isRed() == card.getSuit().isRed();
+      case GenericAnchor.SUIT_OTHER:
+        return below.getSuit() != card.getSuit();
+      case GenericAnchor.SUIT_RB:
+        return below.getSuit().isRed() != card.getSuit().isRed();
+      case GenericAnchor.SUIT_SAME:
+        return below.getSuit() == card.getSuit();
+    }
+    return true;
+  }
+
+  // c1 is one above c2, a king below an ace when wrapping.
+  private static boolean IsSeqAsc(Card c1, Card c2, boolean wrap){
+    ValueEnum v1 = c1.getValue();
+    ValueEnum v2 = c2.getValue();
+    if (v2.isNext(v1))
+      return true;
+    return wrap && v2 == ValueEnum.KING && v1 == ValueEnum.ACE;
+  }
   
   @Override
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    if (mCardCount == 0) {
-      drawMaster.DrawEmptyAnchor(canvas, mX, mY, mDone);
-      return;
-    }
+  public int GetFirstDrawnCard() { return 0; }
+
+  @Override
+  public boolean IsCardFaceUp(int idx) {
     switch (mDISPLAY){
-      case GenericAnchor.DISPLAY_ALL:
-        for (int i = 0; i < mCardCount; i++) {
-          drawMaster.DrawCard(canvas, mCard[i]);
-        }
-        break;
       case GenericAnchor.DISPLAY_HIDE:
-        for (int i = 0; i < mCardCount; i++) {
-          drawMaster.DrawHiddenCard(canvas, mCard[i]);
-        }
-        break;
+        return false;
       case GenericAnchor.DISPLAY_MIX:
-        for (int i = 0; i < mCardCount; i++) {
-          if (i < mHiddenCount) {
-            drawMaster.DrawHiddenCard(canvas, mCard[i]);
-          } else {
-            drawMaster.DrawCard(canvas, mCard[i]);
-          }
-        }
-        break;
+        return idx >= mHiddenCount;
       case GenericAnchor.DISPLAY_ONE:
-        for (int i = 0; i < mCardCount; i++) {
-          if (i < mCardCount-1) {
-            drawMaster.DrawHiddenCard(canvas, mCard[i]);
-          } else {
-            drawMaster.DrawCard(canvas, mCard[i]);
-          }
-        }
-        break;
+        return idx == mCardCount-1;
+      case GenericAnchor.DISPLAY_ALL:
+      default:
+        return true;
     }
   }
   
@@ -997,56 +1065,7 @@ class GenericAnchor extends CardAnchor {
     if (visibleCount == 0 || mPICKUP == GenericAnchor.PACK_NONE){
       return 0;
     }
-    int seq_allowed = 1;
-    if (visibleCount > 1){
-      int i = mCardCount-1;
-      boolean g;
-      boolean h;      
-      do {
-        g = true;
-        h = true;
-        switch (mMOVESEQ){
-          case GenericAnchor.SEQ_ANY:
-            h = true;
-            break;
-          case GenericAnchor.SEQ_ASC:
-            h = this.is_seq_asc(i-1, i, mMOVEWRAP);
-            break;
-          case GenericAnchor.SEQ_DSC:
-            h = this.is_seq_asc(i, i-1, mMOVEWRAP);
-            break;
-          case GenericAnchor.SEQ_SEQ:
-            h = (this.is_seq_asc(i, i-1, mMOVEWRAP) || 
-                this.is_seq_asc(i-1, i, mMOVEWRAP));
-            break;
-        }
-        if (h == false){
-          g = false;
-        }
-        switch (mMOVESUIT){
-          case GenericAnchor.SUIT_ANY:
-            h = true;
-            break;
-          case GenericAnchor.SUIT_COLOR:
-            h = !this.is_suit_rb(i-1,i);
-            break;
-          case GenericAnchor.SUIT_OTHER:
-            h = this.is_suit_other(i-1, i);
-            break;
-          case GenericAnchor.SUIT_RB:
-            h = this.is_suit_rb(i-1, i);
-            break;
-          case GenericAnchor.SUIT_SAME:
-            h = this.is_suit_same(i-1, i);
-            break;
-        }
-        if (h == false){
-          g = false;
-        }
-        if (g){  seq_allowed++;  }
-        i--;
-      }while(g && (mCardCount - i) < visibleCount);
-    }
+    int seq_allowed = Math.min(mRun[mCardCount-1], visibleCount);
     
     switch (mPICKUP){
       case GenericAnchor.PACK_NONE:
@@ -1065,42 +1084,6 @@ class GenericAnchor extends CardAnchor {
     }
     return seq_allowed;
   }
-  
-  public boolean is_seq_asc(int p1, int p2, boolean wrap){
-    Card c1 = mCard[p1];
-    Card c2 = mCard[p2];
-    ValueEnum v1 = c1.getValue();
-    ValueEnum v2 = c2.getValue();
-    
-    if (v2.isNext(v1))
-      return true;
-    
-//    if (v2 + 1 == v1){
-//      return true;
-//    }
-    if (wrap){
-      if (v2 == ValueEnum.KING && v1 == ValueEnum.ACE){
-        return true;
-      }
-    }
-    return false;
-  }
-  
-  public boolean is_suit_rb(int p1, int p2){
-    Card c1 = mCard[p1];
-    Card c2 = mCard[p2];
-    SuiteEnum s1 = c1.getSuit();
-    SuiteEnum s2 = c2.getSuit();
-    
-    return (s1.isRed() == s2.isBlack());
-    
-  }
-  public boolean is_suit_same(int p1, int p2){
-    return (mCard[p1].getSuit() == mCard[p2].getSuit());
-  }
-  public boolean is_suit_other(int p1, int p2){
-    return (mCard[p1].getSuit() != mCard[p2].getSuit());
-  }  
 
   private void CheckSizing() {
     if (mCardCount < 2 || mCardCount - mHiddenCount < 2) {
@@ -0,0 +1,341 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+import com.kmagic.solitaire.Card.SuiteEnum;
+import com.kmagic.solitaire.Card.ValueEnum;
+
+// The pieces card faces are put together from, the suit marks, the fonts and
+// the face card pictures of one card style. Once made it is only read, so
+// faces can be drawn from several threads at once.
+class CardFaces {
+
+  // Card layouts are given at this size. The pieces are drawn from their
+  // resources at the cell size and put at the scaled layout positions, so
+  // nothing is scaled twice.
+  public static final int WIDTH = 45;
+  public static final int HEIGHT = 64;
+
+  private static final int FONT_WIDTH = 7;
+  private static final int FONT_HEIGHT = 9;
+
+  private final boolean mBigCards;
+  private final int mWidth;
+  private final int mHeight;
+  private final float mScaleX;
+  private final float mScaleY;
+  private final Paint mPaint;
+  private final Paint mCardBorderPaint;
+  private final Paint mCardFrontPaint;
+
+  private Map<SuiteEnum, Bitmap> mSuit;
+  private Map<SuiteEnum, Bitmap> mRevSuit;
+  private Map<SuiteEnum, Bitmap> mSmallSuit;
+  private Map<SuiteEnum, Bitmap> mRevSmallSuit;
+  private Map<SuiteEnum, Bitmap> mBigSuit;
+  private Map<ValueEnum, Bitmap> mBlackFont;
+  private Map<ValueEnum, Bitmap> mRedFont;
+  private Map<ValueEnum, Bitmap> mRevBlackFont;
+  private Map<ValueEnum, Bitmap> mRevRedFont;
+  // Jack, queen and king pictures, red ones first.
+  private Bitmap[] mFace;
+  private Bitmap[] mRevFace;
+
+  // Pieces for faces of width by height pixels.
+  public CardFaces(Resources r, boolean bigCards, int width, int height) {
+    mBigCards = bigCards;
+    mWidth = width;
+    mHeight = height;
+    mScaleX = (float)width / WIDTH;
+    mScaleY = (float)height / HEIGHT;
+    mPaint = new Paint();
+    mPaint.setFilterBitmap(true);
+    mCardBorderPaint = new Paint();
+    mCardBorderPaint.setARGB(255, 0, 0, 0);
+    mCardFrontPaint = new Paint();
+    mCardFrontPaint.setARGB(255, 255, 255, 255);
+
+    if (bigCards) {
+      mSuit = fillDrawable(r, R.drawable.suits, 10, false);
+      mBigSuit = fillDrawable(r, R.drawable.bigsuits, 25, false);
+      mBlackFont = fillDrawable(r, R.drawable.bigblackfont, 18, 15, false);
+      mRedFont = fillDrawable(r, R.drawable.bigredfont, 18, 15, false);
+      return;
+    }
+
+    mSuit = fillDrawable(r, R.drawable.suits, 10, false);
+    mRevSuit = fillDrawable(r, R.drawable.suits, 10, true);
+
+    mSmallSuit = fillDrawable(r, R.drawable.smallsuits, 5, false);
+    mRevSmallSuit = fillDrawable(r, R.drawable.smallsuits, 5, true);
+
+    mBlackFont = fillDrawable(r, R.drawable.medblackfont, FONT_WIDTH, FONT_HEIGHT, false);
+    mRedFont = fillDrawable(r, R.drawable.medredfont, FONT_WIDTH, FONT_HEIGHT, false);
+    mRevBlackFont = fillDrawable(r, R.drawable.medblackfont, FONT_WIDTH, FONT_HEIGHT, true);
+    mRevRedFont = fillDrawable(r, R.drawable.medredfont, FONT_WIDTH, FONT_HEIGHT, true);
+
+    final int faceWidth = ScaleX(WIDTH - 20);
+    final int faceHeight = ScaleY(HEIGHT/2 - 9);
+    final int[] faceResource = { R.drawable.redjack, R.drawable.redqueen, R.drawable.redking,
+                                 R.drawable.blackjack, R.drawable.blackqueen,
+                                 R.drawable.blackking };
+    mFace = new Bitmap[faceResource.length];
+    mRevFace = new Bitmap[faceResource.length];
+    for (int i = 0; i < faceResource.length; i++) {
+      Drawable drawable = r.getDrawable(faceResource[i]);
+      mFace[i] = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
+      mRevFace[i] = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
+      Canvas canvas = new Canvas(mFace[i]);
+      drawable.setBounds(0, 0, faceWidth, faceHeight);
+      drawable.draw(canvas);
+      canvas = new Canvas(mRevFace[i]);
+      canvas.rotate(180);
+      drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
+      drawable.draw(canvas);
+    }
+  }
+
+  public static void DrawBack(Resources r, Canvas canvas, int width, int height) {
+    Drawable drawable = r.getDrawable(R.drawable.cardback);
+    drawable.setBounds(0, 0, width, height);
+    drawable.draw(canvas);
+  }
+
+  // A card with nothing on it, shown until the face is drawn.
+  public static void DrawBlank(Canvas canvas, int width, int height) {
+    Paint cardBorderPaint = new Paint();
+    Paint cardFrontPaint = new Paint();
+    cardBorderPaint.setARGB(255, 0, 0, 0);
+    cardFrontPaint.setARGB(255, 255, 255, 255);
+    DrawBlank(canvas, width, height, cardBorderPaint, cardFrontPaint);
+  }
+
+  // The border and corners keep their layout size in proportion.
+  private static void DrawBlank(Canvas canvas, int width, int height, Paint cardBorderPaint,
+                                Paint cardFrontPaint) {
+    float scaleX = (float)width / WIDTH;
+    float scaleY = (float)height / HEIGHT;
+    RectF pos = new RectF(0, 0, width, height);
+    canvas.drawRoundRect(pos, 4*scaleX, 4*scaleY, cardBorderPaint);
+    pos.set(scaleX, scaleY, width-scaleX, height-scaleY);
+    canvas.drawRoundRect(pos, 4*scaleX, 4*scaleY, cardFrontPaint);
+  }
+
+  public void DrawFace(Canvas canvas, SuiteEnum suite, ValueEnum val) {
+    DrawBlank(canvas, mWidth, mHeight, mCardBorderPaint, mCardFrontPaint);
+    if (mBigCards) {
+      DrawBigFace(canvas, suite, val);
+    } else {
+      DrawNormalFace(canvas, suite, val);
+    }
+  }
+
+  private void DrawBigFace(Canvas canvas, SuiteEnum suite, ValueEnum val) {
+    final int width = WIDTH;
+    final int height = HEIGHT;
+    if (suite.isRed()) {
+      Put(canvas, mRedFont.get(val), 3, 4);
+    } else {
+      Put(canvas, mBlackFont.get(val), 3, 4);
+    }
+
+    Put(canvas, mSuit.get(suite), width-14, 4);
+    Put(canvas, mBigSuit.get(suite), width/2-12, height/2-13);
+  }
+
+  private void DrawNormalFace(Canvas canvas, SuiteEnum suite, ValueEnum val) {
+    final int width = WIDTH;
+    final int height = HEIGHT;
+    final int fontWidth = FONT_WIDTH;
+    final int fontHeight = FONT_HEIGHT;
+    final int faceHeight = height/2 - 9;
+    final Bitmap suit = mSuit.get(suite);
+    final Bitmap revSuit = mRevSuit.get(suite);
+
+    if (suite.isRed()) {
+      Put(canvas, mRedFont.get(val), 2, 4);
+      Put(canvas, mRevRedFont.get(val), width-fontWidth-2, height-fontHeight-4);
+    } else {
+      Put(canvas, mBlackFont.get(val), 2, 4);
+      Put(canvas, mRevBlackFont.get(val), width-fontWidth-2, height-fontHeight-4);
+    }
+    if (fontWidth > 6) {
+      Put(canvas, mSmallSuit.get(suite), 3, 5+fontHeight);
+      Put(canvas, mRevSmallSuit.get(suite), width-7, height-11-fontHeight);
+    } else {
+      Put(canvas, mSmallSuit.get(suite), 2, 5+fontHeight);
+      Put(canvas, mRevSmallSuit.get(suite), width-6, height-11-fontHeight);
+    }
+
+    if (val.isFace()) {
+      Put(canvas, suit, 10, 9);
+      Put(canvas, revSuit, width-21, height-20);
+    }
+
+    int[] suitX = {9,width/2-5,width-20};
+    int[] suitY = {7,2*height/5-5,3*height/5-5,height-18};
+    int suitMidY = height/2 - 6;
+    switch (val) {
+      case ACE:
+        Put(canvas, suit, suitX[1], suitMidY);
+        break;
+      case TWO:
+        Put(canvas, suit, suitX[1], suitY[0]);
+        Put(canvas, revSuit, suitX[1], suitY[3]);
+        break;
+      case THREE:
+        Put(canvas, suit, suitX[1], suitY[0]);
+        Put(canvas, suit, suitX[1], suitMidY);
+        Put(canvas, revSuit, suitX[1], suitY[3]);
+        break;
+      case FOUR:
+        Put(canvas, suit, suitX[0], suitY[0]);
+        Put(canvas, suit, suitX[2], suitY[0]);
+        Put(canvas, revSuit, suitX[0], suitY[3]);
+        Put(canvas, revSuit, suitX[2], suitY[3]);
+        break;
+      case FIVE:
+        Put(canvas, suit, suitX[0], suitY[0]);
+        Put(canvas, suit, suitX[2], suitY[0]);
+        Put(canvas, suit, suitX[1], suitMidY);
+        Put(canvas, revSuit, suitX[0], suitY[3]);
+        Put(canvas, revSuit, suitX[2], suitY[3]);
+        break;
+      case SIX:
+        Put(canvas, suit, suitX[0], suitY[0]);
+        Put(canvas, suit, suitX[2], suitY[0]);
+        Put(canvas, suit, suitX[0], suitMidY);
+        Put(canvas, suit, suitX[2], suitMidY);
+        Put(canvas, revSuit, suitX[0], suitY[3]);
+        Put(canvas, revSuit, suitX[2], suitY[3]);
+        break;
+      case SEVEN:
+        Put(canvas, suit, suitX[0], suitY[0]);
+        Put(canvas, suit, suitX[2], suitY[0]);
+        Put(canvas, suit, suitX[0], suitMidY);
+        Put(canvas, suit, suitX[2], suitMidY);
+        Put(canvas, suit, suitX[1], (suitMidY+suitY[0])/2);
+        Put(canvas, revSuit, suitX[0], suitY[3]);
+        Put(canvas, revSuit, suitX[2], suitY[3]);
+        break;
+      case EIGHT:
+        Put(canvas, suit, suitX[0], suitY[0]);
+        Put(canvas, suit, suitX[2], suitY[0]);
+        Put(canvas, suit, suitX[0], suitMidY);
+        Put(canvas, suit, suitX[2], suitMidY);
+        Put(canvas, suit, suitX[1], (suitMidY+suitY[0])/2);
+        Put(canvas, revSuit, suitX[0], suitY[3]);
+        Put(canvas, revSuit, suitX[2], suitY[3]);
+        Put(canvas, revSuit, suitX[1], (suitY[3]+suitMidY)/2);
+        break;
+      case NINE:
+        for (int i = 0; i < 4; i++) {
+          Put(canvas, suit, suitX[(i%2)*2], suitY[i/2]);
+          Put(canvas, revSuit, suitX[(i%2)*2], suitY[i/2+2]);
+        }
+        Put(canvas, suit, suitX[1], suitMidY);
+        break;
+      case TEN:
+        for (int i = 0; i < 4; i++) {
+          Put(canvas, suit, suitX[(i%2)*2], suitY[i/2]);
+          Put(canvas, revSuit, suitX[(i%2)*2], suitY[i/2+2]);
+        }
+        Put(canvas, suit, suitX[1], (suitY[1]+suitY[0])/2);
+        Put(canvas, revSuit, suitX[1], (suitY[3]+suitY[2])/2);
+        break;
+
+      case JACK:
+      case QUEEN:
+      case KING:
+        float[] faceBox = { 9,8,width-10,8,
+                            width-10,8,width-10,height-9,
+                            width-10,height-9,9,height-9,
+                            9,height-8,9,8
+                          };
+        for (int i = 0; i < faceBox.length; i += 2) {
+          faceBox[i] *= mScaleX;
+          faceBox[i + 1] *= mScaleY;
+        }
+        canvas.drawLines(faceBox, mCardBorderPaint);
+        int face = val.ordinal() - ValueEnum.JACK.ordinal() + (suite.isRed() ? 0 : 3);
+        Put(canvas, mFace[face], 10, 9);
+        Put(canvas, mRevFace[face], 10, height-faceHeight-9);
+        break;
+    }
+  }
+
+  // Draw a piece with its top left at layout position x, y.
+  private void Put(Canvas canvas, Bitmap bitmap, int x, int y) {
+    canvas.drawBitmap(bitmap, Math.round(x * mScaleX), Math.round(y * mScaleY), mPaint);
+  }
+
+  private int ScaleX(int x) { return Math.max(1, Math.round(x * mScaleX)); }
+  private int ScaleY(int y) { return Math.max(1, Math.round(y * mScaleY)); }
+
+  // The pieces are cut at their layout size times the scale.
+  private Map<SuiteEnum, Bitmap> fillDrawable(Resources r, int suitResource, int bitmapSize, boolean rotate) {
+    Map<SuiteEnum, Bitmap> suit = new TreeMap<Card.SuiteEnum, Bitmap>();
+    Drawable drawable = r.getDrawable(suitResource);
+    final int width = ScaleX(bitmapSize);
+    final int height = ScaleY(bitmapSize);
+    int pos = 0;
+    for (SuiteEnum suite: SuiteEnum.values()) {
+      suit.put(suite, Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_4444));
+      Canvas canvas = new Canvas(suit.get(suite));
+      if (rotate) {
+        canvas.rotate(180);
+        drawable.setBounds(-pos*width-width, -height, -pos*width+3*width, 0);
+      } else {
+        drawable.setBounds(-pos*width, 0, -pos*width+4*width, height);
+      }
+      drawable.draw(canvas);
+      pos++;
+    }
+    return suit;
+  }
+
+  private Map<ValueEnum, Bitmap> fillDrawable(Resources r, int suitResource, int layoutWidth, int layoutHeight, boolean rotate) {
+    Map<ValueEnum, Bitmap> suit = new TreeMap<ValueEnum, Bitmap>();
+    Drawable drawable = r.getDrawable(suitResource);
+    final int fontWidth = ScaleX(layoutWidth);
+    final int fontHeight = ScaleY(layoutHeight);
+    int pos = 0;
+    for (ValueEnum val: ValueEnum.values()) {
+
+      suit.put(val, Bitmap.createBitmap(fontWidth, fontHeight, Bitmap.Config.ARGB_4444));
+      Canvas canvas = new Canvas(suit.get(val));
+      if (rotate) {
+        canvas.rotate(180);
+        drawable.setBounds(-pos*fontWidth-fontWidth, -fontHeight, -pos*fontWidth+(12*fontWidth), 0);
+      } else {
+        drawable.setBounds(-pos*fontWidth, 0, -pos*fontWidth+13*fontWidth, fontHeight);
+      }
+      drawable.draw(canvas);
+      pos++;
+    }
+    return suit;
+  }
+}
@@ -23,16 +23,24 @@ import com.kmagic.solitaire.Card.ValueEnum;
 /**
  * Represent a stock of decks, which is shuffled and can be dealt.
  *
+ * The order only depends on the seed (the deal number), so any deal can be
+ * made again from it.
  */
 public class Deck {
 
   private Card[] mCard;
   private int mCardCount;
+  private long mSeed;
+  private long mState;
 
   public Deck(int decks) {
     this(decks, 4);
   }
 
+  public Deck(int decks, int suits) {
+    this(decks, suits, NewSeed());
+  }
+
   /**
    * Create a stock of decks with each deck containing the specified amount of colors.
    * 
@@ -40,16 +48,26 @@ public class Deck {
    * 
    * @param decks number of decks
    * @param suits number of colors
+   * @param seed deal number deciding the order of the cards
    */
-  public Deck(int decks, int suits) {
+  public Deck(int decks, int suits, long seed) {
     if (suits == 2) {
       decks *= 2;
     } else if (suits == 1) {
       decks *= 4;
     }
+    mSeed = seed;
+    mState = seed;
     init(decks, suits);
   }
 
+  // A fresh random deal number.
+  public static long NewSeed() {
+    return new Random().nextLong();
+  }
+
+  public long GetSeed() { return mSeed; }
+
   private void init(int decks, int suits) {
     mCardCount = decks * 13 * suits;
     mCard = new Card[mCardCount];
@@ -68,8 +86,6 @@ public class Deck {
     }
 
     shuffle();
-    shuffle();
-    shuffle();
   }
 
   /**
@@ -97,18 +113,36 @@ public class Deck {
     return mCardCount == 0;
   }
 
+  // Fisher-Yates, every card can end up in every position.
   private void shuffle() {
-    int lastIdx = mCardCount - 1;
     int swapIdx;
     Card swapCard;
-    Random rand = new Random();
 
-    while (lastIdx > 1) {
-      swapIdx = rand.nextInt(lastIdx);
+    for (int lastIdx = mCardCount - 1; lastIdx > 0; lastIdx--) {
+      swapIdx = nextInt(lastIdx + 1);
       swapCard = mCard[swapIdx];
       mCard[swapIdx] = mCard[lastIdx];
       mCard[lastIdx] = swapCard;
-      lastIdx--;
     }
   }
+
+  // SplitMix64, java.util.SplittableRandom is not available on older
+  // Android versions and the deals have to be the same everywhere.
+  private long nextLong() {
+    long z = (mState += 0x9E3779B97F4A7C15L);
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // Uniform in [0, bound), values past the last full multiple of bound are
+  // drawn again so low numbers are not favoured.
+  private int nextInt(int bound) {
+    int bits, val;
+    do {
+      bits = (int)(nextLong() >>> 33);
+      val = bits % bound;
+    } while (bits - val + (bound - 1) < 0);
+    return val;
+  }
 }
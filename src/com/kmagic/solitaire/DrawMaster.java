@@ -15,16 +15,26 @@
 */ 
 package com.kmagic.solitaire;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.TextView;
 
@@ -41,14 +51,46 @@ public class DrawMaster {
   private int mScreenHeight;
   private Paint mBGPaint;
 
-  // Card stuff
+  // Card stuff. All faces and the back are cells of one atlas bitmap, the
+  // source rect of a face is at the card's Board code and the back follows.
+  private static final int ATLAS_COLUMNS = 13;
+  private static final int ATLAS_ROWS = 5;
+  private static final int CARD_BACK = 52;
+  // Bump when the card layout code changes, drawn atlases are cached on disk
+  // by this, the app version, the card size and the style.
+  private static final int ATLAS_VERSION = 2;
+  private static final String ATLAS_CACHE_PREFIX = "cards-";
   private final Paint mSuitPaint = new Paint();
-  private final Map<SuiteEnum, Map<ValueEnum, Bitmap>> mCardBitmap;
-  private Bitmap mCardHidden;
+  private Bitmap mCardAtlas;
+  private final Rect[] mCardSource = new Rect[CARD_BACK + 1];
+  private final RectF mCardDest = new RectF();
+  // Outlines of hints and empty anchors.
+  private final RectF mOutline = new RectF();
+  // The atlas is drawn at the on screen card size, so a card is drawn with
+  // a plain copy. These are the style and size it was drawn for.
+  private boolean mBigCards;
+  private int mAtlasWidth;
+  private int mAtlasHeight;
+  private boolean mHaveSize;
+
+  // Faces are drawn a suit at a time on a small pool while the backs and
+  // blank faces already show. Rows of an older atlas generation are dropped.
+  private final ExecutorService mFaceExecutor;
+  private final Handler mHandler;
+  private final Paint mCopyPaint;
+  private int mAtlasGeneration;
+  private int mSuitsLeft;
+  private Runnable mFacesCallback;
+
+  // Startup trace
+  private final long mCreateTime;
+  private boolean mFirstFrameTraced;
+  private boolean mFacesTraced;
 
   private Paint mEmptyAnchorPaint;
   private Paint mDoneEmptyAnchorPaint;
   private Paint mShadePaint;
+  private Paint mHintPaint;
   private Paint mLightShadePaint;
   
   private Paint mTimePaint;
@@ -59,14 +101,18 @@ public class DrawMaster {
   private Bitmap mBoardBitmap;
   private Canvas mBoardCanvas;
 
-  private static int WIDTH = 45; //    mScreenWidth = 480; 10
-  private static int HEIGHT = 64; // mScreenHeight = 295; 4
+  // The anchors last drawn to the board bitmap, a different set or a cleared
+  // mBoardValid means the whole board is drawn again.
+  private CardAnchor[] mBoardAnchor;
+  private boolean mBoardValid;
+  private final RectF mDirtyRect = new RectF();
 
   //private Theme fTheme = null;
 
   public DrawMaster(Context context) {
 
     mContext = context;
+    mCreateTime = SystemClock.uptimeMillis();
     // Default to this for simplicity
     mScreenWidth = 480;
     mScreenHeight = 295;
@@ -81,6 +127,12 @@ public class DrawMaster {
     mLightShadePaint = new Paint();
     mLightShadePaint.setARGB(100, 0, 0, 0);
 
+    mHintPaint = new Paint();
+    mHintPaint.setARGB(255, 255, 255, 0);
+    mHintPaint.setStyle(Paint.Style.STROKE);
+    mHintPaint.setStrokeWidth(3);
+    mHintPaint.setAntiAlias(true);
+
     // Card related stuff
     mEmptyAnchorPaint = new Paint();
     mEmptyAnchorPaint.setARGB(255, 0, 64, 0);
@@ -94,7 +146,17 @@ public class DrawMaster {
     mTimePaint.setAntiAlias(true);
     mLastSeconds = -1;
 
-    mCardBitmap = new TreeMap<Card.SuiteEnum, Map<ValueEnum, Bitmap>>();
+    mCopyPaint = new Paint();
+    mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    mHandler = new Handler();
+    int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    mFaceExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread ret = new Thread(runnable, "CardFaces");
+        ret.setDaemon(true);
+        return ret;
+      }
+    });
     DrawCards(false);
     mBoardBitmap = Bitmap.createBitmap(mScreenWidth, mScreenHeight, Bitmap.Config.RGB_565);
     mBoardCanvas = new Canvas(mBoardBitmap);
@@ -107,24 +169,83 @@ public class DrawMaster {
   public Canvas GetBoardCanvas() { return mBoardCanvas; }
 
   public void DrawCard(Canvas canvas, Card card) {
-    float x = card.GetX();
-    float y = card.GetY();
-    //int idx = card.getSuit()*13+(card.getValue()-1);
-    //canvas.drawBitmap(mCardBitmap.get(card.getSuit()).get(card.getValue()), x, y, mSuitPaint);
-    RectF dest = new RectF(x,y, x + Card.WIDTH,y + Card.HEIGHT);
-    canvas.drawBitmap(mCardBitmap.get(card.getSuit()).get(card.getValue()), null, dest, mSuitPaint);
+    DrawAtlasCell(canvas, Board.Code(card), card.GetX(), card.GetY());
   }
 
   public void DrawHiddenCard(Canvas canvas, Card card) {
-    float x = card.GetX();
-    float y = card.GetY();
-    //canvas.drawBitmap(mCardHidden, x, y, mSuitPaint);
-    RectF dest = new RectF(x,y, x + Card.WIDTH,y + Card.HEIGHT);
-    canvas.drawBitmap(mCardHidden, null, dest, mSuitPaint);
+    DrawAtlasCell(canvas, CARD_BACK, card.GetX(), card.GetY());
+  }
+
+  private void DrawAtlasCell(Canvas canvas, int idx, float x, float y) {
+    RectF dest = mCardDest;
+    dest.set(x, y, x + Card.WIDTH, y + Card.HEIGHT);
+    canvas.drawBitmap(mCardAtlas, mCardSource[idx], dest, mSuitPaint);
+  }
+
+  public void DrawAnchor(Canvas canvas, CardAnchor anchor) {
+    int count = anchor.GetCount();
+    if (count == 0) {
+      DrawEmptyAnchor(canvas, anchor.GetX(), anchor.GetY(), anchor.IsDone());
+      return;
+    }
+    Card[] card = anchor.GetCards();
+    for (int i = anchor.GetFirstDrawnCard(); i < count; i++) {
+      if (anchor.IsCardFaceUp(i)) {
+        DrawCard(canvas, card[i]);
+      } else {
+        DrawHiddenCard(canvas, card[i]);
+      }
+    }
+  }
+
+  public void DrawMoveCard(Canvas canvas, MoveCard moveCard) {
+    Card[] card = moveCard.GetCards();
+    for (int i = 0; i < moveCard.GetCount(); i++) {
+      DrawCard(canvas, card[i]);
+    }
+  }
+
+  public void DrawSelectCard(Canvas canvas, SelectCard selectCard) {
+    Card[] card = selectCard.GetCards();
+    DrawLightShade(canvas);
+    for (int i = 0; i < selectCard.GetCardCount(); i++) {
+      DrawCard(canvas, card[i]);
+    }
+  }
+
+  // Outline the cards a hint moves and where they go. A hint from and to
+  // the same anchor is to tap the deck.
+  public void DrawHint(Canvas canvas, CardAnchor from, int count, CardAnchor to) {
+    if (from.GetCount() > 0) {
+      Card[] card = from.GetCards();
+      Card first = card[from.GetCount() - Math.max(count, 1)];
+      Card last = card[from.GetCount() - 1];
+      RectF pos = mOutline;
+      pos.set(first.GetX(), first.GetY(), last.GetX() + Card.WIDTH, last.GetY() + Card.HEIGHT);
+      canvas.drawRoundRect(pos, 4, 4, mHintPaint);
+    } else {
+      DrawHintAt(canvas, from.GetX(), from.GetY());
+    }
+    if (to == from) {
+      return;
+    }
+    if (to.GetCount() > 0) {
+      Card top = to.GetCards()[to.GetCount() - 1];
+      DrawHintAt(canvas, top.GetX(), top.GetY());
+    } else {
+      DrawHintAt(canvas, to.GetX(), to.GetY());
+    }
+  }
+
+  private void DrawHintAt(Canvas canvas, float x, float y) {
+    RectF pos = mOutline;
+    pos.set(x, y, x + Card.WIDTH, y + Card.HEIGHT);
+    canvas.drawRoundRect(pos, 4, 4, mHintPaint);
   }
 
   public void DrawEmptyAnchor(Canvas canvas, float x, float y, boolean done) {
-    RectF pos = new RectF(x, y, x + Card.WIDTH, y + Card.HEIGHT);
+    RectF pos = mOutline;
+    pos.set(x, y, x + Card.WIDTH, y + Card.HEIGHT);
     if (!done) {
       canvas.drawRoundRect(pos, 4, 4, mEmptyAnchorPaint);
     } else {
@@ -144,10 +265,62 @@ public class DrawMaster {
     canvas.drawRect(0, 0, mScreenWidth, mScreenHeight, mLightShadePaint);
   }
 
+  // Bring the board bitmap up to date. Only the area an anchor covered
+  // before and after it changed is painted again, along with the parts of
+  // any other anchor that fall inside it.
+  public void DrawBoard(CardAnchor[] anchor) {
+    if (mCardAtlas == null) {
+      return;
+    }
+    if (!mBoardValid || anchor != mBoardAnchor) {
+      DrawBackground(mBoardCanvas);
+      for (int i = 0; i < anchor.length; i++) {
+        DrawAnchor(mBoardCanvas, anchor[i]);
+        anchor[i].UpdateBounds();
+      }
+      mBoardAnchor = anchor;
+      mBoardValid = true;
+      return;
+    }
+
+    RectF dirty = mDirtyRect;
+    for (int i = 0; i < anchor.length; i++) {
+      if (!anchor[i].IsDirty()) {
+        continue;
+      }
+      dirty.set(anchor[i].GetBoundLeft(), anchor[i].GetBoundTop(),
+                anchor[i].GetBoundRight(), anchor[i].GetBoundBottom());
+      anchor[i].UpdateBounds();
+      dirty.union(anchor[i].GetBoundLeft(), anchor[i].GetBoundTop(),
+                  anchor[i].GetBoundRight(), anchor[i].GetBoundBottom());
+      // Scaled card edges bleed into the pixel next to them.
+      dirty.inset(-1, -1);
+
+      mBoardCanvas.save();
+      mBoardCanvas.clipRect(dirty);
+      DrawBackground(mBoardCanvas);
+      for (int j = 0; j < anchor.length; j++) {
+        if (dirty.intersects(anchor[j].GetBoundLeft(), anchor[j].GetBoundTop(),
+                             anchor[j].GetBoundRight(), anchor[j].GetBoundBottom())) {
+          DrawAnchor(mBoardCanvas, anchor[j]);
+        }
+      }
+      mBoardCanvas.restore();
+    }
+  }
+
   public void DrawLastBoard(Canvas canvas) {
     canvas.drawBitmap(mBoardBitmap, 0, 0, mSuitPaint);
+    if (!mFirstFrameTraced) {
+      mFirstFrameTraced = true;
+      Log.i("DrawMaster.java", "First frame after " +
+            (SystemClock.uptimeMillis() - mCreateTime) + "ms");
+    }
   }
 
+  // Called on the UI thread each time a suit of faces is added to the atlas.
+  public void SetFacesCallback(Runnable callback) { mFacesCallback = callback; }
+
   public void SetScreenSize(int width, int height) {
     
     Log.i("Drawmaster.java", "size is " + width + "/" + height);
@@ -155,380 +328,242 @@ public class DrawMaster {
     mScreenHeight = height;
     mBoardBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
     mBoardCanvas = new Canvas(mBoardBitmap);
+    mBoardValid = false;
+    mHaveSize = true;
     
     Card.SetSize(width,height);
+    DrawCards(mBigCards);
   }
   
 
+  // Get the card atlas for the style and the current Card size, from memory
+  // if it is already drawn that way, else from the disk cache and only
+  // drawn from the card pieces when neither has it. The backs and blank
+  // faces show until either lands. Until the screen size is known only the
+  // style is kept.
   public void DrawCards(boolean bigCards) {
-    if (bigCards) {
-      DrawBigCards(mContext.getResources());
+    if (mCardAtlas != null && bigCards == mBigCards &&
+        mAtlasWidth == Card.WIDTH && mAtlasHeight == Card.HEIGHT) {
+      return;
+    }
+    mBigCards = bigCards;
+    if (!mHaveSize || Card.WIDTH < 1 || Card.HEIGHT < 1) {
+      return;
+    }
+    mAtlasWidth = Card.WIDTH;
+    mAtlasHeight = Card.HEIGHT;
+    mBoardValid = false;
+
+    mAtlasGeneration++;
+
+    File cacheFile = GetAtlasCacheFile();
+    Resources r = mContext.getResources();
+    Canvas atlas = CreateAtlas(mAtlasWidth, mAtlasHeight);
+    Rect cell = mCardSource[CARD_BACK];
+    CardFaces.DrawBack(r, BeginCell(atlas, cell.left, cell.top, mAtlasWidth, mAtlasHeight),
+                       mAtlasWidth, mAtlasHeight);
+    atlas.restore();
+    for (int i = 0; i < CARD_BACK; i++) {
+      cell = mCardSource[i];
+      CardFaces.DrawBlank(BeginCell(atlas, cell.left, cell.top, mAtlasWidth, mAtlasHeight),
+                          mAtlasWidth, mAtlasHeight);
+      atlas.restore();
+    }
+    if (cacheFile.exists()) {
+      LoadAtlas(r, cacheFile);
     } else {
-      DrawCards(mContext.getResources());
+      DrawFaces(r, cacheFile);
     }
   }
 
-  private void DrawBigCards(Resources r) {
-
-    Paint cardFrontPaint = new Paint();
-    Paint cardBorderPaint = new Paint();
-    Canvas canvas;
-    int width = WIDTH;
-    int height = HEIGHT;
-
-    Drawable drawable = r.getDrawable(R.drawable.cardback);
-
-    mCardHidden = Bitmap.createBitmap(WIDTH, HEIGHT,
-                                      Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(mCardHidden);
-    drawable.setBounds(0, 0, WIDTH, HEIGHT);
-    drawable.draw(canvas);
-
-    Map<SuiteEnum, Bitmap> suit = fillDrawable(r, canvas, R.drawable.suits, 10, false);
-    Map<SuiteEnum, Bitmap> bigSuit = fillDrawable(r, canvas, R.drawable.bigsuits, 25, false);
-
-    Map<ValueEnum, Bitmap> blackFont = fillDrawable(r, canvas, R.drawable.bigblackfont, 18, 15, false);
-    Map<ValueEnum, Bitmap> redFont = fillDrawable(r, canvas, R.drawable.bigredfont, 18, 15, false);
-
-    cardBorderPaint.setARGB(255, 0, 0, 0);
-    cardFrontPaint.setARGB(255, 255, 255, 255);
-    RectF pos = new RectF();
-    for (SuiteEnum suite : SuiteEnum.values()) {
-      mCardBitmap.put(suite, new TreeMap<Card.ValueEnum, Bitmap>());
-      for (ValueEnum val: ValueEnum.values()) {
-        mCardBitmap.get(suite).put(val, Bitmap.createBitmap(
-            width, height, Bitmap.Config.ARGB_4444));
-        canvas = new Canvas(mCardBitmap.get(suite).get(val));
-        pos.set(0, 0, width, height);
-        canvas.drawRoundRect(pos, 4, 4, cardBorderPaint);
-        pos.set(1, 1, width-1, height-1);
-        canvas.drawRoundRect(pos, 4, 4, cardFrontPaint);
-
-        if (suite.isRed()) {
-          canvas.drawBitmap(redFont.get(val), 3, 4, mSuitPaint);
-        } else {
-          canvas.drawBitmap(blackFont.get(val), 3, 4, mSuitPaint);
+  // Draw the faces of each suit into a row of its own on the pool, they are
+  // copied into the atlas on the UI thread.
+  private void DrawFaces(final Resources r, final File cacheFile) {
+    final int generation = mAtlasGeneration;
+    final boolean bigCards = mBigCards;
+    final int width = mAtlasWidth;
+    final int height = mAtlasHeight;
+    mSuitsLeft = SuiteEnum.values().length;
+    mFaceExecutor.execute(new Runnable() {
+      public void run() {
+        final CardFaces faces = new CardFaces(r, bigCards, width, height);
+        for (final SuiteEnum suite : SuiteEnum.values()) {
+          mFaceExecutor.execute(new Runnable() {
+            public void run() {
+              final Bitmap row = DrawSuit(faces, suite, width, height);
+              mHandler.post(new Runnable() {
+                public void run() {
+                  AddSuit(generation, suite, row, cacheFile);
+                }
+              });
+            }
+          });
         }
+      }
+    });
+  }
 
+  private static Bitmap DrawSuit(CardFaces faces, SuiteEnum suite, int width, int height) {
+    Bitmap row = Bitmap.createBitmap(AtlasWidth(width), height + 2, Bitmap.Config.ARGB_4444);
+    Canvas canvas = new Canvas(row);
+    for (ValueEnum val : ValueEnum.values()) {
+      faces.DrawFace(BeginCell(canvas, val.ordinal() * (width + 2) + 1, 1, width, height),
+                     suite, val);
+      canvas.restore();
+    }
+    return row;
+  }
 
-        canvas.drawBitmap(suit.get(suite), width-14, 4, mSuitPaint);
-        canvas.drawBitmap(bigSuit.get(suite), width/2-12, height/2-13, mSuitPaint);
-      }
+  private void AddSuit(int generation, SuiteEnum suite, Bitmap row, File cacheFile) {
+    if (generation != mAtlasGeneration) {
+      row.recycle();
+      return;
+    }
+    Canvas atlas = new Canvas(mCardAtlas);
+    atlas.drawBitmap(row, 0, suite.ordinal() * (mAtlasHeight + 2), mCopyPaint);
+    row.recycle();
+    mBoardValid = false;
+    if (--mSuitsLeft == 0) {
+      SaveAtlas(cacheFile);
+      TraceFaces();
+    }
+    if (mFacesCallback != null) {
+      mFacesCallback.run();
     }
   }
 
-  /**
-   * @param r 
-   * @param canvas
-   * @param rotate 
-   * @param suits
-   * @param i
-   * @return
-   */
-  private Map<SuiteEnum, Bitmap> fillDrawable(Resources r, Canvas canvas, int suitResource, int bitmapSize, boolean rotate) {
-    Map<SuiteEnum, Bitmap> suit = new TreeMap<Card.SuiteEnum, Bitmap>();
-    Drawable drawable = r.getDrawable(suitResource);
-    int pos = 0;
-    for (SuiteEnum suite: SuiteEnum.values()) {
-      suit.put(suite, Bitmap.createBitmap(bitmapSize, bitmapSize, Bitmap.Config.ARGB_4444));
-      canvas = new Canvas(suit.get(suite));
-      if (rotate) {
-        canvas.rotate(180);
-        drawable.setBounds(-pos*bitmapSize-bitmapSize, -bitmapSize, -pos*bitmapSize+3*bitmapSize, 0);
-      } else {
-        drawable.setBounds(-pos*bitmapSize, 0, -pos*bitmapSize+4*bitmapSize, bitmapSize);
-      }
-      drawable.draw(canvas);
-      pos++;
+  private void TraceFaces() {
+    if (!mFacesTraced) {
+      mFacesTraced = true;
+      Log.i("DrawMaster.java", "All card faces after " +
+            (SystemClock.uptimeMillis() - mCreateTime) + "ms");
     }
-    return suit;
   }
 
-  private Map<ValueEnum, Bitmap> fillDrawable(Resources r, Canvas canvas, int suitResource, int fontWidth, int fontHeight, boolean rotate) {
-    Map<ValueEnum, Bitmap> suit = new TreeMap<ValueEnum, Bitmap>();
-    Drawable drawable = r.getDrawable(suitResource);
-    int pos = 0;
-    for (ValueEnum val: ValueEnum.values()) {
-
-      suit.put(val, Bitmap.createBitmap(fontWidth, fontHeight, Bitmap.Config.ARGB_4444));
-      canvas = new Canvas(suit.get(val));
-      if (rotate) {
-        canvas.rotate(180);
-        drawable.setBounds(-pos*fontWidth-fontWidth, -fontHeight, -pos*fontWidth+(12*fontWidth), 0);
-      } else {
-        drawable.setBounds(-pos*fontWidth, 0, -pos*fontWidth+13*fontWidth, fontHeight);
-      }
-      drawable.draw(canvas);
-      pos++;
+  private String GetAtlasCachePrefix() {
+    int appVersion = 0;
+    try {
+      appVersion = mContext.getPackageManager().getPackageInfo(
+          mContext.getPackageName(), 0).versionCode;
+    } catch (PackageManager.NameNotFoundException e) {
+      Log.e("DrawMaster.java", "No package info " + e);
     }
-    return suit;
+    return ATLAS_CACHE_PREFIX + ATLAS_VERSION + "." + appVersion + "-";
   }
 
-  private void DrawCards(Resources r) {
-
-    Paint cardFrontPaint = new Paint();
-    Paint cardBorderPaint = new Paint();
-
-    Bitmap redJack;
-    Bitmap redRevJack;
-    Bitmap redQueen;
-    Bitmap redRevQueen;
-    Bitmap redKing;
-    Bitmap redRevKing;
-    Bitmap blackJack;
-    Bitmap blackRevJack;
-    Bitmap blackQueen;
-    Bitmap blackRevQueen;
-    Bitmap blackKing;
-    Bitmap blackRevKing;
-    Canvas canvas;
-    
-    final int width = WIDTH;
-    final int height = HEIGHT;
-    final int fontWidth;
-    final int fontHeight;
-    fontWidth = 7;
-    fontHeight = 9;
-
-    float[] faceBox = { 9,8,width-10,8,
-                        width-10,8,width-10,height-9,
-                        width-10,height-9,9,height-9,
-                        9,height-8,9,8
-                      };
-    Drawable drawable = r.getDrawable(R.drawable.cardback);
-
-    mCardHidden = Bitmap.createBitmap(WIDTH, HEIGHT,
-                                      Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(mCardHidden);
-    drawable.setBounds(0, 0, WIDTH, HEIGHT);
-    drawable.draw(canvas);
-
-    Map<SuiteEnum, Bitmap> suit = fillDrawable(r, canvas, R.drawable.suits, 10, false);
-    Map<SuiteEnum, Bitmap> revSuit = fillDrawable(r, canvas, R.drawable.suits, 10, true);
-
-    Map<SuiteEnum, Bitmap> smallSuit = fillDrawable(r, canvas, R.drawable.smallsuits, 5, false);
-    Map<SuiteEnum, Bitmap> revSmallSuit = fillDrawable(r, canvas, R.drawable.smallsuits, 5, true);
-
-    Map<ValueEnum, Bitmap> blackFont = fillDrawable(r, canvas, R.drawable.medblackfont, 7, 9, false);
-    Map<ValueEnum, Bitmap> redFont = fillDrawable(r, canvas, R.drawable.medredfont, 7, 9, false);
-    Map<ValueEnum, Bitmap> revBlackFont = fillDrawable(r, canvas, R.drawable.medblackfont, 7, 9, true);
-    Map<ValueEnum, Bitmap> revRedFont = fillDrawable(r, canvas, R.drawable.medredfont, 7, 9, true);
-
-
-    final int faceWidth = width - 20;
-    final int faceHeight = height/2 - 9;
-    drawable = r.getDrawable(R.drawable.redjack);
-    redJack = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    redRevJack = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(redJack);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(redRevJack);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    drawable = r.getDrawable(R.drawable.redqueen);
-    redQueen = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    redRevQueen = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(redQueen);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(redRevQueen);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    drawable = r.getDrawable(R.drawable.redking);
-    redKing = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    redRevKing = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(redKing);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(redRevKing);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    drawable = r.getDrawable(R.drawable.blackjack);
-    blackJack = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    blackRevJack = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(blackJack);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(blackRevJack);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    drawable = r.getDrawable(R.drawable.blackqueen);
-    blackQueen = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    blackRevQueen = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(blackQueen);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(blackRevQueen);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    drawable = r.getDrawable(R.drawable.blackking);
-    blackKing = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    blackRevKing = Bitmap.createBitmap(faceWidth, faceHeight, Bitmap.Config.ARGB_4444);
-    canvas = new Canvas(blackKing);
-    drawable.setBounds(0, 0, faceWidth, faceHeight);
-    drawable.draw(canvas);
-    canvas = new Canvas(blackRevKing);
-    canvas.rotate(180);
-    drawable.setBounds(-faceWidth, -faceHeight, 0, 0);
-    drawable.draw(canvas);
-
-    cardBorderPaint.setARGB(255, 0, 0, 0);
-    cardFrontPaint.setARGB(255, 255, 255, 255);
-    RectF pos = new RectF();
-    for (SuiteEnum suite: SuiteEnum.values()) {
-      mCardBitmap.put(suite, new TreeMap<Card.ValueEnum, Bitmap>());
-      for (ValueEnum val: ValueEnum.values()) {
-        mCardBitmap.get(suite).put(val, Bitmap.createBitmap(
-            width, height, Bitmap.Config.ARGB_4444));
-        canvas = new Canvas(mCardBitmap.get(suite).get(val));
-        pos.set(0, 0, width, height);
-        canvas.drawRoundRect(pos, 4, 4, cardBorderPaint);
-        pos.set(1, 1, width-1, height-1);
-        canvas.drawRoundRect(pos, 4, 4, cardFrontPaint);
-
-        if (suite.isRed()) {
-          canvas.drawBitmap(redFont.get(val), 2, 4, mSuitPaint);
-          canvas.drawBitmap(revRedFont.get(val), width-fontWidth-2, height-fontHeight-4,
-                            mSuitPaint);
-        } else {
-          canvas.drawBitmap(blackFont.get(val), 2, 4, mSuitPaint);
-          canvas.drawBitmap(revBlackFont.get(val), width-fontWidth-2, height-fontHeight-4,
-                            mSuitPaint);
+  private File GetAtlasCacheFile() {
+    return new File(mContext.getCacheDir(), GetAtlasCachePrefix() + mAtlasWidth + "x" +
+                    mAtlasHeight + (mBigCards ? "-big" : "") + ".png");
+  }
+
+  // Decode the cached atlas on the pool and swap it in on the UI thread, in
+  // the config the decoder picks. A bad file is removed and the faces are
+  // drawn instead.
+  private void LoadAtlas(final Resources r, final File file) {
+    final int generation = mAtlasGeneration;
+    final int width = AtlasWidth(mAtlasWidth);
+    final int height = AtlasHeight(mAtlasHeight);
+    mFaceExecutor.execute(new Runnable() {
+      public void run() {
+        Bitmap decoded = BitmapFactory.decodeFile(file.getPath());
+        if (decoded != null && (decoded.getWidth() != width || decoded.getHeight() != height)) {
+          decoded.recycle();
+          decoded = null;
         }
-        if (fontWidth > 6) {
-          canvas.drawBitmap(smallSuit.get(suite), 3, 5+fontHeight, mSuitPaint);
-          canvas.drawBitmap(revSmallSuit.get(suite), width-7, height-11-fontHeight,
-                            mSuitPaint);
-        } else {
-          canvas.drawBitmap(smallSuit.get(suite), 2, 5+fontHeight, mSuitPaint);
-          canvas.drawBitmap(revSmallSuit.get(suite), width-6, height-11-fontHeight,
-                            mSuitPaint);
+        if (decoded == null) {
+          Log.e("DrawMaster.java", "Bad card cache " + file);
+          file.delete();
         }
+        final Bitmap atlas = decoded;
+        mHandler.post(new Runnable() {
+          public void run() {
+            AddAtlas(generation, atlas, r, file);
+          }
+        });
+      }
+    });
+  }
 
-        if (val.isFace()) {
-          canvas.drawBitmap(suit.get(suite), 10, 9, mSuitPaint);
-          canvas.drawBitmap(revSuit.get(suite), width-21, height-20,
-                            mSuitPaint);
-        }
+  private void AddAtlas(int generation, Bitmap atlas, Resources r, File file) {
+    if (generation != mAtlasGeneration) {
+      if (atlas != null) {
+        atlas.recycle();
+      }
+      return;
+    }
+    if (atlas == null) {
+      DrawFaces(r, file);
+      return;
+    }
+    mCardAtlas = atlas;
+    mBoardValid = false;
+    TraceFaces();
+    if (mFacesCallback != null) {
+      mFacesCallback.run();
+    }
+  }
 
-        int[] suitX = {9,width/2-5,width-20};
-        int[] suitY = {7,2*height/5-5,3*height/5-5,height-18};
-        int suitMidY = height/2 - 6;
-        switch (val) {
-          case ACE:
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitMidY, mSuitPaint);
-            break;
-          case TWO:
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitY[0], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[1], suitY[3], mSuitPaint);
-            break;
-          case THREE:
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitMidY, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[1], suitY[3], mSuitPaint);
-            break;
-          case FOUR:
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitY[0], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[0], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[2], suitY[3], mSuitPaint);
-            break;
-          case FIVE:
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitMidY, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[0], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[2], suitY[3], mSuitPaint);
-            break;
-          case SIX:
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitMidY, mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitMidY, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[0], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[2], suitY[3], mSuitPaint);
-            break;
-          case SEVEN:
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitMidY, mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitMidY, mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[1], (suitMidY+suitY[0])/2, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[0], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[2], suitY[3], mSuitPaint);
-            break;
-          case EIGHT:
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitY[0], mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[0], suitMidY, mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[2], suitMidY, mSuitPaint);
-            canvas.drawBitmap(suit.get(suite), suitX[1], (suitMidY+suitY[0])/2, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[0], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[2], suitY[3], mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[1], (suitY[3]+suitMidY)/2, mSuitPaint);
-            break;
-          case NINE:
-            for (int i = 0; i < 4; i++) {
-              canvas.drawBitmap(suit.get(suite), suitX[(i%2)*2], suitY[i/2], mSuitPaint);
-              canvas.drawBitmap(revSuit.get(suite), suitX[(i%2)*2], suitY[i/2+2], mSuitPaint);
-            }
-            canvas.drawBitmap(suit.get(suite), suitX[1], suitMidY, mSuitPaint);
-            break;
-          case TEN:
-            for (int i = 0; i < 4; i++) {
-              canvas.drawBitmap(suit.get(suite), suitX[(i%2)*2], suitY[i/2], mSuitPaint);
-              canvas.drawBitmap(revSuit.get(suite), suitX[(i%2)*2], suitY[i/2+2], mSuitPaint);
-            }
-            canvas.drawBitmap(suit.get(suite), suitX[1], (suitY[1]+suitY[0])/2, mSuitPaint);
-            canvas.drawBitmap(revSuit.get(suite), suitX[1], (suitY[3]+suitY[2])/2, mSuitPaint);
-            break;
-
-          case JACK:
-            canvas.drawLines(faceBox, cardBorderPaint);
-            if (suite.isRed()) {
-              canvas.drawBitmap(redJack, 10, 9, mSuitPaint);
-              canvas.drawBitmap(redRevJack, 10, height-faceHeight-9, mSuitPaint);
-            } else {
-              canvas.drawBitmap(blackJack, 10, 9, mSuitPaint);
-              canvas.drawBitmap(blackRevJack, 10, height-faceHeight-9, mSuitPaint);
-            }
-            break;
-          case QUEEN:
-            canvas.drawLines(faceBox, cardBorderPaint);
-            if (suite.isRed()) {
-              canvas.drawBitmap(redQueen, 10, 9, mSuitPaint);
-              canvas.drawBitmap(redRevQueen, 10, height-faceHeight-9, mSuitPaint);
-            } else {
-              canvas.drawBitmap(blackQueen, 10, 9, mSuitPaint);
-              canvas.drawBitmap(blackRevQueen, 10, height-faceHeight-9, mSuitPaint);
-            }
-            break;
-          case KING:
-            canvas.drawLines(faceBox, cardBorderPaint);
-            if (suite.isRed()) {
-              canvas.drawBitmap(redKing, 10, 9, mSuitPaint);
-              canvas.drawBitmap(redRevKing, 10, height-faceHeight-9, mSuitPaint);
-            } else {
-              canvas.drawBitmap(blackKing, 10, 9, mSuitPaint);
-              canvas.drawBitmap(blackRevKing, 10, height-faceHeight-9, mSuitPaint);
-            }
-            break;
+  // Write the atlas to the cache on the pool. Atlases of an older version
+  // are removed, other sizes of this version are kept as the screen may
+  // rotate back.
+  private void SaveAtlas(final File file) {
+    final Bitmap atlas = mCardAtlas;
+    final String prefix = GetAtlasCachePrefix();
+    mFaceExecutor.execute(new Runnable() {
+      public void run() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        atlas.compress(Bitmap.CompressFormat.PNG, 100, out);
+        byte[] data = out.toByteArray();
+        try {
+          SaveFile.WriteFile(file, data, data.length);
+        } catch (IOException e) {
+          Log.e("DrawMaster.java", "Unable to cache cards " + e);
+        }
+        File[] files = file.getParentFile().listFiles();
+        if (files == null) {
+          return;
+        }
+        for (int i = 0; i < files.length; i++) {
+          String name = files[i].getName();
+          if (name.startsWith(ATLAS_CACHE_PREFIX) && !name.startsWith(prefix)) {
+            files[i].delete();
+          }
         }
       }
+    });
+  }
+
+  private static int AtlasWidth(int width) { return ATLAS_COLUMNS * (width + 2); }
+  private static int AtlasHeight(int height) { return ATLAS_ROWS * (height + 2); }
+
+  // Each cell has a one pixel transparent gutter so a card never picks up
+  // its neighbour.
+  private void LayoutAtlas(int width, int height) {
+    for (int i = 0; i <= CARD_BACK; i++) {
+      int left = (i % ATLAS_COLUMNS) * (width + 2) + 1;
+      int top = (i / ATLAS_COLUMNS) * (height + 2) + 1;
+      mCardSource[i] = new Rect(left, top, left + width, top + height);
     }
   }
 
+  // Start a new atlas with cells of width by height.
+  private Canvas CreateAtlas(int width, int height) {
+    mCardAtlas = Bitmap.createBitmap(AtlasWidth(width), AtlasHeight(height),
+                                     Bitmap.Config.ARGB_4444);
+    LayoutAtlas(width, height);
+    return new Canvas(mCardAtlas);
+  }
+
+  // Draw into the width by height cell at left, top with its top left as
+  // the origin, undone with canvas.restore(). Faces are drawn at the cell
+  // size, the canvas is not scaled.
+  private static Canvas BeginCell(Canvas canvas, int left, int top, int width, int height) {
+    canvas.save();
+    canvas.translate(left, top);
+    canvas.clipRect(0, 0, width, height);
+    return canvas;
+  }
+
   public void DrawTime(Canvas canvas, int millis) {
     int seconds = (millis / 1000) % 60;
     int minutes = millis / 60000;
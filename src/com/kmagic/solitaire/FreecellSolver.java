@@ -0,0 +1,616 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solver for the Freecell rules.
+ *
+ * Weighted A* over the positions, with a hash of every position
+ * seen. The hash does not depend on the order of the free cells or columns,
+ * so positions that only differ by swapped cells or columns are searched
+ * once. Cards that can never be needed on the tableau again go to the
+ * foundations straight away.
+ *
+ * Moves follow the app's rules (run length limited by free spaces, see
+ * FreecellStack) and use the anchor numbers of Freecell: 0-3 free cells,
+ * 4-7 foundations and 8-15 columns. Foundation moves are part of the
+ * solution, so it has to be played with automatic moves turned off.
+ *
+ * A solver is not thread safe, use one per thread or SolveAll().
+ */
+public class FreecellSolver {
+
+  public static final int DEFAULT_NODE_LIMIT = 200000;
+
+  private static final int CELLS = 4;
+  private static final int COLUMNS = 8;
+  private static final int SINK_ANCHOR = 4;
+  private static final int COLUMN_ANCHOR = 8;
+  private static final int EMPTY = -1;
+
+  // Packed position: cells, foundation counts, sink anchor per suit,
+  // column counts and then the column cards.
+  private static final int STATE_CELL = 0;
+  private static final int STATE_FOUND = 4;
+  private static final int STATE_SINK = 8;
+  private static final int STATE_COUNT = 12;
+  private static final int STATE_CARDS = 20;
+  private static final int STATE_SIZE = 72;
+
+  private static final int WEIGHT = 4;
+
+  // Zobrist keys of the cards in the cells.
+  private static final long[] CELL_KEY = new long[52];
+
+  static {
+    Random random = new Random(0x5EED);
+    for (int i = 0; i < 52; i++) {
+      CELL_KEY[i] = random.nextLong();
+    }
+  }
+
+  private final int mNodeLimit;
+
+  // Nodes of the search, position data is at node * STATE_SIZE.
+  private byte[] mState;
+  private int[] mParent;
+  private int[] mMoveStart;
+  private int[] mMoveCount;
+  private int[] mDepth;
+  private int mNodeCount;
+  private int[] mMove;
+  private int mMoveTotal;
+
+  private final SearchTable mSeen;
+  private final SearchQueue mOpen;
+
+  // Position being expanded and the child being built from it.
+  private final Position mBase;
+  private final Position mChild;
+  private int[] mChildMove;
+  private int mChildMoveCount;
+
+  public FreecellSolver() {
+    this(DEFAULT_NODE_LIMIT);
+  }
+
+  public FreecellSolver(int nodeLimit) {
+    mNodeLimit = nodeLimit;
+    mState = new byte[1024 * STATE_SIZE];
+    mParent = new int[1024];
+    mMoveStart = new int[1024];
+    mMoveCount = new int[1024];
+    mDepth = new int[1024];
+    mMove = new int[4096];
+    mSeen = new SearchTable(1024);
+    mOpen = new SearchQueue(1024);
+    mBase = new Position();
+    mChild = new Position();
+    mChildMove = new int[64];
+  }
+
+  /**
+   * Solve the Freecell board, which is not changed.
+   *
+   * @return the moves to win, null if none was found within the node limit.
+   */
+  public List<Move> Solve(Board board) {
+    mNodeCount = 0;
+    mMoveTotal = 0;
+    mSeen.Clear();
+    mOpen.Clear();
+
+    mChild.FromBoard(board);
+    mChildMoveCount = 0;
+    AutoPlay(mChild);
+    mSeen.Add(mChild.Hash());
+    int root = AddNode(-1, 0);
+    if (mChild.IsWon()) {
+      return GetMoves(root);
+    }
+    mOpen.Add(root, mChild.GetEstimate());
+
+    while (!mOpen.IsEmpty() && mNodeCount < mNodeLimit) {
+      int node = mOpen.Poll();
+      mBase.Decode(mState, node * STATE_SIZE);
+      int won = Expand(node);
+      if (won >= 0) {
+        return GetMoves(won);
+      }
+    }
+    return null;
+  }
+
+  // Number of nodes the last Solve() stored.
+  public int GetNodeCount() { return mNodeCount; }
+
+  /**
+   * Solve many boards using all processors, one solver per thread.
+   *
+   * @return the solution for each board, null entries for unsolved ones.
+   */
+  public static List<List<Move>> SolveAll(List<Board> boards, final int nodeLimit)
+      throws InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final ThreadLocal<FreecellSolver> solver = new ThreadLocal<FreecellSolver>() {
+      @Override
+      protected FreecellSolver initialValue() {
+        return new FreecellSolver(nodeLimit);
+      }
+    };
+    try {
+      List<Future<List<Move>>> futures = new ArrayList<Future<List<Move>>>();
+      for (final Board board : boards) {
+        futures.add(executor.submit(new java.util.concurrent.Callable<List<Move>>() {
+          public List<Move> call() {
+            return solver.get().Solve(board);
+          }
+        }));
+      }
+      List<List<Move>> ret = new ArrayList<List<Move>>(boards.size());
+      for (Future<List<Move>> future : futures) {
+        try {
+          ret.add(future.get());
+        } catch (java.util.concurrent.ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+      return ret;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * The deal numbered deal (1 to 32000 and beyond) of the Microsoft
+   * Freecell game, the usual benchmark set, as a Freecell board.
+   */
+  public static Board MicrosoftDeal(int deal) {
+    int[] card = new int[52];
+    for (int i = 0; i < 52; i++) {
+      card[i] = 51 - i;
+    }
+    int seed = deal;
+    for (int i = 0; i < 52; i++) {
+      seed = seed * 214013 + 2531011;
+      int rand = (seed >>> 16) & 0x7FFF;
+      int j = 51 - rand % (52 - i);
+      int swap = card[i];
+      card[i] = card[j];
+      card[j] = swap;
+    }
+
+    // Microsoft cards are rank * 4 + suit with suits clubs, diamonds, hearts
+    // and spades.
+    final int[] suitMap = { 0, 1, 3, 2 };
+    Board board = new Board(16, 52);
+    for (int i = 0; i < 52; i++) {
+      board.Push(COLUMN_ANCHOR + i % COLUMNS, Board.Code(suitMap[card[i] % 4], card[i] / 4));
+    }
+    return board;
+  }
+
+  // ==========================================================================
+  // Search
+  // ------
+
+  // Add all children of node, returns a won child or -1.
+  private int Expand(int node) {
+    Position pos = mBase;
+    int free = pos.CountFreeSpaces();
+    int firstCell = pos.FirstEmptyCell();
+    int firstColumn = pos.FirstEmptyColumn();
+
+    // Free cells: to the foundation, onto a column or into an empty one.
+    for (int i = 0; i < CELLS; i++) {
+      int card = pos.mCell[i];
+      if (card == EMPTY) {
+        continue;
+      }
+      if (pos.CanSink(card)) {
+        int ret = TryMove(node, i, pos.SinkAnchor(card), 1);
+        if (ret != -1) return ret;
+      }
+      for (int j = 0; j < COLUMNS; j++) {
+        if (pos.mCount[j] == 0 ? j == firstColumn : Fits(card, pos.Top(j))) {
+          int ret = TryMove(node, i, COLUMN_ANCHOR + j, 1);
+          if (ret != -1) return ret;
+        }
+      }
+    }
+
+    for (int i = 0; i < COLUMNS; i++) {
+      int count = pos.mCount[i];
+      if (count == 0) {
+        continue;
+      }
+      int top = pos.Top(i);
+      if (pos.CanSink(top)) {
+        int ret = TryMove(node, COLUMN_ANCHOR + i, pos.SinkAnchor(top), 1);
+        if (ret != -1) return ret;
+      }
+
+      int run = Math.min(pos.RunLength(i), free + 1);
+      for (int j = 0; j < COLUMNS; j++) {
+        if (j == i) {
+          continue;
+        }
+        if (pos.mCount[j] > 0) {
+          // Only one run length can fit the target's top card.
+          int target = pos.Top(j);
+          int move = Board.Rank(target) - Board.Rank(top);
+          if (move >= 1 && move <= run &&
+              Fits(pos.mCard[i][count - move], target)) {
+            int ret = TryMove(node, COLUMN_ANCHOR + i, COLUMN_ANCHOR + j, move);
+            if (ret != -1) return ret;
+          }
+        } else if (j == firstColumn) {
+          // The target column itself counts as a free space.
+          for (int move = Math.min(run, free); move >= 1; move--) {
+            if (move == count) {
+              continue;
+            }
+            int ret = TryMove(node, COLUMN_ANCHOR + i, COLUMN_ANCHOR + j, move);
+            if (ret != -1) return ret;
+          }
+        }
+      }
+
+      if (firstCell != EMPTY) {
+        int ret = TryMove(node, COLUMN_ANCHOR + i, firstCell, 1);
+        if (ret != -1) return ret;
+      }
+    }
+    return -1;
+  }
+
+  // Add the child reached by a move from node unless it was seen already.
+  // Returns the child if it is won, -2 if the node limit was hit, else -1.
+  private int TryMove(int node, int from, int to, int count) {
+    if (mNodeCount >= mNodeLimit) {
+      return -2;
+    }
+    mChild.CopyFrom(mBase);
+    mChildMoveCount = 0;
+    mChild.Move(from, to, count);
+    AddChildMove(from, to, count);
+    AutoPlay(mChild);
+    if (!mSeen.Add(mChild.Hash())) {
+      return -1;
+    }
+
+    int child = AddNode(node, mDepth[node] + 1);
+    if (mChild.IsWon()) {
+      return child;
+    }
+    mOpen.Add(child, mChild.GetEstimate() * WEIGHT + mDepth[child]);
+    return -1;
+  }
+
+  // Put every card on the foundation that no tableau card can need anymore.
+  private void AutoPlay(Position pos) {
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      for (int i = 0; i < CELLS; i++) {
+        int card = pos.mCell[i];
+        if (card != EMPTY && pos.IsSafe(card)) {
+          int sink = pos.SinkAnchor(card);
+          pos.Move(i, sink, 1);
+          AddChildMove(i, sink, 1);
+          moved = true;
+        }
+      }
+      for (int i = 0; i < COLUMNS; i++) {
+        if (pos.mCount[i] > 0 && pos.IsSafe(pos.Top(i))) {
+          int sink = pos.SinkAnchor(pos.Top(i));
+          pos.Move(COLUMN_ANCHOR + i, sink, 1);
+          AddChildMove(COLUMN_ANCHOR + i, sink, 1);
+          moved = true;
+        }
+      }
+    }
+  }
+
+  private static boolean Fits(int card, int target) {
+    return Board.Rank(card) + 1 == Board.Rank(target) &&
+        Board.IsRed(card) != Board.IsRed(target);
+  }
+
+  // ==========================================================================
+  // Node storage
+  // ------------
+  private void AddChildMove(int from, int to, int count) {
+    if (mChildMoveCount == mChildMove.length) {
+      mChildMove = Arrays.copyOf(mChildMove, mChildMoveCount * 2);
+    }
+    mChildMove[mChildMoveCount++] = from | (to << 5) | (count << 10);
+  }
+
+  // Store mChild with the moves that lead to it from parent.
+  private int AddNode(int parent, int depth) {
+    int node = mNodeCount++;
+    if (node == mParent.length) {
+      int size = node * 2;
+      mState = Arrays.copyOf(mState, size * STATE_SIZE);
+      mParent = Arrays.copyOf(mParent, size);
+      mMoveStart = Arrays.copyOf(mMoveStart, size);
+      mMoveCount = Arrays.copyOf(mMoveCount, size);
+      mDepth = Arrays.copyOf(mDepth, size);
+    }
+    if (mMoveTotal + mChildMoveCount > mMove.length) {
+      mMove = Arrays.copyOf(mMove, Math.max(mMove.length * 2, mMoveTotal + mChildMoveCount));
+    }
+    mChild.Encode(mState, node * STATE_SIZE);
+    mParent[node] = parent;
+    mDepth[node] = depth;
+    mMoveStart[node] = mMoveTotal;
+    mMoveCount[node] = mChildMoveCount;
+    System.arraycopy(mChildMove, 0, mMove, mMoveTotal, mChildMoveCount);
+    mMoveTotal += mChildMoveCount;
+    return node;
+  }
+
+  private List<Move> GetMoves(int node) {
+    List<Move> ret = new ArrayList<Move>();
+    for (; node >= 0; node = mParent[node]) {
+      for (int i = mMoveStart[node] + mMoveCount[node] - 1; i >= mMoveStart[node]; i--) {
+        int move = mMove[i];
+        ret.add(new Move(move & 0x1F, (move >> 5) & 0x1F, move >> 10, false, false));
+      }
+    }
+    Collections.reverse(ret);
+    return ret;
+  }
+
+  // ==========================================================================
+  // Position
+  // --------
+  private static class Position {
+    final int[] mCell = new int[CELLS];
+    final int[] mFound = new int[4];
+    final int[] mSink = new int[4];
+    final int[] mCount = new int[COLUMNS];
+    final int[][] mCard = new int[COLUMNS][52];
+
+    void FromBoard(Board board) {
+      for (int i = 0; i < CELLS; i++) {
+        mCell[i] = board.GetTopCard(i);
+      }
+      Arrays.fill(mSink, EMPTY);
+      Arrays.fill(mFound, 0);
+      for (int i = 0; i < 4; i++) {
+        int count = board.GetCount(SINK_ANCHOR + i);
+        if (count > 0) {
+          int suit = Board.Suit(board.GetCard(SINK_ANCHOR + i, 0));
+          mSink[suit] = SINK_ANCHOR + i;
+          mFound[suit] = count;
+        }
+      }
+      for (int i = 0; i < COLUMNS; i++) {
+        mCount[i] = board.GetCount(COLUMN_ANCHOR + i);
+        for (int j = 0; j < mCount[i]; j++) {
+          mCard[i][j] = board.GetCard(COLUMN_ANCHOR + i, j);
+        }
+      }
+    }
+
+    void CopyFrom(Position other) {
+      System.arraycopy(other.mCell, 0, mCell, 0, CELLS);
+      System.arraycopy(other.mFound, 0, mFound, 0, 4);
+      System.arraycopy(other.mSink, 0, mSink, 0, 4);
+      System.arraycopy(other.mCount, 0, mCount, 0, COLUMNS);
+      for (int i = 0; i < COLUMNS; i++) {
+        System.arraycopy(other.mCard[i], 0, mCard[i], 0, other.mCount[i]);
+      }
+    }
+
+    void Encode(byte[] data, int offset) {
+      for (int i = 0; i < 4; i++) {
+        data[offset + STATE_CELL + i] = (byte)mCell[i];
+        data[offset + STATE_FOUND + i] = (byte)mFound[i];
+        data[offset + STATE_SINK + i] = (byte)mSink[i];
+      }
+      int idx = offset + STATE_CARDS;
+      for (int i = 0; i < COLUMNS; i++) {
+        data[offset + STATE_COUNT + i] = (byte)mCount[i];
+        for (int j = 0; j < mCount[i]; j++) {
+          data[idx++] = (byte)mCard[i][j];
+        }
+      }
+    }
+
+    void Decode(byte[] data, int offset) {
+      for (int i = 0; i < 4; i++) {
+        mCell[i] = data[offset + STATE_CELL + i];
+        mFound[i] = data[offset + STATE_FOUND + i];
+        mSink[i] = data[offset + STATE_SINK + i];
+      }
+      int idx = offset + STATE_CARDS;
+      for (int i = 0; i < COLUMNS; i++) {
+        mCount[i] = data[offset + STATE_COUNT + i];
+        for (int j = 0; j < mCount[i]; j++) {
+          mCard[i][j] = data[idx++];
+        }
+      }
+    }
+
+    // Same for positions that only differ by the order of cells or columns.
+    // Each column is hashed in order and the columns are added up, so a
+    // card keeps the column it is in as well as its depth.
+    long Hash() {
+      long hash = 0;
+      for (int i = 0; i < CELLS; i++) {
+        if (mCell[i] != EMPTY) {
+          hash ^= CELL_KEY[mCell[i]];
+        }
+      }
+      for (int i = 0; i < COLUMNS; i++) {
+        long column = 1;
+        for (int j = 0; j < mCount[i]; j++) {
+          column = (column ^ mCard[i][j]) * 0x100000001B3L;
+        }
+        column ^= column >>> 29;
+        column *= 0xBF58476D1CE4E5B9L;
+        column ^= column >>> 32;
+        hash += column;
+      }
+      return hash;
+    }
+
+    boolean IsWon() {
+      return mFound[0] + mFound[1] + mFound[2] + mFound[3] == 52;
+    }
+
+    int Top(int column) { return mCard[column][mCount[column] - 1]; }
+
+    boolean CanSink(int card) {
+      return mFound[Board.Suit(card)] == Board.Rank(card);
+    }
+
+    // No card of the other colour still needs card to be built on.
+    boolean IsSafe(int card) {
+      int rank = Board.Rank(card);
+      int suit = Board.Suit(card);
+      return mFound[suit] == rank &&
+          (rank <= 1 || (mFound[suit ^ 1] >= rank && mFound[suit ^ 3] >= rank));
+    }
+
+    // Foundation of the card's suit, the first unused one for an ace.
+    int SinkAnchor(int card) {
+      int suit = Board.Suit(card);
+      if (mSink[suit] == EMPTY) {
+        int used = 0;
+        for (int i = 0; i < 4; i++) {
+          if (mSink[i] != EMPTY) {
+            used |= 1 << (mSink[i] - SINK_ANCHOR);
+          }
+        }
+        for (int i = 0; i < 4; i++) {
+          if ((used & (1 << i)) == 0) {
+            return SINK_ANCHOR + i;
+          }
+        }
+      }
+      return mSink[suit];
+    }
+
+    int CountFreeSpaces() {
+      int free = 0;
+      for (int i = 0; i < CELLS; i++) {
+        if (mCell[i] == EMPTY) free++;
+      }
+      for (int i = 0; i < COLUMNS; i++) {
+        if (mCount[i] == 0) free++;
+      }
+      return free;
+    }
+
+    int FirstEmptyCell() {
+      for (int i = 0; i < CELLS; i++) {
+        if (mCell[i] == EMPTY) return i;
+      }
+      return EMPTY;
+    }
+
+    int FirstEmptyColumn() {
+      for (int i = 0; i < COLUMNS; i++) {
+        if (mCount[i] == 0) return i;
+      }
+      return EMPTY;
+    }
+
+    // Length of the alternating colour run on top of column.
+    int RunLength(int column) {
+      int[] card = mCard[column];
+      int ret = 1;
+      for (int i = mCount[column] - 2; i >= 0 && Fits(card[i + 1], card[i]); i--) {
+        ret++;
+      }
+      return ret;
+    }
+
+    // Cards left, plus cards sitting on a lower card of their column and
+    // cards covering the next card of a foundation, which all have to move
+    // at least once more. Full cells count double as they block moves and
+    // empty columns count against the rest as they free the longest runs.
+    int GetEstimate() {
+      int ret = 52 - (mFound[0] + mFound[1] + mFound[2] + mFound[3]);
+      for (int i = 0; i < COLUMNS; i++) {
+        int min = Board.RANK_COUNT;
+        for (int j = 0; j < mCount[i]; j++) {
+          int card = mCard[i][j];
+          int rank = Board.Rank(card);
+          if (rank > min) {
+            ret++;
+          } else {
+            min = rank;
+          }
+          if (mFound[Board.Suit(card)] == rank) {
+            ret += mCount[i] - 1 - j;
+          }
+        }
+      }
+      for (int i = 0; i < CELLS; i++) {
+        if (mCell[i] != EMPTY) ret += 2;
+      }
+      for (int i = 0; i < COLUMNS; i++) {
+        if (mCount[i] == 0) ret -= 4;
+      }
+      return ret;
+    }
+
+    void Move(int from, int to, int count) {
+      if (from < CELLS) {
+        Push(to, mCell[from]);
+        mCell[from] = EMPTY;
+      } else if (to < CELLS) {
+        int column = from - COLUMN_ANCHOR;
+        mCell[to] = mCard[column][--mCount[column]];
+      } else if (to < COLUMN_ANCHOR) {
+        int column = from - COLUMN_ANCHOR;
+        Push(to, mCard[column][--mCount[column]]);
+      } else {
+        int src = from - COLUMN_ANCHOR;
+        int dst = to - COLUMN_ANCHOR;
+        mCount[src] -= count;
+        System.arraycopy(mCard[src], mCount[src], mCard[dst], mCount[dst], count);
+        mCount[dst] += count;
+      }
+    }
+
+    private void Push(int to, int card) {
+      if (to < COLUMN_ANCHOR) {
+        int suit = Board.Suit(card);
+        mSink[suit] = to;
+        mFound[suit]++;
+      } else {
+        int column = to - COLUMN_ANCHOR;
+        mCard[column][mCount[column]++] = card;
+      }
+    }
+  }
+}
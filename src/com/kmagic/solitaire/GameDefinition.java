@@ -0,0 +1,373 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A game described by a few lines of text instead of a Rules subclass.
+ *
+ * Each line is a keyword and its values, # starts a comment:
+ *
+ *   type 16                  save and menu number, from FIRST_TYPE up
+ *   name Yukon
+ *   decks 1                  suits 4 unless given
+ *   columns 7                grid the piles are laid out on
+ *   pile tableau 7 at=0,1 build=down suit=alt deal=1,6,7 hidden=0,1,2
+ *   pile foundation 4 at=3,0
+ *   pile stock 1 at=0,0 draw=1
+ *   pile waste 1 at=1,0
+ *   win foundations
+ *
+ * A pile line gives its kind, how many piles and the grid cell of the
+ * first, the rest follow to the right. Tableau and cell piles take the
+ * rule keys start=any|king, build and move=any|seq|up|down, suit,
+ * buildsuit and movesuit=any|alt|other|color|same, wrap, pickup and
+ * drop=none|one|multi|free and show=all|hide|mix|one. Up and down read
+ * from the bottom of the pile towards the top. deal and hidden list the
+ * cards dealt and dealt face down to each pile, one value for all of
+ * them or one per pile. Cards left over go to the stock.
+ *
+ * A definition is read once and kept compiled to the setter arguments of
+ * its anchors, so starting a game only copies numbers.
+ */
+public class GameDefinition {
+
+  // Types below this are the hand written games.
+  public static final int FIRST_TYPE = 16;
+
+  public static final int TABLEAU = 0;
+  public static final int FOUNDATION = 1;
+  public static final int STOCK = 2;
+  public static final int WASTE = 3;
+  public static final int CELL = 4;
+
+  private static final String[] KIND = { "tableau", "foundation", "stock", "waste", "cell" };
+  private static final String[] START = { "any", "king" };
+  private static final String[] SEQ = { "any", "seq", "up", "down" };
+  private static final String[] SUIT = { "any", "alt", "other", "color", "same" };
+  private static final String[] PACK = { "none", "one", "multi", "free" };
+  private static final String[] DISPLAY = { "all", "hide", "mix", "one" };
+
+  private static final int[] START_VALUE = { GenericAnchor.START_ANY, GenericAnchor.START_KING };
+  private static final int[] BUILD_VALUE = { GenericAnchor.SEQ_ANY, GenericAnchor.SEQ_SEQ,
+                                             GenericAnchor.SEQ_ASC, GenericAnchor.SEQ_DSC };
+  // A run going down the pile is one where each card is one above the next.
+  private static final int[] MOVE_VALUE = { GenericAnchor.SEQ_ANY, GenericAnchor.SEQ_SEQ,
+                                            GenericAnchor.SEQ_DSC, GenericAnchor.SEQ_ASC };
+  private static final int[] SUIT_VALUE = { GenericAnchor.SUIT_ANY, GenericAnchor.SUIT_RB,
+                                            GenericAnchor.SUIT_OTHER, GenericAnchor.SUIT_COLOR,
+                                            GenericAnchor.SUIT_SAME };
+  private static final int[] PACK_VALUE = { GenericAnchor.PACK_NONE, GenericAnchor.PACK_ONE,
+                                            GenericAnchor.PACK_MULTI,
+                                            GenericAnchor.PACK_LIMIT_BY_FREE };
+  private static final int[] DISPLAY_VALUE = { GenericAnchor.DISPLAY_ALL, GenericAnchor.DISPLAY_HIDE,
+                                               GenericAnchor.DISPLAY_MIX, GenericAnchor.DISPLAY_ONE };
+
+  private static final Map<Integer, GameDefinition> sDefinition =
+    new HashMap<Integer, GameDefinition>();
+
+  // One anchor, with the arguments of its setters.
+  static class Pile {
+    int mKind;
+    int mColumn;
+    int mRow;
+    int mStart = GenericAnchor.START_ANY;
+    int mBuild = GenericAnchor.SEQ_ANY;
+    int mMove = GenericAnchor.SEQ_ANY;
+    int mBuildSuit = GenericAnchor.SUIT_ANY;
+    int mMoveSuit = GenericAnchor.SUIT_ANY;
+    boolean mWrap;
+    int mPickup = GenericAnchor.PACK_NONE;
+    int mDrop = GenericAnchor.PACK_NONE;
+    int mDisplay = GenericAnchor.DISPLAY_ALL;
+    int mDeal;
+    int mHidden;
+  }
+
+  private int mType;
+  private String mName;
+  private int mDecks = 1;
+  private int mSuits = 4;
+  private int mColumns;
+  private int mDraw = 1;
+  private Pile[] mPile;
+  private int mCardCount;
+  private int mDealCount;
+  private int mStock = -1;
+  private int mWaste = -1;
+  private int[] mFoundation;
+  private int[] mTableau;
+
+  public int GetType() { return mType; }
+  public String GetName() { return mName; }
+  public int GetDecks() { return mDecks; }
+  public int GetSuits() { return mSuits; }
+  public int GetColumns() { return mColumns; }
+  public int GetDraw() { return mDraw; }
+  public int GetCardCount() { return mCardCount; }
+  public int GetDealCount() { return mDealCount; }
+  public int GetPileCount() { return mPile.length; }
+  // Anchor numbers of the stock and waste, -1 if the game has none.
+  public int GetStock() { return mStock; }
+  public int GetWaste() { return mWaste; }
+  public int[] GetFoundations() { return mFoundation; }
+  public int[] GetTableaus() { return mTableau; }
+  Pile GetPile(int i) { return mPile[i]; }
+
+  public static synchronized void Register(GameDefinition def) {
+    sDefinition.put(def.mType, def);
+  }
+
+  public static synchronized GameDefinition Get(int type) {
+    return sDefinition.get(type);
+  }
+
+  // Every registered game in order of type.
+  public static synchronized GameDefinition[] GetAll() {
+    GameDefinition[] ret = new GameDefinition[sDefinition.size()];
+    int count = 0;
+    for (int type : sDefinition.keySet()) {
+      int i = count++;
+      for (; i > 0 && ret[i-1].mType > type; i--) {
+        ret[i] = ret[i-1];
+      }
+      ret[i] = sDefinition.get(type);
+    }
+    return ret;
+  }
+
+  // Read a definition, source names it in error messages.
+  public static GameDefinition Parse(String source, Reader reader) throws IOException {
+    GameDefinition ret = new GameDefinition();
+    ArrayList<Pile> pile = new ArrayList<Pile>();
+    BufferedReader in = new BufferedReader(reader);
+    boolean win = false;
+    int lineNumber = 0;
+    String line;
+
+    while ((line = in.readLine()) != null) {
+      lineNumber++;
+      int comment = line.indexOf('#');
+      if (comment >= 0) {
+        line = line.substring(0, comment);
+      }
+      String[] word = line.trim().split("\\s+");
+      if (word[0].length() == 0) {
+        continue;
+      }
+      String where = source + ":" + lineNumber + ": ";
+      try {
+        String key = word[0];
+        if (key.equals("name")) {
+          ret.mName = line.trim().substring(4).trim();
+        } else if (key.equals("type")) {
+          ret.mType = Number(word, 1);
+          if (ret.mType < FIRST_TYPE) {
+            throw new IOException("type below " + FIRST_TYPE);
+          }
+        } else if (key.equals("decks")) {
+          ret.mDecks = Number(word, 1);
+        } else if (key.equals("suits")) {
+          ret.mSuits = Number(word, 1);
+        } else if (key.equals("columns")) {
+          ret.mColumns = Number(word, 1);
+        } else if (key.equals("pile")) {
+          ret.ParsePile(word, pile);
+        } else if (key.equals("win")) {
+          if (word.length != 2 || !word[1].equals("foundations")) {
+            throw new IOException("only win foundations is supported");
+          }
+          win = true;
+        } else {
+          throw new IOException("unknown keyword " + key);
+        }
+      } catch (IOException e) {
+        throw new IOException(where + e.getMessage());
+      } catch (RuntimeException e) {
+        throw new IOException(where + "bad line: " + line.trim());
+      }
+    }
+
+    if (ret.mName == null || ret.mType == 0 || ret.mColumns == 0 || !win) {
+      throw new IOException(source + ": needs name, type, columns and win");
+    }
+    if (ret.mSuits != 1 && ret.mSuits != 2 && ret.mSuits != 4) {
+      throw new IOException(source + ": suits must be 1, 2 or 4");
+    }
+    ret.mPile = pile.toArray(new Pile[pile.size()]);
+    ret.Compile(source);
+    return ret;
+  }
+
+  private void ParsePile(String[] word, ArrayList<Pile> list) throws IOException {
+    int kind = Choice(KIND, word[1]);
+    int count = Integer.parseInt(word[2]);
+    Pile rule = new Pile();
+    int[] deal = new int[count];
+    int[] hidden = new int[count];
+    int column = -1;
+    int row = -1;
+
+    for (int w = 3; w < word.length; w++) {
+      int eq = word[w].indexOf('=');
+      String key = eq < 0 ? word[w] : word[w].substring(0, eq);
+      String value = eq < 0 ? "" : word[w].substring(eq + 1);
+      if (key.equals("at")) {
+        String[] cell = value.split(",");
+        column = Integer.parseInt(cell[0]);
+        row = Integer.parseInt(cell[1]);
+      } else if (key.equals("deal")) {
+        deal = Counts(value, count);
+      } else if (key.equals("hidden")) {
+        hidden = Counts(value, count);
+      } else if (key.equals("draw") && kind == STOCK) {
+        mDraw = Integer.parseInt(value);
+      } else if (key.equals("wrap")) {
+        rule.mWrap = true;
+      } else if (key.equals("start")) {
+        rule.mStart = START_VALUE[Choice(START, value)];
+      } else if (key.equals("build")) {
+        rule.mBuild = BUILD_VALUE[Choice(SEQ, value)];
+      } else if (key.equals("move")) {
+        rule.mMove = MOVE_VALUE[Choice(SEQ, value)];
+      } else if (key.equals("suit")) {
+        rule.mBuildSuit = SUIT_VALUE[Choice(SUIT, value)];
+        rule.mMoveSuit = rule.mBuildSuit;
+      } else if (key.equals("buildsuit")) {
+        rule.mBuildSuit = SUIT_VALUE[Choice(SUIT, value)];
+      } else if (key.equals("movesuit")) {
+        rule.mMoveSuit = SUIT_VALUE[Choice(SUIT, value)];
+      } else if (key.equals("pickup")) {
+        rule.mPickup = PACK_VALUE[Choice(PACK, value)];
+      } else if (key.equals("drop")) {
+        rule.mDrop = PACK_VALUE[Choice(PACK, value)];
+      } else if (key.equals("show")) {
+        rule.mDisplay = DISPLAY_VALUE[Choice(DISPLAY, value)];
+      } else {
+        throw new IOException("unknown pile key " + key);
+      }
+    }
+
+    if (column < 0 || row < 0) {
+      throw new IOException("pile needs at=column,row");
+    }
+    for (int i = 0; i < count; i++) {
+      if (hidden[i] > deal[i]) {
+        throw new IOException("more hidden than dealt");
+      }
+      Pile pile = new Pile();
+      pile.mKind = kind;
+      pile.mColumn = column + i;
+      pile.mRow = row;
+      pile.mStart = rule.mStart;
+      pile.mBuild = rule.mBuild;
+      pile.mMove = rule.mMove;
+      pile.mBuildSuit = rule.mBuildSuit;
+      pile.mMoveSuit = rule.mMoveSuit;
+      pile.mWrap = rule.mWrap;
+      pile.mPickup = rule.mPickup;
+      pile.mDrop = rule.mDrop;
+      pile.mDisplay = rule.mDisplay;
+      pile.mDeal = deal[i];
+      pile.mHidden = hidden[i];
+      list.add(pile);
+    }
+  }
+
+  // Find the anchors of each kind and check the deal fits the deck.
+  private void Compile(String source) throws IOException {
+    int foundations = 0;
+    int tableaus = 0;
+    mCardCount = mDecks * Board.RANK_COUNT * 4;
+    mDealCount = 0;
+    for (int i = 0; i < mPile.length; i++) {
+      Pile pile = mPile[i];
+      if (pile.mColumn >= mColumns) {
+        throw new IOException(source + ": pile " + i + " is off the grid");
+      }
+      mDealCount += pile.mDeal;
+      switch (pile.mKind) {
+        case FOUNDATION:
+          foundations++;
+          break;
+        case STOCK:
+          if (mStock != -1) {
+            throw new IOException(source + ": more than one stock");
+          }
+          mStock = i;
+          break;
+        case WASTE:
+          mWaste = i;
+          break;
+        case TABLEAU:
+          tableaus++;
+          break;
+      }
+    }
+    if (foundations * Board.RANK_COUNT != mCardCount) {
+      throw new IOException(source + ": foundations do not hold the deck");
+    }
+    if (mDealCount > mCardCount || (mDealCount < mCardCount && mStock == -1)) {
+      throw new IOException(source + ": deal does not match the deck");
+    }
+    if (mStock != -1 && mWaste == -1) {
+      throw new IOException(source + ": a stock needs a waste");
+    }
+
+    mFoundation = new int[foundations];
+    mTableau = new int[tableaus];
+    foundations = 0;
+    tableaus = 0;
+    for (int i = 0; i < mPile.length; i++) {
+      if (mPile[i].mKind == FOUNDATION) {
+        mFoundation[foundations++] = i;
+      } else if (mPile[i].mKind == TABLEAU) {
+        mTableau[tableaus++] = i;
+      }
+    }
+  }
+
+  private static int Number(String[] word, int idx) {
+    return Integer.parseInt(word[idx]);
+  }
+
+  private static int Choice(String[] choice, String word) throws IOException {
+    for (int i = 0; i < choice.length; i++) {
+      if (choice[i].equals(word)) {
+        return i;
+      }
+    }
+    throw new IOException("unknown value " + word);
+  }
+
+  private static int[] Counts(String value, int count) throws IOException {
+    String[] part = value.split(",");
+    int[] ret = new int[count];
+    if (part.length != 1 && part.length != count) {
+      throw new IOException("needs 1 or " + count + " counts");
+    }
+    for (int i = 0; i < count; i++) {
+      ret[i] = Integer.parseInt(part[part.length == 1 ? 0 : i]);
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+/**
+ * Callbacks from the {@link Rules} to whoever is presenting the game.
+ *
+ * The rules never talk to the view or the animator directly, so the same
+ * rules can run on the device or headless on a plain JVM.
+ */
+interface GameListener {
+
+  /** The board changed and should be redrawn. */
+  public void Refresh();
+
+  /** Any automatic play has finished. */
+  public void StopAnimating();
+
+  /** All cards are on their final anchors. */
+  public void DisplayWin();
+
+  /**
+   * Move a card that has already been removed from its anchor onto
+   * <code>anchor</code>. The listener must end up calling
+   * {@link CardAnchor#AddCard(Card)}, either right away or after an animation.
+   */
+  public void AnimateMove(Card card, CardAnchor anchor);
+
+  /**
+   * Deal <code>card[i]</code>, already removed from its anchor, onto
+   * <code>anchor[i]</code> for the first <code>count</code> cards, as one
+   * animation for a Spider deal or an auto-complete. Each card
+   * is added with {@link CardAnchor#AddCard(Card)} and the events that raises
+   * are handled before the next card is added.
+   */
+  public void AnimateDeal(Card[] card, CardAnchor[] anchor, int count);
+}
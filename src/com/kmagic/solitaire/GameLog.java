@@ -0,0 +1,432 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only log of the games played, with the totals of every variant
+ * kept up to date in memory for the stats screen.
+ *
+ * Each record is a tag byte and its fields. A variant name is written
+ * once and then referred to by number. Reading the log and every write
+ * happen in order on one background thread, callers only queue them, so
+ * totals can lag a write by a moment.
+ */
+public class GameLog {
+
+  public static final int RESULT_STARTED = 0;
+  public static final int RESULT_WON = 1;
+  public static final int RESULT_LOST = 2;
+
+  // High score given to Import for a variant that never had one.
+  public static final int NO_SCORE = Integer.MIN_VALUE;
+
+  private static final int RECORD_VARIANT = 1;
+  private static final int RECORD_GAME = 2;
+  private static final int RECORD_CLEAR = 3;
+  private static final int RECORD_TOTALS = 4;
+
+  private final File mFile;
+  private final ExecutorService mExecutor;
+
+  // Only used on the log thread.
+  private final Map<String, Integer> mVariantId;
+  private DataOutputStream mOut;
+
+  // Guarded by this.
+  private final Map<String, Totals> mTotals;
+  private boolean mLoaded;
+
+  public GameLog(File file) {
+    mFile = file;
+    mVariantId = new HashMap<String, Integer>();
+    mTotals = new HashMap<String, Totals>();
+    mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread ret = new Thread(runnable, "GameLog");
+        ret.setDaemon(true);
+        return ret;
+      }
+    });
+    mExecutor.execute(new Runnable() {
+      public void run() {
+        Load();
+      }
+    });
+  }
+
+  /**
+   * Log a game of variant, a GetGameTypeString() name. A game is logged
+   * as started on its first move and again once won or given up.
+   */
+  public void Add(final String variant, final int result, final long seed,
+                  final int time, final int score, final int moves) {
+    mExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          int id = GetVariantId(variant);
+          mOut.writeByte(RECORD_GAME);
+          mOut.writeByte(id);
+          mOut.writeByte(result);
+          mOut.writeLong(seed);
+          mOut.writeInt(time);
+          mOut.writeInt(score);
+          mOut.writeInt(moves);
+          mOut.flush();
+        } catch (IOException e) {
+        }
+        synchronized (GameLog.this) {
+          GetTotalsLocked(variant).Add(result, time, score);
+        }
+      }
+    });
+  }
+
+  // Start the totals of variant over, the high score is kept.
+  public void Clear(final String variant) {
+    mExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          int id = GetVariantId(variant);
+          mOut.writeByte(RECORD_CLEAR);
+          mOut.writeByte(id);
+          mOut.flush();
+        } catch (IOException e) {
+        }
+        synchronized (GameLog.this) {
+          GetTotalsLocked(variant).Clear();
+        }
+      }
+    });
+  }
+
+  // Carry over totals kept before there was a log, games are not known.
+  public void Import(final String variant, final int attempts, final int wins,
+                     final int bestTime, final int highScore) {
+    mExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          int id = GetVariantId(variant);
+          mOut.writeByte(RECORD_TOTALS);
+          mOut.writeByte(id);
+          mOut.writeInt(attempts);
+          mOut.writeInt(wins);
+          mOut.writeInt(bestTime);
+          mOut.writeInt(highScore);
+          mOut.flush();
+        } catch (IOException e) {
+        }
+        synchronized (GameLog.this) {
+          GetTotalsLocked(variant).Import(attempts, wins, bestTime, highScore);
+        }
+      }
+    });
+  }
+
+  // A copy of the totals of variant, empty until the log is read.
+  public synchronized Totals GetTotals(String variant) {
+    return new Totals(GetTotalsLocked(variant));
+  }
+
+  public synchronized boolean IsLoaded() {
+    return mLoaded;
+  }
+
+  // Run done on the log thread once the log is read and queued writes are
+  // counted.
+  public void WhenLoaded(Runnable done) {
+    mExecutor.execute(done);
+  }
+
+  // Wait for queued writes, for tests and shutdown.
+  public void Close() {
+    mExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          if (mOut != null) {
+            mOut.close();
+          }
+        } catch (IOException e) {
+        }
+      }
+    });
+    mExecutor.shutdown();
+    try {
+      mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+    }
+  }
+
+  private Totals GetTotalsLocked(String variant) {
+    Totals ret = mTotals.get(variant);
+    if (ret == null) {
+      ret = new Totals();
+      mTotals.put(variant, ret);
+    }
+    return ret;
+  }
+
+  private int GetVariantId(String variant) throws IOException {
+    Integer id = mVariantId.get(variant);
+    if (id != null) {
+      return id.intValue();
+    }
+    int ret = mVariantId.size();
+    mOut.writeByte(RECORD_VARIANT);
+    mOut.writeByte(ret);
+    mOut.writeUTF(variant);
+    mVariantId.put(variant, Integer.valueOf(ret));
+    return ret;
+  }
+
+  // Read the log, cutting off a record left half written, and open it for
+  // appending. Records of a variant never named are skipped.
+  private void Load() {
+    String[] name = new String[256];
+    long good = 0;
+    if (mFile.exists()) {
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        while (true) {
+          int tag = in.read();
+          if (tag == -1) {
+            break;
+          }
+          int id = in.readUnsignedByte();
+          int length = 2;
+          if (tag == RECORD_VARIANT) {
+            name[id] = in.readUTF();
+            mVariantId.put(name[id], Integer.valueOf(id));
+            length += 2 + name[id].getBytes("UTF-8").length;
+          } else if (tag == RECORD_GAME) {
+            int result = in.readUnsignedByte();
+            in.readLong();
+            int time = in.readInt();
+            int score = in.readInt();
+            in.readInt();
+            length += 1 + 8 + 4 + 4 + 4;
+            if (name[id] != null) {
+              synchronized (this) {
+                GetTotalsLocked(name[id]).Add(result, time, score);
+              }
+            }
+          } else if (tag == RECORD_CLEAR) {
+            if (name[id] != null) {
+              synchronized (this) {
+                GetTotalsLocked(name[id]).Clear();
+              }
+            }
+          } else if (tag == RECORD_TOTALS) {
+            int attempts = in.readInt();
+            int wins = in.readInt();
+            int bestTime = in.readInt();
+            int highScore = in.readInt();
+            length += 16;
+            if (name[id] != null) {
+              synchronized (this) {
+                GetTotalsLocked(name[id]).Import(attempts, wins, bestTime, highScore);
+              }
+            }
+          } else {
+            break;
+          }
+          good += length;
+        }
+      } catch (EOFException e) {
+      } catch (IOException e) {
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (IOException e) {
+          }
+        }
+      }
+      if (good < mFile.length()) {
+        try {
+          RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+          file.setLength(good);
+          file.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+    try {
+      mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+    } catch (IOException e) {
+      // Keep counting in memory if the log can't be written.
+      mOut = new DataOutputStream(new NullOutputStream());
+    }
+    synchronized (this) {
+      mLoaded = true;
+    }
+  }
+
+  private static class NullOutputStream extends java.io.OutputStream {
+    public void write(int b) { }
+  }
+
+  /**
+   * Totals of one variant. Times and scores are kept sorted for the
+   * percentiles.
+   */
+  public static class Totals {
+    private int mAttempts;
+    private int mWins;
+    private int mLosses;
+    private int mStreak;
+    private int mBestStreak;
+    private int mBestTime;
+    private int mHighScore;
+    private boolean mHasScore;
+    private int[] mTime;
+    private int mTimeCount;
+    private int[] mScore;
+    private int mScoreCount;
+
+    public Totals() {
+      mTime = new int[16];
+      mScore = new int[16];
+      Clear();
+    }
+
+    public Totals(Totals other) {
+      mAttempts = other.mAttempts;
+      mWins = other.mWins;
+      mLosses = other.mLosses;
+      mStreak = other.mStreak;
+      mBestStreak = other.mBestStreak;
+      mBestTime = other.mBestTime;
+      mHighScore = other.mHighScore;
+      mHasScore = other.mHasScore;
+      mTime = Arrays.copyOf(other.mTime, other.mTimeCount);
+      mTimeCount = other.mTimeCount;
+      mScore = Arrays.copyOf(other.mScore, other.mScoreCount);
+      mScoreCount = other.mScoreCount;
+    }
+
+    public int GetAttempts() { return mAttempts; }
+    public int GetWins() { return mWins; }
+    public int GetLosses() { return mLosses; }
+    public int GetStreak() { return mStreak; }
+    public int GetBestStreak() { return mBestStreak; }
+    // Fastest win in milliseconds, -1 if none.
+    public int GetBestTime() { return mBestTime; }
+    public boolean HasScore() { return mHasScore; }
+    public int GetHighScore() { return mHighScore; }
+    public int GetTimeCount() { return mTimeCount; }
+    public int GetScoreCount() { return mScoreCount; }
+
+    // Win time below which percent of the wins are, -1 if none.
+    public int GetTimePercentile(int percent) {
+      return Percentile(mTime, mTimeCount, percent);
+    }
+
+    // Score of the finished games below which percent of them are.
+    public int GetScorePercentile(int percent) {
+      return Percentile(mScore, mScoreCount, percent);
+    }
+
+    void Add(int result, int time, int score) {
+      if (result == RESULT_STARTED) {
+        mAttempts++;
+        return;
+      }
+      if (result == RESULT_WON) {
+        mWins++;
+        mStreak++;
+        mBestStreak = Math.max(mBestStreak, mStreak);
+        if (mBestTime == -1 || time < mBestTime) {
+          mBestTime = time;
+        }
+        mTime = Insert(mTime, mTimeCount++, time);
+      } else {
+        mLosses++;
+        mStreak = 0;
+      }
+      mScore = Insert(mScore, mScoreCount++, score);
+      AddScore(score);
+    }
+
+    void Clear() {
+      mAttempts = 0;
+      mWins = 0;
+      mLosses = 0;
+      mStreak = 0;
+      mBestStreak = 0;
+      mBestTime = -1;
+      mTimeCount = 0;
+      mScoreCount = 0;
+    }
+
+    void Import(int attempts, int wins, int bestTime, int highScore) {
+      mAttempts += attempts;
+      mWins += wins;
+      if (bestTime != -1 && (mBestTime == -1 || bestTime < mBestTime)) {
+        mBestTime = bestTime;
+      }
+      if (highScore != NO_SCORE) {
+        AddScore(highScore);
+      }
+    }
+
+    private void AddScore(int score) {
+      if (!mHasScore || score > mHighScore) {
+        mHighScore = score;
+        mHasScore = true;
+      }
+    }
+
+    // Put value in the sorted first count entries of array.
+    private static int[] Insert(int[] array, int count, int value) {
+      if (count == array.length) {
+        array = Arrays.copyOf(array, count * 2);
+      }
+      int idx = count;
+      while (idx > 0 && array[idx - 1] > value) {
+        array[idx] = array[idx - 1];
+        idx--;
+      }
+      array[idx] = value;
+      return array;
+    }
+
+    private static int Percentile(int[] sorted, int count, int percent) {
+      if (count == 0) {
+        return -1;
+      }
+      return sorted[Math.min(count - 1, (int)((long)count * percent / 100))];
+    }
+  }
+}
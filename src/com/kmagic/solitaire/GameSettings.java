@@ -0,0 +1,27 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+/**
+ * Read only access to the user options the rules depend on.
+ *
+ * Mirrors the getters of SharedPreferences so the view can hand those
+ * straight through, while headless code can use {@link SimpleSettings}.
+ */
+public interface GameSettings {
+  public boolean getBoolean(String key, boolean defValue);
+  public int getInt(String key, int defValue);
+}
@@ -0,0 +1,60 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+/**
+ * A saved board as handed to {@link Rules#Init(GameState)}.
+ *
+ * Cards are listed anchor by anchor, bottom card first, with values 1-13
+ * and suits as in {@link Card.SuiteEnum#ordinal()}. The seed is the deal
+ * number the game was started from.
+ */
+public class GameState {
+
+  private final int mCardAnchorCount;
+  private final int mCardCount;
+  private final int[] mAnchorCardCount;
+  private final int[] mAnchorHiddenCount;
+  private final int[] mValue;
+  private final int[] mSuit;
+  private final int mRulesExtra;
+  private final int mScore;
+  private final long mSeed;
+
+  public GameState(int cardAnchorCount, int cardCount, int[] anchorCardCount,
+                   int[] anchorHiddenCount, int[] value, int[] suit,
+                   int rulesExtra, int score, long seed) {
+    mCardAnchorCount = cardAnchorCount;
+    mCardCount = cardCount;
+    mAnchorCardCount = anchorCardCount;
+    mAnchorHiddenCount = anchorHiddenCount;
+    mValue = value;
+    mSuit = suit;
+    mRulesExtra = rulesExtra;
+    mScore = score;
+    mSeed = seed;
+  }
+
+  public int GetCardAnchorCount() { return mCardAnchorCount; }
+  public int GetCardCount() { return mCardCount; }
+  public int[] GetAnchorCardCount() { return mAnchorCardCount; }
+  public int[] GetAnchorHiddenCount() { return mAnchorHiddenCount; }
+  public int[] GetValue() { return mValue; }
+  public int[] GetSuit() { return mSuit; }
+  public int GetRulesExtra() { return mRulesExtra; }
+  public int GetScore() { return mScore; }
+  public long GetSeed() { return mSeed; }
+}
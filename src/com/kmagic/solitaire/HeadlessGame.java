@@ -0,0 +1,146 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+/**
+ * Runs a game without a view: animations finish instantly and the rules'
+ * events are drained after every action.
+ *
+ * Meant for simulations, benchmarks and solvers on a plain JVM, it uses
+ * exactly the same {@link Rules} and {@link CardAnchor} code as the app.
+ */
+public class HeadlessGame implements GameListener {
+
+  private final MoveHistory mMoveHistory;
+  private final MoveCard mMoveCard;
+  private final Card[] mLift;
+  private final Rules mRules;
+  private final CardAnchor[] mCardAnchor;
+  private boolean mWon;
+
+  public HeadlessGame(int type, GameSettings settings) {
+    this(type, null, Deck.NewSeed(), settings);
+  }
+
+  // Same deal every time for the same seed and settings.
+  public HeadlessGame(int type, long seed, GameSettings settings) {
+    this(type, null, seed, settings);
+  }
+
+  // Continue from a saved board, a new deal is made if state does not fit type.
+  public HeadlessGame(int type, GameState state, GameSettings settings) {
+    this(type, state, Deck.NewSeed(), settings);
+  }
+
+  private HeadlessGame(int type, GameState state, long seed, GameSettings settings) {
+    mMoveHistory = new MoveHistory();
+    mMoveCard = new MoveCard();
+    mLift = new Card[CardAnchor.MAX_CARDS];
+    mWon = false;
+    mRules = Rules.CreateRules(type, state, this, settings, mMoveHistory, seed);
+    mCardAnchor = mRules.GetAnchorArray();
+  }
+
+  public Rules GetRules() { return mRules; }
+  CardAnchor[] GetAnchors() { return mCardAnchor; }
+  public MoveHistory GetMoveHistory() { return mMoveHistory; }
+  public boolean IsWon() { return mWon; }
+  public Board GetBoard() { return Board.FromAnchors(mCardAnchor, mRules.GetCardCount()); }
+
+  // Same as tapping the deck.
+  public void Deal() {
+    mRules.EventAlert(Rules.EVENT_DEAL, mCardAnchor[0]);
+    mRules.HandleEvents();
+  }
+
+  /**
+   * Move the top count cards of anchor from onto anchor to, following the
+   * same steps as a drag and drop in the view.
+   *
+   * @return false if the move is not allowed, nothing changes in that case.
+   */
+  public boolean MoveCards(int from, int count, int to) {
+    CardAnchor anchor = mCardAnchor[from];
+    if (from == to || count < 1 || count > anchor.GetMovableCount()) {
+      return false;
+    }
+
+    for (int i = count-1; i >= 0; i--) {
+      mLift[i] = anchor.PopCard();
+    }
+    mMoveCard.SetAnchor(anchor);
+    for (int i = 0; i < count; i++) {
+      mMoveCard.AddCard(mLift[i]);
+      mLift[i] = null;
+    }
+    boolean unhide = (anchor.GetVisibleCount() == 0 && anchor.GetCount() > 0);
+
+    if (!mCardAnchor[to].CanDropCards(mMoveCard.GetTopCard(), count)) {
+      boolean oldIgnore = mRules.GetIgnoreEvents();
+      mRules.SetIgnoreEvents(true);
+      mMoveCard.Release();
+      mRules.SetIgnoreEvents(oldIgnore);
+      return false;
+    }
+    mMoveHistory.Push(from, to, count, false, unhide);
+    mCardAnchor[to].AddMoveCard(mMoveCard);
+    mRules.HandleEvents();
+    return true;
+  }
+
+  /**
+   * Play a move as the rules record it. Moves from or onto the deck are
+   * deals, they are done by tapping the deck.
+   *
+   * @return false if the move is not allowed.
+   */
+  public boolean Play(Move move) {
+    if (mCardAnchor[move.GetFrom()] instanceof DealFrom ||
+        mCardAnchor[move.GetToBegin()] instanceof DealFrom) {
+      int historySize = mMoveHistory.Size();
+      Deal();
+      return mMoveHistory.Size() > historySize;
+    }
+    return MoveCards(move.GetFrom(), move.GetCount(), move.GetToBegin());
+  }
+
+  public boolean Undo() {
+    mWon = false;
+    return mRules.Undo();
+  }
+
+  public void HandleEvents() {
+    mRules.HandleEvents();
+  }
+
+  // ==========================================================================
+  // GameListener
+  // ------------
+  public void Refresh() { }
+  public void StopAnimating() { }
+  public void DisplayWin() { mWon = true; }
+
+  public void AnimateMove(Card card, CardAnchor anchor) {
+    anchor.AddCard(card);
+  }
+
+  public void AnimateDeal(Card[] card, CardAnchor[] anchor, int count) {
+    for (int i = 0; i < count; i++) {
+      anchor[i].AddCard(card[i]);
+      mRules.HandleEvents();
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Arrays;
+
+/**
+ * Takes a game to any move of its history, done or undone.
+ *
+ * A copy of the board is kept for one position in every
+ * CHECKPOINT_INTERVAL moves. A jump restores the nearest copy at or before
+ * the target and redoes the moves from there, so it costs at most two
+ * intervals of moves however far it goes. Copies are taken on the way
+ * whenever a jump steps through a position whose interval has none, and by
+ * Update() for the position the game is at.
+ */
+public class HistoryNavigator {
+
+  public static final int CHECKPOINT_INTERVAL = 32;
+
+  private final Rules mRules;
+  private final MoveHistory mHistory;
+
+  // Slot k holds a board for a position in [k, k+1) intervals, mPosition
+  // is -1 for an empty slot.
+  private Board[] mCheckpoint;
+  private int[] mPosition;
+  private int[] mRulesExtra;
+
+  public HistoryNavigator(Rules rules, MoveHistory history) {
+    mRules = rules;
+    mHistory = history;
+    mCheckpoint = new Board[8];
+    mPosition = new int[8];
+    mRulesExtra = new int[8];
+    Arrays.fill(mPosition, -1);
+    history.TakeChangedFrom();
+  }
+
+  // Number of moves done, the position in the history.
+  public int GetPosition() { return mHistory.Size(); }
+  // Number of moves done and undone.
+  public int GetLength() { return mHistory.Size() + mHistory.GetRedoCount(); }
+
+  // Keep a copy of the board as it is now if its interval has none. The
+  // board must be at rest, with no move half done.
+  public void Update() {
+    Invalidate();
+    Save();
+  }
+
+  public boolean Undo() {
+    return GetPosition() > 0 && JumpTo(GetPosition() - 1);
+  }
+
+  public boolean Redo() {
+    return GetPosition() < GetLength() && JumpTo(GetPosition() + 1);
+  }
+
+  /**
+   * Undo or redo up to position, clamped to the moves known.
+   *
+   * @return false if the game was there already.
+   */
+  public boolean JumpTo(int position) {
+    Invalidate();
+    position = Math.max(0, Math.min(position, GetLength()));
+    int current = GetPosition();
+    // Never stop inside a step, go on to its far end.
+    while (position > 0 && position < GetLength() && Move.Joined(mHistory.Get(position))) {
+      position += position < current ? -1 : 1;
+    }
+    if (position == current) {
+      return false;
+    }
+
+    int slot = Math.min(position / CHECKPOINT_INTERVAL, mPosition.length - 1);
+    while (slot >= 0 && (mPosition[slot] == -1 || mPosition[slot] > position)) {
+      slot--;
+    }
+    if (slot >= 0 && position - mPosition[slot] < Math.abs(position - current)) {
+      int start = mPosition[slot];
+      while (mHistory.Size() > start) {
+        mHistory.Pop();
+      }
+      while (mHistory.Size() < start) {
+        mHistory.Redo();
+      }
+      mRules.RestoreBoard(mCheckpoint[slot], mRulesExtra[slot]);
+    }
+
+    while (GetPosition() > position) {
+      mRules.UndoMove();
+      Save();
+    }
+    while (GetPosition() < position) {
+      mRules.RedoMove();
+      Save();
+    }
+    return true;
+  }
+
+  // Drop the copies made for moves that have since been replaced.
+  private void Invalidate() {
+    int changedFrom = mHistory.TakeChangedFrom();
+    if (changedFrom == Integer.MAX_VALUE) {
+      return;
+    }
+    for (int i = 0; i < mPosition.length; i++) {
+      if (mPosition[i] > changedFrom) {
+        mPosition[i] = -1;
+      }
+    }
+  }
+
+  private void Save() {
+    int position = GetPosition();
+    int slot = position / CHECKPOINT_INTERVAL;
+    if (slot >= mPosition.length) {
+      int length = Math.max(slot + 1, mPosition.length * 2);
+      mCheckpoint = Arrays.copyOf(mCheckpoint, length);
+      mRulesExtra = Arrays.copyOf(mRulesExtra, length);
+      int oldLength = mPosition.length;
+      mPosition = Arrays.copyOf(mPosition, length);
+      Arrays.fill(mPosition, oldLength, length, -1);
+    }
+    if (mPosition[slot] == -1) {
+      mCheckpoint[slot] = Board.FromAnchors(mRules.GetAnchorArray(), mRules.GetCardCount());
+      mRulesExtra[slot] = mRules.GetRulesExtra();
+      mPosition[slot] = position;
+    }
+  }
+}
@@ -0,0 +1,518 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Solver for the NormalSolitaire (Klondike) rules, dealing one or three
+ * cards with unlimited redeals or the Vegas limit.
+ *
+ * Depth first search knowing all cards, face down ones included
+ * ("thoughtful" solitaire). Cards no tableau card can need are put on the
+ * foundations right away. Positions seen are kept in a fixed size
+ * SearchCache, the hash ignores which column a pile is in.
+ *
+ * Three quarters of the node limit first go to a quick pass that only
+ * splits a run to free a foundation card, which wins most deals that can
+ * be won. The rest goes to a full search that tries every tableau move.
+ *
+ * Moves use the NormalSolitaire anchor numbers: 0 stock, 1 waste, 2-5
+ * foundations and 6-12 tableau. Dealing is a move from 0 to 1, turning the
+ * waste over one from 1 to 0, play them with HeadlessGame.Play() and
+ * automatic moves turned off.
+ *
+ * A solver is not thread safe.
+ */
+public class KlondikeSolver {
+
+  public static final int DEFAULT_NODE_LIMIT = 100000;
+  public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+
+  private static final int STOCK = 0;
+  private static final int WASTE = 1;
+  private static final int SINK = 2;
+  private static final int TABLEAU = 6;
+  private static final int PILES = 13;
+  private static final int EMPTY = -1;
+
+  private static final int FLAG_UNHIDE = 1;
+  private static final int FLAG_DEAL_COUNT = 2;
+
+  private static final long[][] STOCK_KEY = new long[52][24];
+  private static final long[][] WASTE_KEY = new long[52][24];
+  private static final long[] DEALS_KEY = new long[8];
+
+  static {
+    Random random = new Random(0xC10D);
+    for (int i = 0; i < 52; i++) {
+      for (int j = 0; j < 24; j++) {
+        STOCK_KEY[i][j] = random.nextLong();
+        WASTE_KEY[i][j] = random.nextLong();
+      }
+    }
+    for (int i = 0; i < DEALS_KEY.length; i++) {
+      DEALS_KEY[i] = random.nextLong();
+    }
+  }
+
+  private final int mNodeLimit;
+  private final SearchCache mCache;
+
+  private final int[][] mPile;
+  private final int[] mCount;
+  private final int[] mHidden;
+  private int mDealsLeft;
+  private boolean mDealThree;
+
+  // Moves from the start, packed from | to << 4 | count << 8 | flags << 16.
+  private int[] mMove;
+  private int mMoveCount;
+  // Candidate moves of every open search level, packed as the moves with
+  // the number of deals to make first in the high bits.
+  private int[] mCandidate;
+  private int[] mPriority;
+  private int mCandidateCount;
+  private int mCandidateStart;
+  private int mNodeCount;
+  private int mPassLimit;
+  // False in the quick pass.
+  private boolean mSplitRuns;
+
+  public KlondikeSolver() {
+    this(DEFAULT_NODE_LIMIT, DEFAULT_CACHE_SIZE);
+  }
+
+  public KlondikeSolver(int nodeLimit, int cacheSize) {
+    mNodeLimit = nodeLimit;
+    mCache = new SearchCache(cacheSize);
+    mPile = new int[PILES][52];
+    mCount = new int[PILES];
+    mHidden = new int[PILES];
+    mMove = new int[256];
+    mCandidate = new int[1024];
+    mPriority = new int[1024];
+  }
+
+  /**
+   * Solve the NormalSolitaire board, which is not changed.
+   *
+   * @param dealThree as the SolitaireDealThree setting
+   * @param dealsLeft times the waste can be turned over, -1 for no limit
+   * @return the moves to win, null if none was found within the node limit.
+   */
+  public List<Move> Solve(Board board, boolean dealThree, int dealsLeft) {
+    for (int i = 0; i < PILES; i++) {
+      mCount[i] = board.GetCount(i);
+      mHidden[i] = i >= TABLEAU ? board.GetHiddenCount(i) : 0;
+      for (int j = 0; j < mCount[i]; j++) {
+        mPile[i][j] = board.GetCard(i, j);
+      }
+    }
+    mDealThree = dealThree;
+    mDealsLeft = dealsLeft;
+    mMoveCount = 0;
+    mCandidateCount = 0;
+    mNodeCount = 0;
+    mCache.Clear();
+
+    mSplitRuns = false;
+    mPassLimit = mNodeLimit / 4 * 3;
+    if (!Search()) {
+      mSplitRuns = true;
+      mPassLimit = mNodeLimit;
+      mCache.Clear();
+      if (!Search()) {
+        return null;
+      }
+    }
+    List<Move> ret = new ArrayList<Move>(mMoveCount);
+    for (int i = 0; i < mMoveCount; i++) {
+      int move = mMove[i];
+      int from = move & 0xF;
+      int to = (move >> 4) & 0xF;
+      int flags = move >>> 16;
+      ret.add(new Move(from, to, (move >> 8) & 0xFF, IsDeal(from, to),
+                       (flags & FLAG_UNHIDE) != 0, (flags & FLAG_DEAL_COUNT) != 0));
+    }
+    return ret;
+  }
+
+  // Number of nodes the last Solve() looked at.
+  public int GetNodeCount() { return mNodeCount; }
+
+  /**
+   * Chance to win the board without knowing the face down cards: the
+   * face down tableau cards and the stock are dealt at random again for
+   * each sample and solved.
+   */
+  public float EstimateWinRate(Board board, boolean dealThree, int dealsLeft,
+                               int samples, Random random) {
+    int[] unknown = new int[52];
+    int wins = 0;
+    Board sample = new Board(board);
+    for (int n = 0; n < samples; n++) {
+      int count = 0;
+      for (int i = 0; i < PILES; i++) {
+        if (i == STOCK || i >= TABLEAU) {
+          int hidden = i == STOCK ? board.GetCount(i) : board.GetHiddenCount(i);
+          for (int j = 0; j < hidden; j++) {
+            unknown[count++] = board.GetCard(i, j);
+          }
+        }
+      }
+      for (int i = count - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = unknown[i];
+        unknown[i] = unknown[j];
+        unknown[j] = swap;
+      }
+      sample.CopyFrom(board);
+      for (int i = 0; i < PILES; i++) {
+        if (i == STOCK || i >= TABLEAU) {
+          int hidden = i == STOCK ? board.GetCount(i) : board.GetHiddenCount(i);
+          int[] keep = new int[board.GetCount(i) - hidden];
+          for (int j = 0; j < keep.length; j++) {
+            keep[j] = sample.Pop(i);
+          }
+          while (sample.GetCount(i) > 0) {
+            sample.Pop(i);
+          }
+          for (int j = 0; j < hidden; j++) {
+            sample.Push(i, unknown[--count]);
+          }
+          for (int j = keep.length - 1; j >= 0; j--) {
+            sample.Push(i, keep[j]);
+          }
+        }
+      }
+      if (Solve(sample, dealThree, dealsLeft) != null) {
+        wins++;
+      }
+    }
+    return samples > 0 ? (float)wins / samples : 0;
+  }
+
+  // ==========================================================================
+  // Search
+  // ------
+  private boolean Search() {
+    if (++mNodeCount > mPassLimit) {
+      return false;
+    }
+    int moveMark = mMoveCount;
+    AutoPlay();
+    if (IsWon()) {
+      return true;
+    }
+    if (!mCache.Add(Hash())) {
+      UndoTo(moveMark);
+      return false;
+    }
+
+    int start = mCandidateCount;
+    mCandidateStart = start;
+    Generate();
+    int end = mCandidateCount;
+    for (int i = start; i < end && mNodeCount <= mPassLimit; i++) {
+      int move = mCandidate[i];
+      int mark = mMoveCount;
+      for (int deals = move >>> 16; deals > 0; deals--) {
+        Deal();
+      }
+      Do(move & 0xF, (move >> 4) & 0xF, (move >> 8) & 0xFF);
+      if (Search()) {
+        return true;
+      }
+      UndoTo(mark);
+    }
+    mCandidateCount = start;
+    UndoTo(moveMark);
+    return false;
+  }
+
+  private void Generate() {
+    int firstEmpty = EMPTY;
+    for (int i = TABLEAU; i < PILES; i++) {
+      if (mCount[i] == 0) {
+        firstEmpty = i;
+        break;
+      }
+    }
+
+    // Tableau to foundation.
+    for (int i = TABLEAU; i < PILES; i++) {
+      if (mCount[i] > 0 && SinkFor(Top(i)) != EMPTY) {
+        AddCandidate(i, SinkFor(Top(i)), 1, 0,
+                     mHidden[i] == mCount[i] - 1 ? 100 + mHidden[i] : 40);
+      }
+    }
+
+    // Tableau moves, whole runs first as they turn a card or empty a column.
+    for (int i = TABLEAU; i < PILES; i++) {
+      int visible = mCount[i] - mHidden[i];
+      if (visible == 0) {
+        continue;
+      }
+      int run = RunLength(i);
+      int bottom = mPile[i][mCount[i] - run];
+      for (int j = TABLEAU; j < PILES; j++) {
+        if (j == i) {
+          continue;
+        }
+        if (mCount[j] == 0) {
+          // A king with face down cards under it goes to the first empty one.
+          if (j == firstEmpty && run == visible && mHidden[i] > 0 &&
+              Board.Rank(bottom) == Board.RANK_COUNT - 1) {
+            AddCandidate(i, j, run, 0, 70 + mHidden[i]);
+          }
+          continue;
+        }
+        int count = Board.Rank(Top(j)) - Board.Rank(Top(i));
+        if (count < 1 || count > run || !Fits(mPile[i][mCount[i] - count], Top(j))) {
+          continue;
+        }
+        if (count == visible) {
+          AddCandidate(i, j, count, 0, mHidden[i] > 0 ? 80 + mHidden[i] : 30);
+        } else if (SinkFor(mPile[i][mCount[i] - count - 1]) != EMPTY) {
+          AddCandidate(i, j, count, 0, 50);
+        } else if (mSplitRuns) {
+          AddCandidate(i, j, count, 0, 10);
+        }
+      }
+    }
+
+    // Every card the stock and waste can bring up, with the number of
+    // deals it takes. Turning the waste over more than once gives nothing
+    // new.
+    int moveMark = mMoveCount;
+    long seen = 0;
+    boolean turned = false;
+    for (int deals = 0; deals < 256; deals++) {
+      if (mCount[WASTE] > 0 && (seen & (1L << Top(WASTE))) == 0) {
+        int card = Top(WASTE);
+        seen |= 1L << card;
+        if (SinkFor(card) != EMPTY) {
+          AddCandidate(WASTE, SinkFor(card), 1, deals, 60 - deals / 8);
+        }
+        for (int j = TABLEAU; j < PILES; j++) {
+          if (mCount[j] == 0 ? j == firstEmpty && Board.Rank(card) == Board.RANK_COUNT - 1
+                             : Fits(card, Top(j))) {
+            AddCandidate(WASTE, j, 1, deals, 35 - deals / 8);
+          }
+        }
+      }
+      if (mCount[STOCK] == 0 && (turned || mDealsLeft == 0 || mCount[WASTE] == 0)) {
+        break;
+      }
+      turned |= mCount[STOCK] == 0;
+      Deal();
+    }
+    UndoTo(moveMark);
+  }
+
+  // Put every card no tableau card can need anymore on its foundation.
+  private void AutoPlay() {
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      for (int i = WASTE; i < PILES; i++) {
+        if (i >= SINK && i < TABLEAU) {
+          continue;
+        }
+        if (mCount[i] > 0 && IsSafe(Top(i))) {
+          Do(i, SinkFor(Top(i)), 1);
+          moved = true;
+        }
+      }
+    }
+  }
+
+  // Candidates are kept sorted by priority, highest first.
+  private void AddCandidate(int from, int to, int count, int deals, int priority) {
+    if (mCandidateCount == mCandidate.length) {
+      mCandidate = Arrays.copyOf(mCandidate, mCandidateCount * 2);
+      mPriority = Arrays.copyOf(mPriority, mCandidateCount * 2);
+    }
+    int idx = mCandidateCount++;
+    while (idx > mCandidateStart && mPriority[idx - 1] < priority) {
+      mCandidate[idx] = mCandidate[idx - 1];
+      mPriority[idx] = mPriority[idx - 1];
+      idx--;
+    }
+    mCandidate[idx] = from | (to << 4) | (count << 8) | (deals << 16);
+    mPriority[idx] = priority;
+  }
+
+  // Tap the deck: deal from the stock or turn the waste over.
+  private void Deal() {
+    if (mCount[STOCK] > 0) {
+      Do(STOCK, WASTE, Math.min(mDealThree ? 3 : 1, mCount[STOCK]));
+    } else {
+      Do(WASTE, STOCK, mCount[WASTE]);
+    }
+  }
+
+  // ==========================================================================
+  // Moves
+  // -----
+  private void Do(int from, int to, int count) {
+    int flags = 0;
+    if (IsDeal(from, to)) {
+      // Cards are turned over one at a time like the rules do.
+      for (int i = 0; i < count; i++) {
+        mPile[to][mCount[to]++] = mPile[from][--mCount[from]];
+      }
+      if (from == WASTE && mDealsLeft > 0) {
+        mDealsLeft--;
+        flags |= FLAG_DEAL_COUNT;
+      }
+    } else {
+      mCount[from] -= count;
+      System.arraycopy(mPile[from], mCount[from], mPile[to], mCount[to], count);
+      mCount[to] += count;
+      if (mHidden[from] > 0 && mHidden[from] == mCount[from]) {
+        mHidden[from]--;
+        flags |= FLAG_UNHIDE;
+      }
+    }
+    if (mMoveCount == mMove.length) {
+      mMove = Arrays.copyOf(mMove, mMoveCount * 2);
+    }
+    mMove[mMoveCount++] = from | (to << 4) | (count << 8) | (flags << 16);
+  }
+
+  private void Undo() {
+    int move = mMove[--mMoveCount];
+    int from = move & 0xF;
+    int to = (move >> 4) & 0xF;
+    int count = (move >> 8) & 0xFF;
+    int flags = move >>> 16;
+    if (IsDeal(from, to)) {
+      for (int i = 0; i < count; i++) {
+        mPile[from][mCount[from]++] = mPile[to][--mCount[to]];
+      }
+      if ((flags & FLAG_DEAL_COUNT) != 0) {
+        mDealsLeft++;
+      }
+    } else {
+      if ((flags & FLAG_UNHIDE) != 0) {
+        mHidden[from]++;
+      }
+      mCount[to] -= count;
+      System.arraycopy(mPile[to], mCount[to], mPile[from], mCount[from], count);
+      mCount[from] += count;
+    }
+  }
+
+  // Dealing from the stock and turning the waste over.
+  private static boolean IsDeal(int from, int to) {
+    return from == STOCK || (from == WASTE && to == STOCK);
+  }
+
+  private void UndoTo(int moveCount) {
+    while (mMoveCount > moveCount) {
+      Undo();
+    }
+  }
+
+  // ==========================================================================
+  // Position
+  // --------
+  private int Top(int pile) { return mPile[pile][mCount[pile] - 1]; }
+
+  private boolean IsWon() {
+    return mCount[SINK] + mCount[SINK + 1] + mCount[SINK + 2] + mCount[SINK + 3] == 52;
+  }
+
+  private int FoundationCount(int suit) {
+    for (int i = SINK; i < TABLEAU; i++) {
+      if (mCount[i] > 0 && Board.Suit(mPile[i][0]) == suit) {
+        return mCount[i];
+      }
+    }
+    return 0;
+  }
+
+  // Foundation the card can go on, EMPTY if none.
+  private int SinkFor(int card) {
+    int rank = Board.Rank(card);
+    int suit = Board.Suit(card);
+    int firstEmpty = EMPTY;
+    for (int i = SINK; i < TABLEAU; i++) {
+      if (mCount[i] == 0) {
+        if (firstEmpty == EMPTY) {
+          firstEmpty = i;
+        }
+      } else if (Board.Suit(mPile[i][0]) == suit) {
+        return mCount[i] == rank ? i : EMPTY;
+      }
+    }
+    return rank == 0 ? firstEmpty : EMPTY;
+  }
+
+  // No card of the other colour still needs card to be built on.
+  private boolean IsSafe(int card) {
+    int rank = Board.Rank(card);
+    int suit = Board.Suit(card);
+    if (SinkFor(card) == EMPTY) {
+      return false;
+    }
+    return rank <= 1 ||
+        (FoundationCount(suit ^ 1) >= rank && FoundationCount(suit ^ 3) >= rank);
+  }
+
+  private static boolean Fits(int card, int target) {
+    return Board.Rank(card) + 1 == Board.Rank(target) &&
+        Board.IsRed(card) != Board.IsRed(target);
+  }
+
+  // Length of the face up alternating colour run on top of pile.
+  private int RunLength(int pile) {
+    int visible = mCount[pile] - mHidden[pile];
+    int ret = 1;
+    for (int i = mCount[pile] - 2; ret < visible && Fits(mPile[pile][i + 1], mPile[pile][i]); i--) {
+      ret++;
+    }
+    return ret;
+  }
+
+  // Each tableau pile is hashed in order and the piles are added up, so
+  // their order does not matter but a card keeps the pile it is in.
+  private long Hash() {
+    long hash = DEALS_KEY[mDealsLeft + 1];
+    for (int i = TABLEAU; i < PILES; i++) {
+      long pile = mHidden[i] + 1;
+      for (int j = 0; j < mCount[i]; j++) {
+        pile = (pile ^ mPile[i][j]) * 0x100000001B3L;
+      }
+      pile ^= pile >>> 29;
+      pile *= 0xBF58476D1CE4E5B9L;
+      pile ^= pile >>> 32;
+      hash += pile;
+    }
+    for (int j = 0; j < mCount[STOCK]; j++) {
+      hash ^= STOCK_KEY[mPile[STOCK][j]][j];
+    }
+    for (int j = 0; j < mCount[WASTE]; j++) {
+      hash ^= WASTE_KEY[mPile[WASTE][j]][j];
+    }
+    return hash;
+  }
+}
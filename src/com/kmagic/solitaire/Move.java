@@ -26,6 +26,7 @@ public class Move {
   private static final int FLAGS_INVERT = 0x0001;
   private static final int FLAGS_UNHIDE = 0x0002;
   private static final int FLAGS_ADD_DEAL_COUNT = 0x0004;
+  private static final int FLAGS_JOINED = 0x0008;
 
   public Move() {
     mFrom = -1;
@@ -90,6 +91,42 @@ public class Move {
     mFlags = flags;
   }
 
+  public Move(long move) {
+    this(From(move), ToBegin(move), ToEnd(move), Count(move), Flags(move));
+  }
+
+  // ==========================================================================
+  // Packed moves
+  // ------------
+  // A move packed into a long for MoveHistory, a byte per field with the
+  // anchor numbers lowest.
+  public static long Pack(int from, int toBegin, int toEnd, int count, int flags) {
+    return from | toBegin << 8 | toEnd << 16 | (long)count << 24 | (long)flags << 32;
+  }
+
+  public static int Flags(boolean invert, boolean unhide, boolean addDealCount) {
+    return (invert ? FLAGS_INVERT : 0) | (unhide ? FLAGS_UNHIDE : 0) |
+           (addDealCount ? FLAGS_ADD_DEAL_COUNT : 0);
+  }
+
+  public static int From(long move) { return (int)move & 0xFF; }
+  public static int ToBegin(long move) { return (int)(move >> 8) & 0xFF; }
+  public static int ToEnd(long move) { return (int)(move >> 16) & 0xFF; }
+  public static int Count(long move) { return (int)(move >> 24) & 0xFF; }
+  public static int Flags(long move) { return (int)(move >> 32) & 0xFF; }
+  public static boolean Invert(long move) { return (Flags(move) & FLAGS_INVERT) != 0; }
+  public static boolean Unhide(long move) { return (Flags(move) & FLAGS_UNHIDE) != 0; }
+  public static boolean AddDealCount(long move) {
+    return (Flags(move) & FLAGS_ADD_DEAL_COUNT) != 0;
+  }
+
+  // A joined move is one step with the move before it, undone and redone
+  // together.
+  public static boolean Joined(long move) { return (Flags(move) & FLAGS_JOINED) != 0; }
+  public static long Join(long move) { return move | (long)FLAGS_JOINED << 32; }
+
+  public long Pack() { return Pack(mFrom, mToBegin, mToEnd, mCount, mFlags); }
+
   public int GetFrom() { return mFrom; }
   public int GetToBegin() { return mToBegin; }
   public int GetToEnd() { return mToEnd; }
@@ -15,25 +15,23 @@
 */ 
 package com.kmagic.solitaire;
 
-import android.graphics.Canvas;
-import android.graphics.PointF;
-
-import android.util.Log;
-
 
 class MoveCard {
 
-  private static final int MAX_CARDS = 13;
+  // As many as a pile holds, some games lift any face up run.
+  private static final int MAX_CARDS = CardAnchor.MAX_CARDS;
 
   private boolean mValid;
   private Card[] mCard;
   private int mCardCount;
   private CardAnchor mCardAnchor;
-  private PointF mOriginalPoint;
+  private float mOriginalX;
+  private float mOriginalY;
 
   public MoveCard() {
     mCard = new Card[MAX_CARDS];
-    mOriginalPoint = new PointF(1, 1);
+    mOriginalX = 1;
+    mOriginalY = 1;
     Clear();
   }
 
@@ -41,16 +39,11 @@ class MoveCard {
   public CardAnchor GetAnchor() { return mCardAnchor; }
   public int GetCount() { return mCardCount; }
   public Card GetTopCard() { return mCard[0]; }
+  public Card[] GetCards() { return mCard; }
   public void SetAnchor(CardAnchor anchor) { 
     mCardAnchor = anchor;
   }
 
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    for (int i = 0; i < mCardCount; i++) {
-      drawMaster.DrawCard(canvas, mCard[i]);
-    }
-  }
-
   private void Clear() {
     mValid = false;
     mCardCount = 0;
@@ -72,7 +65,8 @@ class MoveCard {
 
   public void AddCard(Card card) {
     if (mCardCount == 0) {
-      mOriginalPoint.set(card.GetX(), card.GetY());
+      mOriginalX = card.GetX();
+      mOriginalY = card.GetY();
     }
     mCard[mCardCount++] = card;
     mValid = true;
@@ -131,8 +125,8 @@ class MoveCard {
     float x = mCard[0].GetX();
     float y = mCard[0].GetY();
 
-    if (x >= mOriginalPoint.x - 2 && x <= mOriginalPoint.x + 2 &&
-        y >= mOriginalPoint.y - 2 && y <= mOriginalPoint.y + 2) {
+    if (x >= mOriginalX - 2 && x <= mOriginalX + 2 &&
+        y >= mOriginalY - 2 && y <= mOriginalY + 2) {
       return false;
     }
     return true;
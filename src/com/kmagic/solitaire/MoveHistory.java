@@ -0,0 +1,160 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Arrays;
+
+/**
+ * The moves of a game, oldest first, each packed into a long (see
+ * {@link Move#Pack(int, int, int, int, int)}).
+ *
+ * Undone moves stay above the top until a new move is pushed so they can
+ * be redone. Nothing allocates once the array has grown to the length of
+ * the game, and nothing is synchronized: the view and the rules use the
+ * history from one thread.
+ */
+public class MoveHistory {
+
+  // Told about every move pushed, redone and popped, for the journal.
+  public interface Listener {
+    public void MovePushed(long move);
+    public void MovePopped();
+  }
+
+  private long[] mMove;
+  private int mSize;
+  private int mKept;
+  private int mChangedFrom;
+  private Listener mListener;
+
+  public MoveHistory() {
+    mMove = new long[64];
+    mChangedFrom = Integer.MAX_VALUE;
+  }
+
+  public void SetListener(Listener listener) { mListener = listener; }
+
+  public int Size() { return mSize; }
+  public boolean IsEmpty() { return mSize == 0; }
+  // Moves after the top that Redo() can bring back.
+  public int GetRedoCount() { return mKept - mSize; }
+  public boolean CanRedo() { return mKept > mSize; }
+
+  // Move idx counting from the oldest, undone ones up to Size() +
+  // GetRedoCount() included.
+  public long Get(int idx) {
+    if (idx >= mKept) {
+      throw new ArrayIndexOutOfBoundsException(idx);
+    }
+    return mMove[idx];
+  }
+
+  public long Peek() { return Get(mSize - 1); }
+
+  public void Push(long move) {
+    if (mSize == mMove.length) {
+      mMove = Arrays.copyOf(mMove, mSize * 2);
+    }
+    if (mSize < mKept) {
+      mChangedFrom = Math.min(mChangedFrom, mSize);
+    }
+    mMove[mSize++] = move;
+    mKept = mSize;
+    if (mListener != null) {
+      mListener.MovePushed(move);
+    }
+  }
+
+  public void Push(Move move) {
+    Push(move.Pack());
+  }
+
+  public void Push(int from, int to, int count, boolean invert, boolean unhide) {
+    Push(Move.Pack(from, to, to, count, Move.Flags(invert, unhide, false)));
+  }
+
+  public void Push(int from, int to, int count, boolean invert, boolean unhide,
+                   boolean addDealCount) {
+    Push(Move.Pack(from, to, to, count, Move.Flags(invert, unhide, addDealCount)));
+  }
+
+  public void Push(int from, int toBegin, int toEnd, int count, boolean invert,
+                   boolean unhide) {
+    Push(Move.Pack(from, toBegin, toEnd, count, Move.Flags(invert, unhide, false)));
+  }
+
+  // Take the top move off, it is kept for Redo().
+  public long Pop() {
+    if (mSize == 0) {
+      throw new ArrayIndexOutOfBoundsException(-1);
+    }
+    long ret = mMove[--mSize];
+    if (mListener != null) {
+      mListener.MovePopped();
+    }
+    return ret;
+  }
+
+  // Put the last popped move back on top and return it.
+  public long Redo() {
+    if (mSize == mKept) {
+      throw new ArrayIndexOutOfBoundsException(mSize);
+    }
+    long ret = mMove[mSize++];
+    if (mListener != null) {
+      mListener.MovePushed(ret);
+    }
+    return ret;
+  }
+
+  // Drop every move, done or undone. Listeners are not told.
+  public void Clear() {
+    mSize = 0;
+    mKept = 0;
+    mChangedFrom = -1;
+  }
+
+  /**
+   * Lowest index where a kept move was replaced by a new one since the last
+   * call, -1 after Clear() and Integer.MAX_VALUE if nothing changed. Boards
+   * saved for more moves than that are out of date.
+   */
+  public int TakeChangedFrom() {
+    int ret = mChangedFrom;
+    mChangedFrom = Integer.MAX_VALUE;
+    return ret;
+  }
+
+  public Iterator GetIterator(int start) {
+    return new Iterator(start);
+  }
+
+  /**
+   * Walks the moves oldest first from a start index, including the undone
+   * ones, without boxing them.
+   */
+  public class Iterator {
+    private int mIdx;
+
+    Iterator(int start) {
+      mIdx = start;
+    }
+
+    public boolean HasNext() { return mIdx < mKept; }
+    public long Next() { return Get(mIdx++); }
+    public int GetIndex() { return mIdx; }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write ahead journal of the moves of a game, so a game survives the
+ * process being killed before the save in onStop.
+ *
+ * The journal goes with a {@link SaveFile} snapshot and starts with the CRC
+ * of that snapshot, then holds a record per move pushed on or popped off
+ * the history. Recovery loads the snapshot and replays the journal onto it
+ * when the CRCs match. Every SNAPSHOT_INTERVAL records the caller writes a
+ * new snapshot, which starts an empty journal.
+ *
+ * Records are collected in memory and written in batches on a background
+ * thread, at most FLUSH_DELAY ms after the move. They are not synced, a
+ * killed process loses nothing the kernel already has.
+ */
+public class MoveJournal implements MoveHistory.Listener {
+
+  public static final int SNAPSHOT_INTERVAL = 128;
+  public static final long FLUSH_DELAY = 100;
+
+  private static final int MAGIC = 0x534f4c4a;  // "SOLJ"
+  private static final int RECORD_PUSH = 1;
+  private static final int RECORD_POP = 2;
+
+  private final File mSnapshotFile;
+  private final File mJournalFile;
+  private final SaveFile mSaveFile;
+  private final ScheduledExecutorService mWriter;
+  private final Runnable mFlush;
+  private int mRecordCount;
+
+  // Guarded by this.
+  private boolean mRunning;
+  private byte[] mPending;
+  private int mPendingLength;
+  private boolean mFlushScheduled;
+
+  // Only used on the writer thread.
+  private FileOutputStream mOut;
+
+  public MoveJournal(File snapshotFile, File journalFile) {
+    mSnapshotFile = snapshotFile;
+    mJournalFile = journalFile;
+    mSaveFile = new SaveFile();
+    mPending = new byte[256];
+    mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread ret = new Thread(runnable, "MoveJournal");
+        ret.setDaemon(true);
+        return ret;
+      }
+    });
+    mFlush = new Runnable() {
+      public void run() {
+        WritePending();
+      }
+    };
+  }
+
+  public boolean NeedsSnapshot() { return mRecordCount >= SNAPSHOT_INTERVAL; }
+
+  /**
+   * Start journaling from the game as it is now. The snapshot is encoded
+   * right away and written on the background thread, records pending from
+   * before are part of it and dropped.
+   */
+  public void Snapshot(Rules rules, MoveHistory history, int elapsed) {
+    int length = mSaveFile.Encode(rules, history, elapsed);
+    final byte[] data = Arrays.copyOf(mSaveFile.GetBuffer(), length);
+    final int crc = mSaveFile.GetCrc();
+    synchronized (this) {
+      mRunning = true;
+      mPendingLength = 0;
+    }
+    mRecordCount = 0;
+    mWriter.execute(new Runnable() {
+      public void run() {
+        WriteSnapshot(data, crc);
+      }
+    });
+  }
+
+  // Stop journaling, for a game that is over. The journal is deleted.
+  public void Stop() {
+    synchronized (this) {
+      mRunning = false;
+      mPendingLength = 0;
+    }
+    mWriter.execute(new Runnable() {
+      public void run() {
+        CloseJournal();
+        mJournalFile.delete();
+      }
+    });
+  }
+
+  // Write what is pending now and wait until it is written.
+  public void Flush() {
+    try {
+      mWriter.submit(new Callable<Void>() {
+        public Void call() {
+          WritePending();
+          return null;
+        }
+      }).get();
+    } catch (InterruptedException e) {
+    } catch (ExecutionException e) {
+    }
+  }
+
+  public void MovePushed(long move) {
+    synchronized (this) {
+      if (!mRunning) {
+        return;
+      }
+      Reserve(26);
+      mPending[mPendingLength++] = RECORD_PUSH;
+      PutVarint(Move.From(move));
+      PutVarint(Move.ToBegin(move));
+      PutVarint(Move.ToEnd(move));
+      PutVarint(Move.Count(move));
+      PutVarint(Move.Flags(move));
+      ScheduleFlush();
+    }
+    mRecordCount++;
+  }
+
+  public void MovePopped() {
+    synchronized (this) {
+      if (!mRunning) {
+        return;
+      }
+      Reserve(1);
+      mPending[mPendingLength++] = RECORD_POP;
+      ScheduleFlush();
+    }
+    mRecordCount++;
+  }
+
+  /**
+   * Play the journal of the snapshot with CRC snapshotCrc onto rules, which
+   * were just restored from that snapshot. A journal of another snapshot is
+   * ignored, a record cut short ends the replay. Journaling stays stopped
+   * until the next Snapshot().
+   *
+   * @return the number of records replayed.
+   */
+  public int Replay(Rules rules, int snapshotCrc) {
+    synchronized (this) {
+      mRunning = false;
+      mPendingLength = 0;
+    }
+    Flush();
+    int ret = 0;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+      if (in.readInt() != MAGIC || in.readInt() != snapshotCrc) {
+        return 0;
+      }
+      int tag;
+      while ((tag = in.read()) != -1) {
+        if (tag == RECORD_PUSH) {
+          rules.Redo(Move.Pack(GetVarint(in), GetVarint(in), GetVarint(in), GetVarint(in),
+                               GetVarint(in)));
+        } else if (tag == RECORD_POP) {
+          rules.UndoMove();
+        } else {
+          break;
+        }
+        ret++;
+      }
+    } catch (EOFException e) {
+    } catch (IOException e) {
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+    return ret;
+  }
+
+  // ==========================================================================
+  // Writer thread
+  // -------------
+  private void WriteSnapshot(byte[] data, int crc) {
+    CloseJournal();
+    try {
+      SaveFile.WriteFile(mSnapshotFile, data, data.length);
+      byte[] header = new byte[8];
+      PutInt(header, 0, MAGIC);
+      PutInt(header, 4, crc);
+      SaveFile.WriteFile(mJournalFile, header, header.length);
+      mOut = new FileOutputStream(mJournalFile, true);
+    } catch (IOException e) {
+      // Leave the journal closed, the records are dropped until the next
+      // snapshot manages to write.
+    }
+  }
+
+  private void WritePending() {
+    byte[] data;
+    synchronized (this) {
+      mFlushScheduled = false;
+      if (mPendingLength == 0) {
+        return;
+      }
+      data = Arrays.copyOf(mPending, mPendingLength);
+      mPendingLength = 0;
+    }
+    if (mOut != null) {
+      try {
+        mOut.write(data);
+      } catch (IOException e) {
+        CloseJournal();
+      }
+    }
+  }
+
+  private void CloseJournal() {
+    if (mOut != null) {
+      try {
+        mOut.close();
+      } catch (IOException e) {
+      }
+      mOut = null;
+    }
+  }
+
+  // ==========================================================================
+  // Encoding
+  // --------
+  // Called with the lock held.
+  private void ScheduleFlush() {
+    if (!mFlushScheduled) {
+      mFlushScheduled = true;
+      mWriter.schedule(mFlush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void Reserve(int size) {
+    if (mPendingLength + size > mPending.length) {
+      mPending = Arrays.copyOf(mPending, Math.max(mPendingLength + size, mPending.length * 2));
+    }
+  }
+
+  private void PutVarint(int value) {
+    while ((value & ~0x7f) != 0) {
+      mPending[mPendingLength++] = (byte)((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    mPending[mPendingLength++] = (byte)value;
+  }
+
+  private static void PutInt(byte[] data, int pos, int value) {
+    data[pos] = (byte)(value >>> 24);
+    data[pos + 1] = (byte)(value >>> 16);
+    data[pos + 2] = (byte)(value >>> 8);
+    data[pos + 3] = (byte)value;
+  }
+
+  private static int GetVarint(DataInputStream in) throws IOException {
+    int ret = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      ret |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return ret;
+      }
+    }
+    throw new IOException("Varint too long");
+  }
+}
@@ -52,12 +52,16 @@ public class Options {
     ((RadioButton)solitaire.findViewById(R.id.deal_1)).setChecked(!dealThree);
     ((RadioButton)solitaire.findViewById(R.id.style_normal)).setChecked(styleNormal);
     ((RadioButton)solitaire.findViewById(R.id.style_vegas)).setChecked(!styleNormal);
+    final boolean winnableOnly = solitaire.GetSettings().getBoolean("SolitaireWinnableOnly", false);
+    ((CheckBox)solitaire.findViewById(R.id.winnable_only)).setChecked(winnableOnly);
 
     // Spider stuff
     final int suits = solitaire.GetSettings().getInt("SpiderSuits", 4);
     ((RadioButton)solitaire.findViewById(R.id.suits_4)).setChecked(suits == 4);
     ((RadioButton)solitaire.findViewById(R.id.suits_2)).setChecked(suits == 2);
     ((RadioButton)solitaire.findViewById(R.id.suits_1)).setChecked(suits == 1);
+    final boolean spiderWinnableOnly = solitaire.GetSettings().getBoolean("SpiderWinnableOnly", false);
+    ((CheckBox)solitaire.findViewById(R.id.spider_winnable_only)).setChecked(spiderWinnableOnly);
 
     // Automove 
     final int autoMove = solitaire.GetSettings().getInt("AutoMoveLevel", Rules.AUTO_MOVE_ALWAYS);
@@ -99,6 +103,14 @@ public class Options {
           }
         }
 
+        if (winnableOnly != ((CheckBox)solitaire.findViewById(R.id.winnable_only)).isChecked()) {
+          editor.putBoolean("SolitaireWinnableOnly", !winnableOnly);
+          commit = true;
+          if (type == Rules.SOLITAIRE) {
+            newGame = true;
+          }
+        }
+
         int newSuits = 1;
         if (((RadioButton)solitaire.findViewById(R.id.suits_4)).isChecked()) {
           newSuits = 4;
@@ -114,6 +126,14 @@ public class Options {
           }
         }
 
+        if (spiderWinnableOnly != ((CheckBox)solitaire.findViewById(R.id.spider_winnable_only)).isChecked()) {
+          editor.putBoolean("SpiderWinnableOnly", !spiderWinnableOnly);
+          commit = true;
+          if (type == Rules.SPIDER) {
+            newGame = true;
+          }
+        }
+
         int newAutoMove = Rules.AUTO_MOVE_NEVER;
         if (((RadioButton)solitaire.findViewById(R.id.auto_move_always)).isChecked()) {
           newAutoMove = Rules.AUTO_MOVE_ALWAYS;
@@ -15,11 +15,12 @@
 */ 
 package com.kmagic.solitaire;
 
-import android.util.Log;
-import java.util.Stack;
 
 public class Replay implements Runnable {
-  private Stack<Move> mMoveStack;
+  private MoveHistory mHistory;
+  private MoveHistory.Iterator mMove;
+  private long mCurrent;
+  private int mTarget;
   private SolitaireView mView;
   private AnimateCard mAnimateCard;
   private CardAnchor[] mCardAnchor;
@@ -36,61 +37,62 @@ public class Replay implements Runnable {
     mView = view;
     mAnimateCard = animateCard;
     mIsPlaying = false;
-    mMoveStack = new Stack<Move>();
     mSinkCard = new Card[104];
   }
 
   public boolean IsPlaying() { return mIsPlaying; }
   public void StopPlaying() { mIsPlaying = false; }
 
-  public void StartReplay(Stack<Move> history, CardAnchor[] anchor) {
+  // Take the game back to the deal and play the moves of history again,
+  // redoing each one in the history once its cards have landed.
+  public void StartReplay(MoveHistory history, CardAnchor[] anchor) {
     mCardAnchor = anchor;
-    mMoveStack.clear();
-    while (!history.empty()) {
-      Move move = history.peek();
-      if (move.GetToBegin() != move.GetToEnd()) {
-        for (int i = move.GetToEnd(); i >= move.GetToBegin(); i--) {
-          mMoveStack.push(new Move(move.GetFrom(), i, 1, false, false));
-        }
-      } else {
-        mMoveStack.push(move);
-      }
-      mView.Undo();
-    }
+    mView.JumpToMove(0);
+    mHistory = history;
+    mMove = history.GetIterator(0);
+    mTarget = -1;
     mView.DrawBoard();
     mIsPlaying = true;
     PlayNext();
   }
 
   public void PlayNext() {
-    if (!mIsPlaying || mMoveStack.empty()) {
-      mIsPlaying = false;
+    if (mTarget > Move.ToEnd(mCurrent) || mTarget == -1) {
+      if (mTarget != -1) {
+        // The anchors caught up with this move.
+        mHistory.Redo();
+        mTarget = -1;
+      }
+      if (mIsPlaying && mMove.HasNext()) {
+        mCurrent = mMove.Next();
+        mTarget = Move.ToBegin(mCurrent);
+      } else {
+        mIsPlaying = false;
+      }
+    }
+    if (!mIsPlaying) {
       mView.StopAnimating();
       return;
     }
-    Move move = mMoveStack.pop();
 
-    if (move.GetToBegin() == move.GetToEnd()) {
-      mSinkCount = move.GetCount();
-      mEventCount = 0;
-      mSinkAnchor = mCardAnchor[move.GetToBegin()];
-      mSinkUnhide = move.GetUnhide();
-      mSinkFrom = mCardAnchor[move.GetFrom()];
+    // A move to several anchors, a Spider deal, is played an anchor at a time.
+    boolean single = Move.ToBegin(mCurrent) == Move.ToEnd(mCurrent);
+    mSinkCount = Move.Count(mCurrent);
+    mEventCount = 0;
+    mSinkAnchor = mCardAnchor[mTarget++];
+    mSinkUnhide = single && Move.Unhide(mCurrent);
+    mSinkFrom = mCardAnchor[Move.From(mCurrent)];
 
-      if (move.GetInvert()) {
-        for (int i = 0; i < mSinkCount; i++) {
-          mSinkCard[i] = mSinkFrom.PopCard();
-        }
-      } else {
-        for (int i = mSinkCount-1; i >= 0; i--) {
-          mSinkCard[i] = mSinkFrom.PopCard();
-        }
+    if (single && Move.Invert(mCurrent)) {
+      for (int i = 0; i < mSinkCount; i++) {
+        mSinkCard[i] = mSinkFrom.PopCard();
       }
-      mAnimateCard.MoveCards(mSinkCard, mSinkAnchor, mSinkCount, this);
     } else {
-      Log.e("Replay.java", "Invalid move encountered, aborting.");
-      mIsPlaying = false;
+      for (int i = mSinkCount-1; i >= 0; i--) {
+        mSinkCard[i] = mSinkFrom.PopCard();
+      }
     }
+    mAnimateCard.MoveCards(mSinkCard, mSinkAnchor, mSinkCount, this);
   }
 
   public void run() {
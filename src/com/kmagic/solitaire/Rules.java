@@ -15,9 +15,7 @@
 */ 
 package com.kmagic.solitaire;
 
-import java.util.Stack;
-
-import android.os.Bundle;
+import java.util.Arrays;
 
 import com.kmagic.solitaire.Card.SuiteEnum;
 import com.kmagic.solitaire.Card.ValueEnum;
@@ -35,18 +33,40 @@ public abstract class Rules {
   public static final int EVENT_STACK_ADD = 2;
   public static final int EVENT_FLING = 3;
   public static final int EVENT_SMART_MOVE = 4;
-  public static final int EVENT_DEAL_NEXT = 5;
 
   public static final int AUTO_MOVE_ALWAYS = 2;
   public static final int AUTO_MOVE_FLING_ONLY = 1;
   public static final int AUTO_MOVE_NEVER = 0;
 
+  // A hint has about one frame to look ahead.
+  public static final long HINT_TIME = 16;
+  private static final int HINT_DEPTH = 4;
+
   private int mType;
-  protected SolitaireView mView;
-  protected Stack<Move> mMoveHistory;
-  protected AnimateCard mAnimateCard; 
+  protected GameListener mListener;
+  protected GameSettings mSettings;
+  protected MoveHistory mMoveHistory;
   protected boolean mIgnoreEvents;
   protected EventPoster mEventPoster;
+  private final Card[] mUndoStorage = new Card[CardAnchor.MAX_CARDS];
+  private final Card[] mRestoreStorage = new Card[CardAnchor.MAX_CARDS];
+  private final int[] mRestoreStart = new int[Board.RANK_COUNT * 4 + 1];
+
+  // Hint search: the moves of every ply in one array, packed as from,
+  // to<<8 and count<<16.
+  private int[] mHintMove = new int[64];
+  private int mHintMoveCount;
+  private long mHintDeadline;
+  private int mHintNodesLeft;
+  private boolean mHintTimeUp;
+
+  // Auto-complete: history size the board was last looked at for, and the
+  // plan of single card moves to the foundations.
+  private int mAutoCompleteSize;
+  private int[] mAutoLeft;
+  private Card[] mAutoTop;
+  private int[] mAutoFrom = new int[CardAnchor.MAX_CARDS];
+  private int[] mAutoTo = new int[CardAnchor.MAX_CARDS];
 
 
   // Anchors
@@ -54,6 +74,7 @@ public abstract class Rules {
   protected int mCardAnchorCount;
 
   protected Deck mDeck;
+  protected long mSeed;
   protected int mCardCount;
 
   // Automove
@@ -62,11 +83,16 @@ public abstract class Rules {
 
   public int GetType() { return mType; }
   public int GetCardCount() { return mCardCount; }
+  // Suits in the deck, the first of SuiteEnum. Each card of them comes
+  // GetCardCount() / (13 * suits) times.
+  public int GetSuitCount() { return 4; }
+  public long GetSeed() { return mSeed; }
   public CardAnchor[] GetAnchorArray() { return mCardAnchor; }
   public void SetType(int type) { mType = type; }
-  public void SetView(SolitaireView view) { mView = view; }
-  public void SetMoveHistory(Stack<Move> moveHistory) { mMoveHistory = moveHistory; }
-  public void SetAnimateCard(AnimateCard animateCard) { mAnimateCard = animateCard; }
+  public void SetSeed(long seed) { mSeed = seed; }
+  public void SetListener(GameListener listener) { mListener = listener; }
+  public void SetSettings(GameSettings settings) { mSettings = settings; }
+  public void SetMoveHistory(MoveHistory moveHistory) { mMoveHistory = moveHistory; }
   public void SetIgnoreEvents(boolean ignore) { mIgnoreEvents = ignore; }
   public void SetEventPoster(EventPoster ep) { mEventPoster = ep; }
   public boolean GetIgnoreEvents() { return mIgnoreEvents; }
@@ -76,36 +102,546 @@ public abstract class Rules {
   public boolean HasScore() { return false; }
   public boolean HasString() { return false; }
   public String GetString() { return ""; }
+  // Whether EVENT_DEAL does anything, false hides the Deal button.
+  public boolean HasDeal() { return true; }
   public void SetCarryOverScore(int score) {}
   public int GetScore() { return 0; }
   public void AddDealCount() {}
+  public void SubtractDealCount() {}
+  public void SetRulesExtra(int extra) {}
 
   public int CountFreeSpaces() { return 0; }
-  protected void SignalWin() { mView.DisplayWin(); }
+  protected void SignalWin() { mListener.DisplayWin(); }
 
-  abstract public void Init(Bundle map);
-  public void EventAlert(int event) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event); mView.Refresh(); } }
-  public void EventAlert(int event, CardAnchor anchor) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event, anchor);  mView.Refresh();} }
-  public void EventAlert(int event, CardAnchor anchor, Card card) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event, anchor, card);  mView.Refresh();} }
+  abstract public void Init(GameState state);
+  public void EventAlert(int event) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event); mListener.Refresh(); } }
+  public void EventAlert(int event, CardAnchor anchor) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event, anchor);  mListener.Refresh();} }
+  public void EventAlert(int event, CardAnchor anchor, Card card) { if (!mIgnoreEvents) { mEventPoster.PostEvent(event, anchor, card);  mListener.Refresh();} }
   public void ClearEvent() { mEventPoster.ClearEvent(); }
   abstract public void EventProcess(int event, CardAnchor anchor);
   abstract public void EventProcess(int event, CardAnchor anchor, Card card);
   abstract public void EventProcess(int event);
   abstract public void Resize(int width, int height);
   public boolean Fling(MoveCard moveCard) { moveCard.Release(); return false; }
-  public void HandleEvents() { 
+  public void HandleEvents() { HandleEvents(0); }
+
+  // Handle posted events, and the ones they post in turn, until none are left
+  // or budgetMs is spent; 0 means no limit. Returns true when events are
+  // left over for the next frame.
+  public boolean HandleEvents(int budgetMs) {
+    long end = System.nanoTime() + budgetMs * 1000000L;
     while (!mIgnoreEvents && mEventPoster.HasEvent()) {
       mEventPoster.HandleEvent();
+      if (budgetMs > 0 && System.nanoTime() - end >= 0) {
+        break;
+      }
+    }
+    if (mIgnoreEvents) {
+      return false;
+    }
+    if (!mEventPoster.HasEvent()) {
+      CheckAutoComplete();
+    }
+    return mEventPoster.HasEvent();
+  }
+
+  // ==========================================================================
+  // Auto-complete
+  // -------------
+  // Games whose boards, once every card is face up and the stock is empty,
+  // are played out to the foundations in one step.
+  protected boolean HasAutoComplete() { return false; }
+
+  // Look at the board once after each new move, not after an undo or redo,
+  // so undoing an auto-complete leaves the board be.
+  private void CheckAutoComplete() {
+    if (!HasAutoComplete() || mMoveHistory == null) {
+      return;
+    }
+    int size = mMoveHistory.Size();
+    if (size < mAutoCompleteSize) {
+      mAutoCompleteSize = size;
+    }
+    if (size == mAutoCompleteSize || mMoveHistory.CanRedo()) {
+      return;
+    }
+    int total = 0;
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      total += mCardAnchor[i].GetCount();
+    }
+    if (total != mCardCount) {
+      // Cards are in the air or in hand, wait until they are down.
+      return;
+    }
+    mAutoCompleteSize = size;
+    AutoComplete();
+    mAutoCompleteSize = mMoveHistory.Size();
+  }
+
+  // Plan the whole run to the foundations by sinking whichever top card
+  // can go, and play it as one step if it clears the board. A plan that
+  // gets stuck, a FreeCell pile out of order say, leaves the board alone.
+  private boolean AutoComplete() {
+    if (mAutoLeft == null || mAutoLeft.length != mCardAnchorCount) {
+      mAutoLeft = new int[mCardAnchorCount];
+      mAutoTop = new Card[mCardAnchorCount];
+    }
+    int left = 0;
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      CardAnchor anchor = mCardAnchor[i];
+      int count = anchor.GetCount();
+      if (IsFoundation(anchor)) {
+        mAutoLeft[i] = 0;
+        mAutoTop[i] = count > 0 ? anchor.GetCards()[count - 1] : null;
+      } else {
+        if (count > 0 && (anchor instanceof DealFrom || anchor.GetHiddenCount() > 0)) {
+          return false;
+        }
+        mAutoLeft[i] = count;
+        left += count;
+      }
+    }
+    if (left == 0) {
+      return false;
+    }
+
+    int planned = 0;
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (int i = 0; i < mCardAnchorCount; i++) {
+        if (mAutoLeft[i] == 0) {
+          continue;
+        }
+        Card card = mCardAnchor[i].GetCards()[mAutoLeft[i] - 1];
+        for (int j = 0; j < mCardAnchorCount; j++) {
+          if (!IsFoundation(mCardAnchor[j])) {
+            continue;
+          }
+          Card top = mAutoTop[j];
+          if ((top == null && card.getValue() == ValueEnum.ACE) ||
+              (top != null && card.getSuit() == top.getSuit() &&
+               card.getValue().isPrevious(top.getValue()))) {
+            mAutoFrom[planned] = i;
+            mAutoTo[planned++] = j;
+            mAutoTop[j] = card;
+            mAutoLeft[i]--;
+            progress = true;
+            break;
+          }
+        }
+      }
+    }
+    if (planned != left) {
+      return false;
+    }
+
+    Card[] card = new Card[planned];
+    CardAnchor[] to = new CardAnchor[planned];
+    for (int i = 0; i < planned; i++) {
+      card[i] = mCardAnchor[mAutoFrom[i]].PopCard();
+      to[i] = mCardAnchor[mAutoTo[i]];
+      long move = Move.Pack(mAutoFrom[i], mAutoTo[i], mAutoTo[i], 1, 0);
+      mMoveHistory.Push(i == 0 ? move : Move.Join(move));
+    }
+    mListener.AnimateDeal(card, to, planned);
+    return true;
+  }
+
+  // Find where the held cards go when released, exact hits before near ones.
+  public CardAnchor GetDropAnchor(MoveCard moveCard) {
+    CardAnchor prevAnchor = moveCard.GetAnchor();
+    for (int close = 0; close < 2; close++) {
+      for (int i = 0; i < mCardAnchor.length; i++) {
+        if (mCardAnchor[i] != prevAnchor && mCardAnchor[i].CanDropCard(moveCard, close)) {
+          return mCardAnchor[i];
+        }
+      }
+    }
+    return null;
+  }
+
+  public Move GetHint() { return GetHint(HINT_TIME, HINT_DEPTH); }
+  public Move GetHint(long timeLimitMillis) { return GetHint(timeLimitMillis, HINT_DEPTH); }
+
+  /**
+   * The move that leads to the best position a few moves on, looking
+   * deeper while there is time, up to maxDepth moves. Moves are tried on the anchors and taken
+   * back, nothing is copied. If no move helps the hint is to deal, or to
+   * turn the waste over when the deck is empty, a move from and to the
+   * deck.
+   *
+   * @return the move, null if there is nothing to suggest.
+   */
+  public Move GetHint(long timeLimitMillis, int maxDepth) {
+    return SearchHint(System.nanoTime() + timeLimitMillis * 1000000, Integer.MAX_VALUE,
+                      maxDepth);
+  }
+
+  // Same as GetHint() but stopped after nodeLimit positions instead of a
+  // time, so the hint does not depend on the machine.
+  public Move GetHintByNodes(int nodeLimit, int maxDepth) {
+    return SearchHint(Long.MAX_VALUE, nodeLimit, maxDepth);
+  }
+
+  private Move SearchHint(long deadline, int nodeLimit, int maxDepth) {
+    boolean oldIgnore = mIgnoreEvents;
+    mIgnoreEvents = true;
+    mHintDeadline = deadline;
+    mHintNodesLeft = nodeLimit;
+    mHintMoveCount = 0;
+    int score = GetHintScore();
+    int best = -1;
+    for (int depth = 1; depth <= maxDepth; depth++) {
+      mHintTimeUp = false;
+      int move = HintSearchRoot(depth, score);
+      if (mHintTimeUp && depth > 1) {
+        break;
+      }
+      best = move;
+      if (mHintTimeUp) {
+        break;
+      }
+    }
+    mIgnoreEvents = oldIgnore;
+
+    if (best != -1) {
+      return new Move(best & 0xFF, (best >> 8) & 0xFF, best >>> 16, false, false);
+    }
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      if (mCardAnchor[i] instanceof DealFrom &&
+          (mCardAnchor[i].GetCount() > 0 || CanTurnOver())) {
+        return new Move(i, i, 0, false, false);
+      }
+    }
+    return null;
+  }
+
+  // True if dealing from the empty deck turns the waste over.
+  protected boolean CanTurnOver() { return false; }
+
+  // Higher is better: cards on the foundations, face up cards, longer
+  // runs that move as one and empty anchors.
+  protected int GetHintScore() {
+    int score = 0;
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      CardAnchor anchor = mCardAnchor[i];
+      if (IsFoundation(anchor)) {
+        score += anchor.GetCount() * 20;
+      } else if (!(anchor instanceof DealFrom) && !(anchor instanceof DealTo)) {
+        score -= anchor.GetHiddenCount() * 10;
+        if (anchor.GetCount() == 0) {
+          score += 5;
+        } else {
+          score += anchor.GetMovableCount() - 1;
+        }
+      }
+    }
+    return score;
+  }
+
+  // Anchors cards are won on.
+  protected boolean IsFoundation(CardAnchor anchor) {
+    return anchor instanceof SeqSink;
+  }
+
+  // Best first move that beats score, -1 if none does.
+  private int HintSearchRoot(int depth, int score) {
+    int best = -1;
+    int bestScore = score;
+    GenerateHintMoves(-1);
+    int end = mHintMoveCount;
+    for (int i = 0; i < end && !mHintTimeUp; i++) {
+      int move = mHintMove[i];
+      boolean unhide = HintDo(move);
+      int moveScore = HintSearch(depth - 1, move);
+      HintUndo(move, unhide);
+      if (moveScore > bestScore) {
+        bestScore = moveScore;
+        best = move;
+      }
+    }
+    mHintMoveCount = 0;
+    return best;
+  }
+
+  // Best score within depth more moves, each move costing one so the
+  // shortest way is taken.
+  private int HintSearch(int depth, int lastMove) {
+    int best = GetHintScore();
+    if (depth == 0) {
+      return best;
+    }
+    int start = mHintMoveCount;
+    GenerateHintMoves(lastMove);
+    int end = mHintMoveCount;
+    for (int i = start; i < end && !mHintTimeUp; i++) {
+      if (--mHintNodesLeft < 0 || System.nanoTime() > mHintDeadline) {
+        mHintTimeUp = true;
+        break;
+      }
+      int move = mHintMove[i];
+      boolean unhide = HintDo(move);
+      int score = HintSearch(depth - 1, move) - 1;
+      HintUndo(move, unhide);
+      if (score > best) {
+        best = score;
+      }
+    }
+    mHintMoveCount = start;
+    return best;
+  }
+
+  // Every move a player could drag, less the ones that only undo the last
+  // move or carry a whole pile to an empty anchor of the same kind.
+  private void GenerateHintMoves(int lastMove) {
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      CardAnchor from = mCardAnchor[i];
+      if (from instanceof DealFrom || IsFoundation(from)) {
+        continue;
+      }
+      Card[] card = from.GetCards();
+      int movable = from.GetMovableCount();
+      for (int count = 1; count <= movable; count++) {
+        Card top = card[from.GetCount() - count];
+        for (int j = 0; j < mCardAnchorCount; j++) {
+          CardAnchor to = mCardAnchor[j];
+          if (j == i || (j | (i << 8) | (count << 16)) == lastMove ||
+              (to.GetCount() == 0 && count == from.GetCount() &&
+               to.getClass() == from.getClass()) ||
+              !to.CanDropCards(top, count)) {
+            continue;
+          }
+          if (mHintMoveCount == mHintMove.length) {
+            mHintMove = Arrays.copyOf(mHintMove, mHintMoveCount * 2);
+          }
+          mHintMove[mHintMoveCount++] = i | (j << 8) | (count << 16);
+        }
+      }
+    }
+  }
+
+  // Returns true if a card was turned face up.
+  private boolean HintDo(int move) {
+    CardAnchor from = mCardAnchor[move & 0xFF];
+    CardAnchor to = mCardAnchor[(move >> 8) & 0xFF];
+    int count = move >>> 16;
+    Card[] storage = mUndoStorage;
+    for (int i = count - 1; i >= 0; i--) {
+      storage[i] = from.PopCard();
+    }
+    for (int i = 0; i < count; i++) {
+      to.AddCard(storage[i]);
+      storage[i] = null;
+    }
+    return from.UnhideTopCard();
+  }
+
+  private void HintUndo(int move, boolean unhide) {
+    CardAnchor from = mCardAnchor[move & 0xFF];
+    CardAnchor to = mCardAnchor[(move >> 8) & 0xFF];
+    int count = move >>> 16;
+    Card[] storage = mUndoStorage;
+    if (unhide) {
+      from.SetHiddenCount(from.GetHiddenCount() + 1);
+    }
+    for (int i = count - 1; i >= 0; i--) {
+      storage[i] = to.PopCard();
+    }
+    for (int i = 0; i < count; i++) {
+      from.AddCard(storage[i]);
+      storage[i] = null;
     }
   }
 
   public void RefreshOptions() {
-    mAutoMoveLevel = mView.GetSettings().getInt("AutoMoveLevel", Rules.AUTO_MOVE_ALWAYS);
+    mAutoMoveLevel = mSettings.getInt("AutoMoveLevel", Rules.AUTO_MOVE_ALWAYS);
     mWasFling = false;
   }
 
-  public static Rules CreateRules(int type, Bundle map, SolitaireView view,
-                                  Stack<Move> moveHistory, AnimateCard animate) {
+  // Put the cards of a saved game back on the anchors.
+  protected void RestoreAnchors(GameState state) {
+    int[] cardCount = state.GetAnchorCardCount();
+    int[] hiddenCount = state.GetAnchorHiddenCount();
+    int[] value = state.GetValue();
+    int[] suit = state.GetSuit();
+    int cardIdx = 0;
+
+    mSeed = state.GetSeed();
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
+        Card card = new Card(value[cardIdx], suit[cardIdx]);
+        mCardAnchor[i].AddCard(card);
+      }
+      mCardAnchor[i].SetHiddenCount(hiddenCount[i]);
+    }
+  }
+
+  // Lay the cards out as on board, a copy of this game at another point of
+  // its history. The Card objects already on the anchors are reused.
+  public void RestoreBoard(Board board, int rulesExtra) {
+    Card[] storage = mUndoStorage;
+    Card[] sorted = mRestoreStorage;
+    int[] start = mRestoreStart;
+    int count = 0;
+    boolean oldIgnore = mIgnoreEvents;
+    mIgnoreEvents = true;
+    Arrays.fill(start, 0);
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      while (mCardAnchor[i].GetCount() > 0) {
+        Card card = mCardAnchor[i].PopCard();
+        storage[count++] = card;
+        start[Board.Code(card) + 1]++;
+      }
+    }
+    // Bucket the cards by code so each one is found in constant time.
+    for (int i = 1; i < start.length; i++) {
+      start[i] += start[i - 1];
+    }
+    for (int i = 0; i < count; i++) {
+      sorted[start[Board.Code(storage[i])]++] = storage[i];
+      storage[i] = null;
+    }
+    for (int i = start.length - 1; i > 0; i--) {
+      start[i] = start[i - 1];
+    }
+    start[0] = 0;
+
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      for (int j = 0; j < board.GetCount(i); j++) {
+        int idx = start[board.GetCard(i, j)]++;
+        mCardAnchor[i].AddCard(sorted[idx]);
+        sorted[idx] = null;
+      }
+      mCardAnchor[i].SetHiddenCount(board.GetHiddenCount(i));
+    }
+    SetRulesExtra(rulesExtra);
+    mIgnoreEvents = oldIgnore;
+  }
+
+  // Undo the last step, every move joined to it included. Returns false if
+  // there is none.
+  public boolean Undo() {
+    if (mMoveHistory.IsEmpty()) {
+      return false;
+    }
+    long move;
+    do {
+      move = mMoveHistory.Peek();
+      UndoMove();
+    } while (Move.Joined(move) && !mMoveHistory.IsEmpty());
+    return true;
+  }
+
+  // Undo the last move alone, even if it is part of a step.
+  public boolean UndoMove() {
+    if (mMoveHistory.IsEmpty()) {
+      return false;
+    }
+    boolean oldIgnore = mIgnoreEvents;
+    mIgnoreEvents = true;
+
+    long move = mMoveHistory.Pop();
+    Card[] storage = mUndoStorage;
+    int count = 0;
+    int from = Move.From(move);
+    int moveCount = Move.Count(move);
+    for (int i = Move.ToBegin(move); i <= Move.ToEnd(move); i++) {
+      for (int j = 0; j < moveCount; j++) {
+        storage[count++] = mCardAnchor[i].PopCard();
+      }
+    }
+    if (Move.Unhide(move)) {
+      mCardAnchor[from].SetHiddenCount(mCardAnchor[from].GetHiddenCount() + 1);
+    }
+    if (Move.Invert(move)) {
+      for (int i = 0; i < count; i++) {
+        mCardAnchor[from].AddCard(storage[i]);
+      }
+    } else {
+      for (int i = count-1; i >= 0; i--) {
+        mCardAnchor[from].AddCard(storage[i]);
+      }
+    }
+    if (Move.AddDealCount(move)) {
+      AddDealCount();
+    }
+    mIgnoreEvents = oldIgnore;
+    return true;
+  }
+
+  // Play the last undone step again, returns false if there is none.
+  public boolean Redo() {
+    if (!RedoMove()) {
+      return false;
+    }
+    while (mMoveHistory.CanRedo() && Move.Joined(mMoveHistory.Get(mMoveHistory.Size()))) {
+      RedoMove();
+    }
+    return true;
+  }
+
+  // Play the last undone move alone, even if it is part of a step.
+  public boolean RedoMove() {
+    if (!mMoveHistory.CanRedo()) {
+      return false;
+    }
+    PlayMove(mMoveHistory.Redo());
+    return true;
+  }
+
+  // Play a packed move as it was recorded and push it on the history.
+  public void Redo(long move) {
+    PlayMove(move);
+    mMoveHistory.Push(move);
+  }
+
+  // The reverse of Undo(), the history is left alone.
+  private void PlayMove(long move) {
+    boolean oldIgnore = mIgnoreEvents;
+    mIgnoreEvents = true;
+
+    CardAnchor from = mCardAnchor[Move.From(move)];
+    Card[] storage = mUndoStorage;
+    int count = Move.Count(move);
+    boolean invert = Move.Invert(move);
+    int begin = invert ? Move.ToEnd(move) : Move.ToBegin(move);
+    int end = invert ? Move.ToBegin(move) : Move.ToEnd(move);
+    int step = begin <= end ? 1 : -1;
+    for (int i = begin; i != end + step; i += step) {
+      if (invert) {
+        for (int j = 0; j < count; j++) {
+          storage[j] = from.PopCard();
+        }
+      } else {
+        for (int j = count-1; j >= 0; j--) {
+          storage[j] = from.PopCard();
+        }
+      }
+      for (int j = 0; j < count; j++) {
+        mCardAnchor[i].AddCard(storage[j]);
+        storage[j] = null;
+      }
+    }
+    if (Move.Unhide(move)) {
+      from.SetHiddenCount(from.GetHiddenCount() - 1);
+    }
+    if (Move.AddDealCount(move)) {
+      SubtractDealCount();
+    }
+    mIgnoreEvents = oldIgnore;
+  }
+
+  public static Rules CreateRules(int type, GameState state, GameListener listener,
+                                  GameSettings settings, MoveHistory moveHistory) {
+    return CreateRules(type, state, listener, settings, moveHistory, Deck.NewSeed());
+  }
+
+  // A new game deals the cards in the order given by seed, a valid saved
+  // state keeps its own deal number.
+  public static Rules CreateRules(int type, GameState state, GameListener listener,
+                                  GameSettings settings, MoveHistory moveHistory,
+                                  long seed) {
     Rules ret = null;
     switch (type) {
       case SOLITAIRE:
@@ -120,16 +656,23 @@ public abstract class Rules {
       case FORTYTHIEVES:
         ret = new FortyThieves();
         break;
+      default:
+        GameDefinition def = GameDefinition.Get(type);
+        if (def != null) {
+          ret = new DefinedGame(def);
+        }
+        break;
     }
 
     if (ret != null) {
       ret.SetType(type);
-      ret.SetView(view);
+      ret.SetSeed(seed);
+      ret.SetListener(listener);
+      ret.SetSettings(settings);
       ret.SetMoveHistory(moveHistory);
-      ret.SetAnimateCard(animate);
       ret.SetEventPoster(new EventPoster(ret));
       ret.RefreshOptions();
-      ret.Init(map);
+      ret.Init(state);
     }
     return ret;
   }
@@ -144,9 +687,9 @@ class NormalSolitaire extends Rules {
   private int mCarryOverScore;
 
   @Override
-  public void Init(Bundle map) {
+  public void Init(GameState state) {
     mIgnoreEvents = true;
-    mDealThree = mView.GetSettings().getBoolean("SolitaireDealThree", true);
+    mDealThree = mSettings.getBoolean("SolitaireDealThree", true);
 
     // Thirteen total anchors for regular solitaire
     mCardCount = 52;
@@ -179,28 +722,16 @@ class NormalSolitaire extends Rules {
       mCardAnchor[i+6].SetDisplay(GenericAnchor.DISPLAY_MIX);
     }
 
-    if (map != null) {
+    if (state != null) {
       // Do some assertions, default to a new game if we find an invalid state
-      if (map.getInt("cardAnchorCount") == 13 &&
-          map.getInt("cardCount") == 52) {
-        int[] cardCount = map.getIntArray("anchorCardCount");
-        int[] hiddenCount = map.getIntArray("anchorHiddenCount");
-        int[] value = map.getIntArray("value");
-        int[] suit = map.getIntArray("suit");
-        int cardIdx = 0;
-        mDealsLeft = map.getInt("rulesExtra");
-
-        for (int i = 0; i < 13; i++) {
-          for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-            Card card = new Card(value[cardIdx], suit[cardIdx]);
-            mCardAnchor[i].AddCard(card);
-          }
-          mCardAnchor[i].SetHiddenCount(hiddenCount[i]);
-        }
+      if (state.GetCardAnchorCount() == 13 &&
+          state.GetCardCount() == 52) {
+        mDealsLeft = state.GetRulesExtra();
+        RestoreAnchors(state);
         if (mDealsLeft != -1) {
           // Reset to zero as GetScore() uses it in its calculation.
           mCarryOverScore = 0;
-          mCarryOverScore = map.getInt("score") - GetScore();
+          mCarryOverScore = state.GetScore() - GetScore();
         }
 
         mIgnoreEvents = false;
@@ -209,7 +740,7 @@ class NormalSolitaire extends Rules {
       }
     }
 
-    mDeck = new Deck(1);
+    mDeck = new Deck(1, 4, mSeed);
     for (int i = 0; i < 7; i++) {
       for (int j = 0; j <= i; j++) {
         mCardAnchor[i+6].AddCard(mDeck.PopCard());
@@ -221,7 +752,7 @@ class NormalSolitaire extends Rules {
       mCardAnchor[0].AddCard(mDeck.PopCard());
     }
 
-    if (mView.GetSettings().getBoolean("SolitaireStyleNormal", true)) {
+    if (mSettings.getBoolean("SolitaireStyleNormal", true)) {
       mDealsLeft = -1;
     } else {
       mDealsLeft = mDealThree ? 2 : 0;
@@ -285,8 +816,8 @@ class NormalSolitaire extends Rules {
           mCardAnchor[0].AddCard(mCardAnchor[1].PopCard());
           count++;
         }
-        mMoveHistory.push(new Move(1, 0, count, true, false, addDealCount));
-        mView.Refresh();
+        mMoveHistory.Push(1, 0, count, true, false, addDealCount);
+        mListener.Refresh();
       } else {
         int count = 0;
         int maxCount = mDealThree ? 3 : 1;
@@ -297,7 +828,7 @@ class NormalSolitaire extends Rules {
         if (mDealsLeft == 0 && mCardAnchor[0].GetCount() == 0) {
           mCardAnchor[0].SetDone(true);
         }
-        mMoveHistory.push(new Move(0, 1, count, true, false));
+        mMoveHistory.Push(0, 1, count, true, false);
       }
     } else if (event == EVENT_STACK_ADD) {
       if (mCardAnchor[2].GetCount() == 13 && mCardAnchor[3].GetCount() == 13 &&
@@ -308,7 +839,7 @@ class NormalSolitaire extends Rules {
             (mAutoMoveLevel == AUTO_MOVE_FLING_ONLY && mWasFling)) {
           EventAlert(EVENT_SMART_MOVE);
         } else {
-          mView.StopAnimating();
+          mListener.StopAnimating();
           mWasFling = false;
         }
       }
@@ -347,7 +878,7 @@ class NormalSolitaire extends Rules {
       }
       if (i == 7) {
         mWasFling = false;
-        mView.StopAnimating();
+        mListener.StopAnimating();
       }
     }
   }
@@ -382,8 +913,8 @@ class NormalSolitaire extends Rules {
   private boolean TryToSinkCard(CardAnchor anchor, Card card) {
     for (int i = 0; i < 4; i++) {
       if (mCardAnchor[i+2].DropSingleCard(card)) {
-        mMoveHistory.push(new Move(anchor.GetNumber(), i+2, 1, false, anchor.UnhideTopCard()));
-        mAnimateCard.MoveCard(card, mCardAnchor[i+2]);
+        mMoveHistory.Push(anchor.GetNumber(), i+2, 1, false, anchor.UnhideTopCard());
+        mListener.AnimateMove(card, mCardAnchor[i+2]);
         return true;
       }
     }
@@ -396,6 +927,14 @@ class NormalSolitaire extends Rules {
     return mDealsLeft;
   }
 
+  @Override
+  protected boolean CanTurnOver() {
+    return mDealsLeft != 0 && mCardAnchor[1].GetCount() > 0;
+  }
+
+  @Override
+  protected boolean HasAutoComplete() { return true; }
+
   @Override
   public String GetGameTypeString() {
     if (mDealsLeft == -1) {
@@ -480,13 +1019,24 @@ class NormalSolitaire extends Rules {
       mCardAnchor[0].SetDone(false);
     }
   }
+
+  @Override
+  public void SubtractDealCount() {
+    if (mDealsLeft > 0) {
+      mDealsLeft--;
+    }
+  }
+
+  @Override
+  public void SetRulesExtra(int extra) {
+    mDealsLeft = extra;
+    mCardAnchor[0].SetDone(mDealsLeft == 0 && mCardAnchor[0].GetCount() == 0);
+  }
 }
 
 class Spider extends Rules {
-  private boolean mStillDealing;
-  public void Init(Bundle map) {
+  public void Init(GameState state) {
     mIgnoreEvents = true;
-    mStillDealing = false;
 
     mCardCount = 104;
     mCardAnchorCount = 12;
@@ -508,23 +1058,11 @@ class Spider extends Rules {
     mCardAnchor[10] = CardAnchor.CreateAnchor(CardAnchor.DEAL_FROM, 10, this);
     mCardAnchor[11] = CardAnchor.CreateAnchor(CardAnchor.DEAL_TO, 11, this);
 
-    if (map != null) {
+    if (state != null) {
       // Do some assertions, default to a new game if we find an invalid state
-      if (map.getInt("cardAnchorCount") == 12 &&
-          map.getInt("cardCount") == 104) {
-        int[] cardCount = map.getIntArray("anchorCardCount");
-        int[] hiddenCount = map.getIntArray("anchorHiddenCount");
-        int[] value = map.getIntArray("value");
-        int[] suit = map.getIntArray("suit");
-        int cardIdx = 0;
-
-        for (int i = 0; i < mCardAnchorCount; i++) {
-          for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-            Card card = new Card(value[cardIdx], suit[cardIdx]);
-            mCardAnchor[i].AddCard(card);
-          }
-          mCardAnchor[i].SetHiddenCount(hiddenCount[i]);
-        }
+      if (state.GetCardAnchorCount() == 12 &&
+          state.GetCardCount() == 104) {
+        RestoreAnchors(state);
 
         mIgnoreEvents = false;
         // Return here so an invalid save state will result in a new game
@@ -532,8 +1070,8 @@ class Spider extends Rules {
       }
     }
 
-    int suits = mView.GetSettings().getInt("SpiderSuits", 4);
-    mDeck = new Deck(2, suits);
+    int suits = mSettings.getInt("SpiderSuits", 4);
+    mDeck = new Deck(2, suits, mSeed);
     int i = 54;
     while (i > 0) {
       for (int j = 0; j < 10 && i > 0; j++) {
@@ -598,7 +1136,7 @@ class Spider extends Rules {
             for (int j = 0; j < 13; j++) {
               mCardAnchor[11].AddCard(anchor.PopCard());
             }
-            mMoveHistory.push(new Move(anchor.GetNumber(), 11, 13, true, anchor.UnhideTopCard()));
+            mMoveHistory.Push(anchor.GetNumber(), 11, 13, true, anchor.UnhideTopCard());
 
             if (mCardAnchor[11].GetCount() == mCardCount) {
               SignalWin();
@@ -606,30 +1144,33 @@ class Spider extends Rules {
           }
         }
       }
-      if (mStillDealing) {
-        // Post another event if we aren't done yet.
-        EventAlert(EVENT_DEAL_NEXT, mCardAnchor[anchor.GetNumber()+1]);
-      }
     } else if (event == EVENT_DEAL) {
       if (mCardAnchor[10].GetCount() > 0) {
         int count = mCardAnchor[10].GetCount() > 10 ? 10 : mCardAnchor[10].GetCount();
-        mAnimateCard.MoveCard(mCardAnchor[10].PopCard(), mCardAnchor[0]);
-        mMoveHistory.push(new Move(10, 0, count-1, 1, false, false));
-        mStillDealing = true;
-      }
-    } else if (event == EVENT_DEAL_NEXT) {
-      if (mCardAnchor[10].GetCount() > 0 && anchor.GetNumber() < 10) {
-        mAnimateCard.MoveCard(mCardAnchor[10].PopCard(), anchor);
-      } else {
-        mView.StopAnimating();
-        mStillDealing = false;
+        Card[] card = new Card[count];
+        for (int i = 0; i < count; i++) {
+          card[i] = mCardAnchor[10].PopCard();
+        }
+        mMoveHistory.Push(10, 0, count-1, 1, false, false);
+        mListener.AnimateDeal(card, mCardAnchor, count);
       }
     }
   }
 
+  // Completed runs go to the out of play anchor.
+  @Override
+  protected boolean IsFoundation(CardAnchor anchor) {
+    return anchor.GetNumber() == 11;
+  }
+
+  @Override
+  public int GetSuitCount() {
+    return mSettings.getInt("SpiderSuits", 4);
+  }
+
   @Override
   public String GetGameTypeString() {
-    int suits = mView.GetSettings().getInt("SpiderSuits", 4);
+    int suits = mSettings.getInt("SpiderSuits", 4);
     if (suits == 1) {
       return "Spider1Suit";
     } else if (suits == 2) {
@@ -640,7 +1181,7 @@ class Spider extends Rules {
   }
   @Override
   public String GetPrettyGameTypeString() {
-    int suits = mView.GetSettings().getInt("SpiderSuits", 4);
+    int suits = mSettings.getInt("SpiderSuits", 4);
     if (suits == 1) {
       return "Spider One Suit";
     } else if (suits == 2) {
@@ -668,7 +1209,7 @@ class Spider extends Rules {
 
 class Freecell extends Rules {
 
-  public void Init(Bundle map) {
+  public void Init(GameState state) {
     mIgnoreEvents = true;
 
     // Thirteen total anchors for regular solitaire
@@ -692,23 +1233,11 @@ class Freecell extends Rules {
                                                  this);
     }
 
-    if (map != null) {
+    if (state != null) {
       // Do some assertions, default to a new game if we find an invalid state
-      if (map.getInt("cardAnchorCount") == 16 &&
-          map.getInt("cardCount") == 52) {
-        int[] cardCount = map.getIntArray("anchorCardCount");
-        int[] hiddenCount = map.getIntArray("anchorHiddenCount");
-        int[] value = map.getIntArray("value");
-        int[] suit = map.getIntArray("suit");
-        int cardIdx = 0;
-
-        for (int i = 0; i < 16; i++) {
-          for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-            Card card = new Card(value[cardIdx], suit[cardIdx]);
-            mCardAnchor[i].AddCard(card);
-          }
-          mCardAnchor[i].SetHiddenCount(hiddenCount[i]);
-        }
+      if (state.GetCardAnchorCount() == 16 &&
+          state.GetCardCount() == 52) {
+        RestoreAnchors(state);
 
         mIgnoreEvents = false;
         // Return here so an invalid save state will result in a new game
@@ -716,7 +1245,7 @@ class Freecell extends Rules {
       }
     }
 
-    mDeck = new Deck(1);
+    mDeck = new Deck(1, 4, mSeed);
     while (!mDeck.Empty()) {
       for (int i = 0; i < 8 && !mDeck.Empty(); i++) {
         mCardAnchor[i+8].AddCard(mDeck.PopCard());
@@ -757,7 +1286,7 @@ class Freecell extends Rules {
               (mAutoMoveLevel == AUTO_MOVE_FLING_ONLY && mWasFling)) {
             EventAlert(EVENT_SMART_MOVE);
           } else {
-            mView.StopAnimating();
+            mListener.StopAnimating();
             mWasFling = false;
           }
         }
@@ -813,8 +1342,8 @@ class Freecell extends Rules {
   private boolean TryToSinkCard(CardAnchor anchor, Card card) {
     for (int i = 0; i < 4; i++) {
       if (mCardAnchor[i+4].DropSingleCard(card)) {
-        mAnimateCard.MoveCard(card, mCardAnchor[i+4]);
-        mMoveHistory.push(new Move(anchor.GetNumber(), i+4, 1, false, false));
+        mListener.AnimateMove(card, mCardAnchor[i+4]);
+        mMoveHistory.Push(anchor.GetNumber(), i+4, 1, false, false);
         return true;
       }
     }
@@ -841,7 +1370,7 @@ class Freecell extends Rules {
         }
       }
       mWasFling = false;
-      mView.StopAnimating();
+      mListener.StopAnimating();
     }
   }
 
@@ -861,6 +1390,9 @@ class Freecell extends Rules {
     return free;
   }
 
+  @Override
+  protected boolean HasAutoComplete() { return true; }
+
   @Override
   public String GetGameTypeString() {
     return "Freecell";
@@ -873,7 +1405,7 @@ class Freecell extends Rules {
 
 class FortyThieves extends Rules {
 
-  public void Init(Bundle map) {
+  public void Init(GameState state) {
     mIgnoreEvents = true;
 
     mCardCount = 104;
@@ -899,23 +1431,11 @@ class FortyThieves extends Rules {
     mCardAnchor[18] = CardAnchor.CreateAnchor(CardAnchor.DEAL_FROM, 18, this);
     mCardAnchor[19] = CardAnchor.CreateAnchor(CardAnchor.DEAL_TO, 19, this);
 
-    if (map != null) {
+    if (state != null) {
       // Do some assertions, default to a new game if we find an invalid state
-      if (map.getInt("cardAnchorCount") == 20 &&
-          map.getInt("cardCount") == 104) {
-        int[] cardCount = map.getIntArray("anchorCardCount");
-        int[] hiddenCount = map.getIntArray("anchorHiddenCount");
-        int[] value = map.getIntArray("value");
-        int[] suit = map.getIntArray("suit");
-        int cardIdx = 0;
-
-        for (int i = 0; i < 20; i++) {
-          for (int j = 0; j < cardCount[i]; j++, cardIdx++) {
-            Card card = new Card(value[cardIdx], suit[cardIdx]);
-            mCardAnchor[i].AddCard(card);
-          }
-          mCardAnchor[i].SetHiddenCount(hiddenCount[i]);
-        }
+      if (state.GetCardAnchorCount() == 20 &&
+          state.GetCardCount() == 104) {
+        RestoreAnchors(state);
 
         mIgnoreEvents = false;
         // Return here so an invalid save state will result in a new game
@@ -923,7 +1443,7 @@ class FortyThieves extends Rules {
       }
     }
 
-    mDeck = new Deck(2);
+    mDeck = new Deck(2, 4, mSeed);
     for (int i = 0; i < 10; i++) {
       for (int j = 0; j < 4; j++){
         mCardAnchor[i].AddCard(mDeck.PopCard());
@@ -1001,8 +1521,8 @@ class FortyThieves extends Rules {
   private boolean TryToSinkCard(CardAnchor anchor, Card card) {
     for (int i = 0; i < 8; i++) {
       if (mCardAnchor[i+10].DropSingleCard(card)) {
-        mAnimateCard.MoveCard(card, mCardAnchor[i+10]);
-        mMoveHistory.push(new Move(anchor.GetNumber(), i+10, 1, false, false));
+        mListener.AnimateMove(card, mCardAnchor[i+10]);
+        mMoveHistory.Push(anchor.GetNumber(), i+10, 1, false, false);
         return true;
       }
     }
@@ -1020,7 +1540,7 @@ class FortyThieves extends Rules {
         if (mCardAnchor[18].GetCount() == 0) {
           mCardAnchor[18].SetDone(true);
         }
-        mMoveHistory.push(new Move(18, 19, 1, true, false));
+        mMoveHistory.Push(18, 19, 1, true, false);
       }
     } else if (event == EVENT_STACK_ADD) {
       if (anchor.GetNumber() >= 10 && anchor.GetNumber() < 18) {
@@ -1034,7 +1554,7 @@ class FortyThieves extends Rules {
               (mAutoMoveLevel == AUTO_MOVE_FLING_ONLY && mWasFling)) {
             mEventPoster.PostEvent(EVENT_SMART_MOVE);
           } else {
-            mView.StopAnimating();
+            mListener.StopAnimating();
             mWasFling = false;
           }
         }
@@ -1055,7 +1575,7 @@ class FortyThieves extends Rules {
         }
       }
       mWasFling = false;
-      mView.StopAnimating();
+      mListener.StopAnimating();
     }
   }
 
@@ -1070,6 +1590,9 @@ class FortyThieves extends Rules {
     return free;
   }
 
+  @Override
+  protected boolean HasAutoComplete() { return true; }
+
   @Override
   public String GetGameTypeString() {
     return "Forty Thieves";
@@ -1096,17 +1619,308 @@ class FortyThieves extends Rules {
 }
 
 
+// A game read from a GameDefinition. The anchors are set up from the
+// compiled piles, the rules are the GenericAnchor ones.
+class DefinedGame extends Rules {
+
+  private final GameDefinition mDef;
+  private final int[] mFoundation;
+  private final int[] mTableau;
+  private final int mStock;
+  private final int mWaste;
+
+  public DefinedGame(GameDefinition def) {
+    mDef = def;
+    mFoundation = def.GetFoundations();
+    mTableau = def.GetTableaus();
+    mStock = def.GetStock();
+    mWaste = def.GetWaste();
+  }
+
+  public void Init(GameState state) {
+    mIgnoreEvents = true;
+
+    mCardCount = mDef.GetCardCount();
+    mCardAnchorCount = mDef.GetPileCount();
+    mCardAnchor = new CardAnchor[mCardAnchorCount];
+
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      GameDefinition.Pile pile = mDef.GetPile(i);
+      switch (pile.mKind) {
+        case GameDefinition.FOUNDATION:
+          mCardAnchor[i] = CardAnchor.CreateAnchor(CardAnchor.SEQ_SINK, i, this);
+          break;
+        case GameDefinition.STOCK:
+          mCardAnchor[i] = CardAnchor.CreateAnchor(CardAnchor.DEAL_FROM, i, this);
+          break;
+        case GameDefinition.WASTE:
+          mCardAnchor[i] = CardAnchor.CreateAnchor(CardAnchor.DEAL_TO, i, this);
+          mCardAnchor[i].SetShowing(mDef.GetDraw());
+          break;
+        case GameDefinition.CELL:
+          mCardAnchor[i] = CardAnchor.CreateAnchor(CardAnchor.FREECELL_HOLD, i, this);
+          break;
+        default:
+          mCardAnchor[i] = CardAnchor.CreateAnchor(CardAnchor.GENERIC_ANCHOR, i, this);
+          mCardAnchor[i].SetStartSeq(pile.mStart);
+          mCardAnchor[i].SetBuildSeq(pile.mBuild);
+          mCardAnchor[i].SetMoveSeq(pile.mMove);
+          mCardAnchor[i].SetBuildSuit(pile.mBuildSuit);
+          mCardAnchor[i].SetMoveSuit(pile.mMoveSuit);
+          mCardAnchor[i].SetWrap(pile.mWrap);
+          mCardAnchor[i].SetPickup(pile.mPickup);
+          mCardAnchor[i].SetDropoff(pile.mDrop);
+          mCardAnchor[i].SetDisplay(pile.mDisplay);
+          break;
+      }
+    }
+
+    if (state != null) {
+      // Do some assertions, default to a new game if we find an invalid state
+      if (state.GetCardAnchorCount() == mCardAnchorCount &&
+          state.GetCardCount() == mCardCount) {
+        RestoreAnchors(state);
+
+        mIgnoreEvents = false;
+        // Return here so an invalid save state will result in a new game
+        return;
+      }
+    }
+
+    // Deal a card to each pile in turn, as by hand.
+    mDeck = new Deck(mDef.GetDecks(), mDef.GetSuits(), mSeed);
+    int dealt = 0;
+    while (dealt < mDef.GetDealCount()) {
+      for (int i = 0; i < mCardAnchorCount; i++) {
+        if (mCardAnchor[i].GetCount() < mDef.GetPile(i).mDeal) {
+          mCardAnchor[i].AddCard(mDeck.PopCard());
+          dealt++;
+        }
+      }
+    }
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      if (mDef.GetPile(i).mHidden > 0) {
+        mCardAnchor[i].SetHiddenCount(mDef.GetPile(i).mHidden);
+      }
+    }
+    while (!mDeck.Empty()) {
+      mCardAnchor[mStock].AddCard(mDeck.PopCard());
+    }
+    mIgnoreEvents = false;
+  }
+
+  public void Resize(int width, int height) {
+    int columns = mDef.GetColumns();
+    int rem = (width - (Card.WIDTH * columns)) / columns;
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      GameDefinition.Pile pile = mDef.GetPile(i);
+      int y = 10 + pile.mRow * (Card.HEIGHT + 20);
+      mCardAnchor[i].SetMaxHeight(height - y);
+      mCardAnchor[i].SetPosition(rem/2 + pile.mColumn * (rem + Card.WIDTH), y);
+
+      // Setup edge cards (Touch sensor loses sensitivity towards the edge).
+      if (pile.mColumn == 0) {
+        mCardAnchor[i].SetLeftEdge(0);
+      }
+      if (pile.mColumn == columns - 1) {
+        mCardAnchor[i].SetRightEdge(width);
+      }
+      if (pile.mKind == GameDefinition.TABLEAU) {
+        mCardAnchor[i].SetBottom(height);
+      }
+    }
+  }
+
+  @Override
+  public boolean Fling(MoveCard moveCard) {
+    if (moveCard.GetCount() == 1) {
+      CardAnchor anchor = moveCard.GetAnchor();
+      Card card = moveCard.DumpCards(false)[0];
+      for (int i = 0; i < mFoundation.length; i++) {
+        if (mCardAnchor[mFoundation[i]].DropSingleCard(card)) {
+          mEventPoster.PostEvent(EVENT_FLING, anchor, card);
+          return true;
+        }
+      }
+      anchor.AddCard(card);
+    } else {
+      moveCard.Release();
+    }
+    return false;
+  }
+
+  @Override
+  public void EventProcess(int event, CardAnchor anchor, Card card) {
+    if (mIgnoreEvents) {
+      anchor.AddCard(card);
+      return;
+    }
+    if (event == EVENT_FLING) {
+      mWasFling = true;
+      if (!TryToSinkCard(anchor, card)) {
+        anchor.AddCard(card);
+        mWasFling = false;
+      }
+    } else {
+      anchor.AddCard(card);
+    }
+  }
+
+  private boolean TryToSink(CardAnchor anchor) {
+    Card card = anchor.PopCard();
+    boolean ret = TryToSinkCard(anchor, card);
+    if (!ret) {
+      anchor.AddCard(card);
+    }
+    return ret;
+  }
+
+  private boolean TryToSinkCard(CardAnchor anchor, Card card) {
+    for (int i = 0; i < mFoundation.length; i++) {
+      if (mCardAnchor[mFoundation[i]].DropSingleCard(card)) {
+        mListener.AnimateMove(card, mCardAnchor[mFoundation[i]]);
+        mMoveHistory.Push(anchor.GetNumber(), mFoundation[i], 1, false,
+                          anchor.UnhideTopCard());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void EventProcess(int event, CardAnchor anchor) {
+    if (mIgnoreEvents) {
+      return;
+    }
+    if (event == EVENT_DEAL) {
+      if (mStock == -1) {
+        return;
+      }
+      CardAnchor stock = mCardAnchor[mStock];
+      int count = Math.min(mDef.GetDraw(), stock.GetCount());
+      if (count > 0) {
+        for (int i = 0; i < count; i++) {
+          mCardAnchor[mWaste].AddCard(stock.PopCard());
+        }
+        if (stock.GetCount() == 0) {
+          stock.SetDone(true);
+        }
+        mMoveHistory.Push(mStock, mWaste, count, true, false);
+      }
+    } else if (event == EVENT_STACK_ADD) {
+      if (mDef.GetPile(anchor.GetNumber()).mKind == GameDefinition.FOUNDATION) {
+        int sunk = 0;
+        for (int i = 0; i < mFoundation.length; i++) {
+          sunk += mCardAnchor[mFoundation[i]].GetCount();
+        }
+        if (sunk == mCardCount) {
+          SignalWin();
+        } else {
+          if (mAutoMoveLevel == AUTO_MOVE_ALWAYS ||
+              (mAutoMoveLevel == AUTO_MOVE_FLING_ONLY && mWasFling)) {
+            EventAlert(EVENT_SMART_MOVE);
+          } else {
+            mListener.StopAnimating();
+            mWasFling = false;
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void EventProcess(int event) {
+    if (mIgnoreEvents == true) {
+      return;
+    }
+    if (event == EVENT_SMART_MOVE) {
+      for (int i = 0; i < mCardAnchorCount; i++) {
+        int kind = mDef.GetPile(i).mKind;
+        if (kind != GameDefinition.FOUNDATION && kind != GameDefinition.STOCK &&
+            mCardAnchor[i].GetVisibleCount() > 0 && TryToSink(mCardAnchor[i])) {
+          return;
+        }
+      }
+      mWasFling = false;
+      mListener.StopAnimating();
+    }
+  }
+
+  @Override
+  public int CountFreeSpaces() {
+    int free = 0;
+    for (int i = 0; i < mCardAnchorCount; i++) {
+      int kind = mDef.GetPile(i).mKind;
+      if ((kind == GameDefinition.TABLEAU || kind == GameDefinition.CELL) &&
+          mCardAnchor[i].GetCount() == 0) {
+        free++;
+      }
+    }
+    return free;
+  }
+
+  @Override
+  protected boolean HasAutoComplete() { return true; }
+
+  @Override
+  public int GetSuitCount() { return mDef.GetSuits(); }
+
+  @Override
+  public String GetGameTypeString() {
+    return mDef.GetName();
+  }
+  @Override
+  public String GetPrettyGameTypeString() {
+    return mDef.GetName();
+  }
+
+  @Override
+  public boolean HasString() {
+    return mStock != -1;
+  }
+
+  @Override
+  public boolean HasDeal() {
+    return mStock != -1;
+  }
+
+  @Override
+  public String GetString() {
+    int cardsLeft = mCardAnchor[mStock].GetCount();
+    if (cardsLeft == 1) {
+      return "1 card left";
+    }
+    return cardsLeft + " cards left";
+  }
+
+}
+
+
+// Events waiting for the rules, oldest first. The records live in a ring
+// that is filled and emptied in place; posting never drops an event, the ring
+// doubles in the rare case a cascade outgrows it.
 class EventPoster {
-  private int mEvent;
-  private CardAnchor mCardAnchor;
-  private Card mCard;
+  private static final int CAPACITY = 16;
+
+  private static class Event {
+    public int mEvent;
+    public CardAnchor mCardAnchor;
+    public Card mCard;
+  }
+
+  private Event[] mQueue;
+  private int mHead;
+  private int mCount;
   private Rules mRules;
 
   public EventPoster(Rules rules) {
     mRules = rules;
-    mEvent = -1;
-    mCardAnchor = null;
-    mCard = null;
+    mQueue = new Event[CAPACITY];
+    for (int i = 0; i < CAPACITY; i++) {
+      mQueue[i] = new Event();
+    }
+    mHead = 0;
+    mCount = 0;
   }
 
   public void PostEvent(int event) {
@@ -1118,28 +1932,33 @@ class EventPoster {
   }
 
   public void PostEvent(int event, CardAnchor anchor, Card card) {
-    mEvent = event;
-    mCardAnchor = anchor;
-    mCard = card;
+    if (mCount == mQueue.length) {
+      Grow();
+    }
+    Event e = mQueue[(mHead + mCount) % mQueue.length];
+    e.mEvent = event;
+    e.mCardAnchor = anchor;
+    e.mCard = card;
+    mCount++;
   }
 
-
   public void ClearEvent() {
-    mEvent = Rules.EVENT_INVALID;
-    mCardAnchor = null;
-    mCard = null;
+    while (mCount > 0) {
+      Take();
+    }
   }
 
   public boolean HasEvent() {
-    return mEvent != Rules.EVENT_INVALID;
+    return mCount > 0;
   }
 
   public void HandleEvent() {
     if (HasEvent()) {
-      int event = mEvent;
-      CardAnchor cardAnchor = mCardAnchor;
-      Card card = mCard;
-      ClearEvent();
+      Event e = mQueue[mHead];
+      int event = e.mEvent;
+      CardAnchor cardAnchor = e.mCardAnchor;
+      Card card = e.mCard;
+      Take();
       if (cardAnchor != null && card != null) {
         mRules.EventProcess(event, cardAnchor, card);
       } else if (cardAnchor != null) {
@@ -1149,6 +1968,23 @@ class EventPoster {
       }
     }
   }
-}
 
+  // Drop the oldest event, letting go of what it pointed at.
+  private void Take() {
+    Event e = mQueue[mHead];
+    e.mEvent = Rules.EVENT_INVALID;
+    e.mCardAnchor = null;
+    e.mCard = null;
+    mHead = (mHead + 1) % mQueue.length;
+    mCount--;
+  }
 
+  private void Grow() {
+    Event[] queue = new Event[mQueue.length * 2];
+    for (int i = 0; i < queue.length; i++) {
+      queue[i] = i < mCount ? mQueue[(mHead + i) % mQueue.length] : new Event();
+    }
+    mQueue = queue;
+    mHead = 0;
+  }
+}
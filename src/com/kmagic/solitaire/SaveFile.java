@@ -0,0 +1,353 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Binary save of a game in progress.
+ *
+ * A save is a header of magic, format version, body length and the CRC32
+ * of the body, then the body: game type, rules extra, score, seed, elapsed
+ * time, anchor and card counts, every anchor as card count, hidden count
+ * and a byte per card (see {@link Board#Code(int, int)}), and last the
+ * move history oldest first.
+ * Numbers are varints, signed ones zigzag encoded.
+ *
+ * Files are written next to the old save and renamed over it, so a crash
+ * leaves either the old save or the new one. A save with a bad header or
+ * CRC is refused whole.
+ */
+public class SaveFile {
+
+  public static final int MAGIC = 0x534f4c53;  // "SOLS"
+  public static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 13;
+
+  private byte[] mBuffer;
+  private int mPos;
+  private int mLimit;
+  private final CRC32 mCrc;
+
+  // What the last Decode or Read found.
+  private int mType;
+  private GameState mState;
+  private int mElapsed;
+  private int mLastCrc;
+
+  public SaveFile() {
+    mBuffer = new byte[1024];
+    mCrc = new CRC32();
+  }
+
+  public int GetType() { return mType; }
+  public GameState GetState() { return mState; }
+  public int GetElapsed() { return mElapsed; }
+  // CRC of the body of the last save encoded or decoded.
+  public int GetCrc() { return mLastCrc; }
+  byte[] GetBuffer() { return mBuffer; }
+
+  // ==========================================================================
+  // Files
+  // -----
+  public void Write(File file, Rules rules, MoveHistory history, int elapsed)
+      throws IOException {
+    WriteFile(file, mBuffer, Encode(rules, history, elapsed));
+  }
+
+  // Write length bytes of data to file through a temporary file and a rename.
+  public static void WriteFile(File file, byte[] data, int length) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(data, 0, length);
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IOException("Can't rename " + temp);
+    }
+  }
+
+  /**
+   * Read a save written by {@link #Write}, the moves are pushed on history.
+   *
+   * @return false if the file is not a save of this version or is damaged,
+   *         history is left untouched in that case.
+   */
+  public boolean Read(File file, MoveHistory history) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    int length = 0;
+    try {
+      long fileLength = file.length();
+      if (fileLength > Integer.MAX_VALUE) {
+        return false;
+      }
+      mPos = 0;
+      Reserve((int)fileLength);
+      int read;
+      while (length < mBuffer.length &&
+             (read = in.read(mBuffer, length, mBuffer.length - length)) > 0) {
+        length += read;
+      }
+    } finally {
+      in.close();
+    }
+    return Decode(mBuffer, length, history);
+  }
+
+  // ==========================================================================
+  // Encoding
+  // --------
+  // Encode a game into GetBuffer(), returns the length used.
+  public int Encode(Rules rules, MoveHistory history, int elapsed) {
+    CardAnchor[] anchor = rules.GetAnchorArray();
+    mPos = HEADER_SIZE;
+    PutVarint(rules.GetType());
+    PutSigned(rules.GetRulesExtra());
+    PutSigned(rules.GetScore());
+    PutLong(rules.GetSeed());
+    PutVarint(elapsed);
+    int cardCount = 0;
+    for (int i = 0; i < anchor.length; i++) {
+      cardCount += anchor[i].GetCount();
+    }
+    PutVarint(anchor.length);
+    PutVarint(cardCount);
+    for (int i = 0; i < anchor.length; i++) {
+      int count = anchor[i].GetCount();
+      Card[] card = anchor[i].GetCards();
+      PutVarint(count);
+      PutVarint(anchor[i].GetHiddenCount());
+      Reserve(mPos + count);
+      for (int j = 0; j < count; j++) {
+        mBuffer[mPos++] = (byte)Board.Code(card[j]);
+      }
+    }
+    int historySize = history.Size();
+    PutVarint(historySize);
+    for (int i = 0; i < historySize; i++) {
+      long move = history.Get(i);
+      PutVarint(Move.From(move));
+      PutVarint(Move.ToBegin(move));
+      PutVarint(Move.ToEnd(move));
+      PutVarint(Move.Count(move));
+      PutVarint(Move.Flags(move));
+    }
+
+    int length = mPos;
+    mCrc.reset();
+    mCrc.update(mBuffer, HEADER_SIZE, length - HEADER_SIZE);
+    mPos = 0;
+    PutInt(MAGIC);
+    mBuffer[mPos++] = (byte)VERSION;
+    PutInt(length - HEADER_SIZE);
+    mLastCrc = (int)mCrc.getValue();
+    PutInt(mLastCrc);
+    return length;
+  }
+
+  /**
+   * Decode a save from data, filling in GetType(), GetState() and
+   * GetElapsed() and pushing the moves on history.
+   *
+   * @return false if data is not a complete save of this version.
+   */
+  public boolean Decode(byte[] data, int length, MoveHistory history) {
+    byte[] oldBuffer = mBuffer;
+    mBuffer = data;
+    mLimit = length;
+    try {
+      return DecodeBody(history);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // Sizes that don't add up or run past the data.
+      return false;
+    } finally {
+      mBuffer = oldBuffer;
+    }
+  }
+
+  private boolean DecodeBody(MoveHistory history) {
+    mPos = 0;
+    if (mLimit < HEADER_SIZE || GetInt() != MAGIC || mBuffer[mPos++] != VERSION) {
+      return false;
+    }
+    int bodyLength = GetInt();
+    int crc = GetInt();
+    if (bodyLength != mLimit - HEADER_SIZE) {
+      return false;
+    }
+    mCrc.reset();
+    mCrc.update(mBuffer, HEADER_SIZE, bodyLength);
+    if ((int)mCrc.getValue() != crc) {
+      return false;
+    }
+
+    int type = GetVarint();
+    int rulesExtra = GetSigned();
+    int score = GetSigned();
+    long seed = GetLong();
+    int elapsed = GetVarint();
+    int anchorCount = GetCount(2);
+    int[] anchorCardCount = new int[anchorCount];
+    int[] anchorHiddenCount = new int[anchorCount];
+    int cardCount = GetCount(1);
+    int[] value = new int[cardCount];
+    int[] suit = new int[cardCount];
+    int cardIdx = 0;
+    for (int i = 0; i < anchorCount; i++) {
+      anchorCardCount[i] = GetCount(1);
+      anchorHiddenCount[i] = GetVarint();
+      if (anchorHiddenCount[i] < 0 || anchorHiddenCount[i] > anchorCardCount[i] ||
+          cardIdx + anchorCardCount[i] > cardCount) {
+        return false;
+      }
+      for (int j = 0; j < anchorCardCount[i]; j++, cardIdx++) {
+        int code = GetByte();
+        if (code >= Board.RANK_COUNT * 4) {
+          return false;
+        }
+        value[cardIdx] = Board.Rank(code) + 1;
+        suit[cardIdx] = Board.Suit(code);
+      }
+    }
+    if (cardIdx != cardCount) {
+      return false;
+    }
+
+    int historySize = GetCount(5);
+    long[] move = new long[historySize];
+    for (int i = 0; i < historySize; i++) {
+      move[i] = Move.Pack(GetField(anchorCount), GetField(anchorCount), GetField(anchorCount),
+                          GetField(cardCount + 1), GetField(0x100));
+    }
+    if (mPos != mLimit) {
+      return false;
+    }
+
+    mType = type;
+    mElapsed = elapsed;
+    mLastCrc = crc;
+    mState = new GameState(anchorCount, cardCount, anchorCardCount, anchorHiddenCount,
+                           value, suit, rulesExtra, score, seed);
+    for (int i = 0; i < historySize; i++) {
+      history.Push(move[i]);
+    }
+    return true;
+  }
+
+  // ==========================================================================
+  // Fields
+  // ------
+  private void Reserve(int size) {
+    if (size > mBuffer.length) {
+      byte[] buffer = new byte[Math.max(size, mBuffer.length * 2)];
+      System.arraycopy(mBuffer, 0, buffer, 0, mPos);
+      mBuffer = buffer;
+    }
+  }
+
+  private void PutVarint(int value) {
+    Reserve(mPos + 5);
+    while ((value & ~0x7f) != 0) {
+      mBuffer[mPos++] = (byte)((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    mBuffer[mPos++] = (byte)value;
+  }
+
+  private void PutSigned(int value) {
+    PutVarint((value << 1) ^ (value >> 31));
+  }
+
+  private void PutInt(int value) {
+    Reserve(mPos + 4);
+    mBuffer[mPos++] = (byte)(value >>> 24);
+    mBuffer[mPos++] = (byte)(value >>> 16);
+    mBuffer[mPos++] = (byte)(value >>> 8);
+    mBuffer[mPos++] = (byte)value;
+  }
+
+  private void PutLong(long value) {
+    PutInt((int)(value >>> 32));
+    PutInt((int)value);
+  }
+
+  private int GetByte() {
+    if (mPos >= mLimit) {
+      throw new ArrayIndexOutOfBoundsException("Past the end");
+    }
+    return mBuffer[mPos++] & 0xff;
+  }
+
+  // A count of things each at least minSize bytes long. Checked against the
+  // bytes left, so a damaged save can't ask for a negative or huge array.
+  private int GetCount(int minSize) {
+    int count = GetVarint();
+    if (count < 0 || count > (mLimit - mPos) / minSize) {
+      throw new ArrayIndexOutOfBoundsException("Bad count " + count);
+    }
+    return count;
+  }
+
+  // A value that has to be below limit, such as an anchor number.
+  private int GetField(int limit) {
+    int value = GetVarint();
+    if (value < 0 || value >= limit) {
+      throw new ArrayIndexOutOfBoundsException("Bad field " + value);
+    }
+    return value;
+  }
+
+  private int GetVarint() {
+    int ret = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = GetByte();
+      ret |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return ret;
+      }
+    }
+    throw new ArrayIndexOutOfBoundsException("Varint too long");
+  }
+
+  private int GetSigned() {
+    int value = GetVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private int GetInt() {
+    if (mPos + 4 > mLimit) {
+      throw new ArrayIndexOutOfBoundsException("Past the end");
+    }
+    int ret = (mBuffer[mPos] & 0xff) << 24 | (mBuffer[mPos + 1] & 0xff) << 16 |
+              (mBuffer[mPos + 2] & 0xff) << 8 | (mBuffer[mPos + 3] & 0xff);
+    mPos += 4;
+    return ret;
+  }
+
+  private long GetLong() {
+    long high = GetInt();
+    return (high << 32) | (GetInt() & 0xffffffffL);
+  }
+}
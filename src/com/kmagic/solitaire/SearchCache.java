@@ -0,0 +1,69 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size cache of position hashes for long searches. Each hash has a
+ * bucket of four slots, when it is full the oldest entry is replaced, so
+ * memory stays the same however long the search runs and only some
+ * positions are searched again.
+ */
+class SearchCache {
+
+  private static final int WAYS = 4;
+
+  private final long[] mKey;
+  private final byte[] mNext;
+  private final int mMask;
+
+  public SearchCache(int capacity) {
+    int buckets = 1;
+    while (buckets * WAYS < capacity) {
+      buckets <<= 1;
+    }
+    mKey = new long[buckets * WAYS];
+    mNext = new byte[buckets];
+    mMask = buckets - 1;
+  }
+
+  public void Clear() {
+    Arrays.fill(mKey, 0);
+    Arrays.fill(mNext, (byte)0);
+  }
+
+  // Returns false if key was already there.
+  public boolean Add(long key) {
+    if (key == 0) {
+      key = 1;
+    }
+    int bucket = SearchTable.Mix(key) & mMask;
+    int base = bucket * WAYS;
+    for (int i = 0; i < WAYS; i++) {
+      if (mKey[base + i] == key) {
+        return false;
+      }
+      if (mKey[base + i] == 0) {
+        mKey[base + i] = key;
+        return true;
+      }
+    }
+    mKey[base + mNext[bucket]] = key;
+    mNext[bucket] = (byte)((mNext[bucket] + 1) % WAYS);
+    return true;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Arrays;
+
+/**
+ * Min heap of node numbers ordered by an int priority, ties go to the node
+ * added first.
+ */
+class SearchQueue {
+
+  private int[] mNode;
+  private long[] mKey;
+  private int mSize;
+  private int mOrder;
+
+  public SearchQueue(int capacity) {
+    mNode = new int[Math.max(capacity, 16)];
+    mKey = new long[mNode.length];
+    mSize = 0;
+    mOrder = 0;
+  }
+
+  public boolean IsEmpty() { return mSize == 0; }
+  public int GetSize() { return mSize; }
+
+  public void Clear() {
+    mSize = 0;
+    mOrder = 0;
+  }
+
+  public void Add(int node, int priority) {
+    if (mSize == mNode.length) {
+      mNode = Arrays.copyOf(mNode, mSize * 2);
+      mKey = Arrays.copyOf(mKey, mSize * 2);
+    }
+    long key = ((long)priority << 32) | (mOrder++ & 0xFFFFFFFFL);
+    int idx = mSize++;
+    while (idx > 0) {
+      int parent = (idx - 1) >> 1;
+      if (mKey[parent] <= key) {
+        break;
+      }
+      mNode[idx] = mNode[parent];
+      mKey[idx] = mKey[parent];
+      idx = parent;
+    }
+    mNode[idx] = node;
+    mKey[idx] = key;
+  }
+
+  public int Poll() {
+    int ret = mNode[0];
+    int node = mNode[--mSize];
+    long key = mKey[mSize];
+    int idx = 0;
+    while (true) {
+      int child = idx * 2 + 1;
+      if (child >= mSize) {
+        break;
+      }
+      if (child + 1 < mSize && mKey[child + 1] < mKey[child]) {
+        child++;
+      }
+      if (key <= mKey[child]) {
+        break;
+      }
+      mNode[idx] = mNode[child];
+      mKey[idx] = mKey[child];
+      idx = child;
+    }
+    mNode[idx] = node;
+    mKey[idx] = key;
+    return ret;
+  }
+}
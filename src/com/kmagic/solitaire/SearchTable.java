@@ -0,0 +1,97 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Arrays;
+
+/**
+ * Set of 64 bit position hashes for the solvers, open addressing without
+ * boxing. Zero is used for empty slots so it is mapped to another value.
+ */
+class SearchTable {
+
+  private long[] mKey;
+  private int mMask;
+  private int mSize;
+
+  public SearchTable(int capacity) {
+    int size = 16;
+    while (size < capacity * 2) {
+      size <<= 1;
+    }
+    mKey = new long[size];
+    mMask = size - 1;
+    mSize = 0;
+  }
+
+  public int GetSize() { return mSize; }
+
+  public void Clear() {
+    Arrays.fill(mKey, 0);
+    mSize = 0;
+  }
+
+  public boolean Contains(long key) {
+    if (key == 0) {
+      key = 1;
+    }
+    for (int idx = Mix(key) & mMask; mKey[idx] != 0; idx = (idx + 1) & mMask) {
+      if (mKey[idx] == key) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns false if key was already there.
+  public boolean Add(long key) {
+    if (key == 0) {
+      key = 1;
+    }
+    int idx = Mix(key) & mMask;
+    for (; mKey[idx] != 0; idx = (idx + 1) & mMask) {
+      if (mKey[idx] == key) {
+        return false;
+      }
+    }
+    if ((mSize + 1) * 2 > mKey.length) {
+      Grow();
+      return Add(key);
+    }
+    mKey[idx] = key;
+    mSize++;
+    return true;
+  }
+
+  private void Grow() {
+    long[] old = mKey;
+    mKey = new long[old.length * 2];
+    mMask = mKey.length - 1;
+    mSize = 0;
+    for (int i = 0; i < old.length; i++) {
+      if (old[i] != 0) {
+        Add(old[i]);
+      }
+    }
+  }
+
+  static int Mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    return (int)key;
+  }
+}
@@ -15,12 +15,10 @@
 */ 
 package com.kmagic.solitaire;
 
-import android.graphics.Canvas;
-import android.util.Log;
-
 class SelectCard {
 
-  private static final int MAX_CARDS = 13;
+  // As many as a pile holds, some games lift any face up run.
+  private static final int MAX_CARDS = CardAnchor.MAX_CARDS;
 
   private boolean mValid;
   private int mSelected;
@@ -53,19 +51,14 @@ class SelectCard {
   public boolean IsValid() { return mValid; }
 
   public CardAnchor GetAnchor() { return mCardAnchor; }
+  public Card[] GetCards() { return mCard; }
+  public int GetCardCount() { return mCardCount; }
   public int GetCount() {
     if (mSelected == -1)
       return mCardCount;
     return mCardCount - mSelected;
   }
 
-  public void Draw(DrawMaster drawMaster, Canvas canvas) {
-    drawMaster.DrawLightShade(canvas);
-    for (int i = 0; i < mCardCount; i++) {
-      drawMaster.DrawCard(canvas, mCard[i]);
-    }
-  }
-
   public void InitFromAnchor(CardAnchor cardAnchor) {
     mValid = true;
     mSelected = -1;
@@ -0,0 +1,51 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In memory settings for running the rules without SharedPreferences.
+ */
+public class SimpleSettings implements GameSettings {
+
+  private final Map<String, Object> mValues;
+
+  public SimpleSettings() {
+    mValues = new HashMap<String, Object>();
+  }
+
+  public SimpleSettings putBoolean(String key, boolean value) {
+    mValues.put(key, Boolean.valueOf(value));
+    return this;
+  }
+
+  public SimpleSettings putInt(String key, int value) {
+    mValues.put(key, Integer.valueOf(value));
+    return this;
+  }
+
+  public boolean getBoolean(String key, boolean defValue) {
+    Object value = mValues.get(key);
+    return value instanceof Boolean ? ((Boolean)value).booleanValue() : defValue;
+  }
+
+  public int getInt(String key, int defValue) {
+    Object value = mValues.get(key);
+    return value instanceof Integer ? ((Integer)value).intValue() : defValue;
+  }
+}
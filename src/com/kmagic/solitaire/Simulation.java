@@ -0,0 +1,446 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line batch runner for win rates of every game variant.
+ *
+ * Seeded deals of each variant are played on all processors by a
+ * strategy, "solver" (the solvers, hints for Forty Thieves) or "hint"
+ * (follow Rules.GetHint). A line per deal streams to a CSV file and a
+ * summary per variant with deals/s and the p50 and p99 time of a deal
+ * is printed at the end. The Klondike solver sees the hidden cards, so
+ * its rates are noted as thoughtful, the odds of a player who knows the
+ * whole deal:
+ *
+ *   java -cp bin/solitaire-engine.jar com.kmagic.solitaire.Simulation
+ *       -deals 10000 -variants Freecell,Spider4Suit -out freecell.csv
+ */
+public class Simulation {
+
+  // Follow the hints at most this deep and this many positions per move,
+  // a budget rather than a time so results don't depend on the machine.
+  private static final int HINT_DEPTH = 2;
+  private static final int HINT_NODES = 20000;
+  private static final int MAX_MOVES = 1000;
+
+  // Tasks queued per thread, enough to keep every thread busy.
+  private static final int QUEUE_PER_THREAD = 8;
+  private static final long PROGRESS_MILLIS = 5000;
+
+  /**
+   * Plays deals, one instance per thread.
+   */
+  public interface Strategy {
+    // Settings the strategy needs for a game of type on top of the
+    // variant ones.
+    public void Configure(int type, SimpleSettings settings);
+
+    // Play game as far as the strategy gets, returns the moves made.
+    public int Play(HeadlessGame game, GameSettings settings);
+
+    // What the win rate of type means when it is not the plain one, else "".
+    public String GetNote(int type);
+  }
+
+  public static Strategy CreateStrategy(String name, int nodeLimit) {
+    if (name.equals("solver")) {
+      return new SolverStrategy(nodeLimit);
+    } else if (name.equals("hint")) {
+      return new HintStrategy();
+    }
+    throw new IllegalArgumentException("Unknown strategy " + name);
+  }
+
+  // A game type and the settings that change its rules.
+  public static class Variant {
+    private final int mType;
+    private final SimpleSettings mSettings;
+    private final String mName;
+
+    public Variant(int type, SimpleSettings settings) {
+      mType = type;
+      mSettings = settings;
+      mName = new HeadlessGame(type, 0, settings).GetRules().GetGameTypeString();
+    }
+
+    public int GetType() { return mType; }
+    public String GetName() { return mName; }
+
+    // The variant settings with the ones strategy asks for.
+    public SimpleSettings GetSettings(Strategy strategy) {
+      SimpleSettings ret = new SimpleSettings()
+        .putBoolean("SolitaireDealThree", mSettings.getBoolean("SolitaireDealThree", true))
+        .putBoolean("SolitaireStyleNormal", mSettings.getBoolean("SolitaireStyleNormal", true))
+        .putInt("SpiderSuits", mSettings.getInt("SpiderSuits", 4));
+      strategy.Configure(mType, ret);
+      return ret;
+    }
+  }
+
+  // Every variant with its own stats name.
+  public static List<Variant> GetVariants() {
+    List<Variant> ret = new ArrayList<Variant>();
+    for (int i = 0; i < 4; i++) {
+      ret.add(new Variant(Rules.SOLITAIRE, new SimpleSettings()
+                          .putBoolean("SolitaireDealThree", (i & 1) == 0)
+                          .putBoolean("SolitaireStyleNormal", (i & 2) == 0)));
+    }
+    for (int suits = 1; suits <= 4; suits *= 2) {
+      ret.add(new Variant(Rules.SPIDER, new SimpleSettings().putInt("SpiderSuits", suits)));
+    }
+    ret.add(new Variant(Rules.FREECELL, new SimpleSettings()));
+    ret.add(new Variant(Rules.FORTYTHIEVES, new SimpleSettings()));
+    return ret;
+  }
+
+  // The outcome of one deal.
+  private static class Result {
+    int mVariant;
+    long mSeed;
+    boolean mWon;
+    int mMoves;
+    long mNanos;
+  }
+
+  // Totals of a variant, times are kept to find the percentiles.
+  private static class Totals {
+    int mDeals;
+    int mWins;
+    long mNanos;
+    long[] mTime = new long[1024];
+
+    void Add(Result result) {
+      if (mDeals == mTime.length) {
+        mTime = Arrays.copyOf(mTime, mDeals * 2);
+      }
+      mTime[mDeals++] = result.mNanos;
+      mNanos += result.mNanos;
+      if (result.mWon) {
+        mWins++;
+      }
+    }
+
+    long Percentile(int percent) {
+      if (mDeals == 0) {
+        return 0;
+      }
+      long[] time = Arrays.copyOf(mTime, mDeals);
+      Arrays.sort(time);
+      return time[Math.min(mDeals - 1, (int)((long)mDeals * percent / 100))];
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int deals = 1000;
+    long firstSeed = 1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String strategyName = "solver";
+    String variantNames = null;
+    String out = null;
+    int nodeLimit = 0;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      if (args[i].equals("-deals")) {
+        deals = Integer.parseInt(value);
+      } else if (args[i].equals("-seed")) {
+        firstSeed = Long.parseLong(value);
+      } else if (args[i].equals("-threads")) {
+        threads = Integer.parseInt(value);
+      } else if (args[i].equals("-strategy")) {
+        strategyName = value;
+      } else if (args[i].equals("-variants")) {
+        variantNames = value;
+      } else if (args[i].equals("-out")) {
+        out = value;
+      } else if (args[i].equals("-nodes")) {
+        nodeLimit = Integer.parseInt(value);
+      } else {
+        Usage();
+        return;
+      }
+    }
+    if (args.length % 2 != 0) {
+      Usage();
+      return;
+    }
+    // Fails now on an unknown name rather than on every thread.
+    CreateStrategy(strategyName, nodeLimit);
+
+    List<Variant> variants = new ArrayList<Variant>();
+    for (Variant variant : GetVariants()) {
+      if (variantNames == null || IsListed(variantNames, variant.GetName())) {
+        variants.add(variant);
+      }
+    }
+    if (variants.isEmpty()) {
+      System.err.println("No variant matches " + variantNames);
+      return;
+    }
+
+    Writer writer = out != null ? new BufferedWriter(new FileWriter(out)) : null;
+    try {
+      Run(variants, deals, firstSeed, threads, strategyName, nodeLimit, writer);
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  private static void Usage() {
+    System.err.println("Simulation [-deals n] [-seed first] [-threads n]"
+                       + " [-strategy solver|hint] [-variants a,b] [-nodes limit]"
+                       + " [-out file.csv]");
+  }
+
+  // Names match without case or spaces.
+  private static boolean IsListed(String list, String name) {
+    String key = name.replace(" ", "");
+    for (String item : list.split(",")) {
+      if (item.trim().replace(" ", "").equalsIgnoreCase(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Play deals seeds from firstSeed of every variant with threads threads.
+   * Results are written to writer, if not null, as they come in.
+   */
+  public static void Run(final List<Variant> variants, int deals, long firstSeed,
+                         int threads, final String strategyName, final int nodeLimit,
+                         Writer writer) throws IOException, InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+    final ThreadLocal<Strategy> strategy = new ThreadLocal<Strategy>() {
+      @Override
+      protected Strategy initialValue() {
+        return CreateStrategy(strategyName, nodeLimit);
+      }
+    };
+    Totals[] totals = new Totals[variants.size()];
+    for (int i = 0; i < totals.length; i++) {
+      totals[i] = new Totals();
+    }
+    if (writer != null) {
+      writer.write("variant,seed,won,moves,micros\n");
+    }
+
+    long start = System.nanoTime();
+    long nextProgress = start + PROGRESS_MILLIS * 1000000;
+    int total = variants.size() * deals;
+    int submitted = 0;
+    int done = 0;
+    try {
+      while (done < total) {
+        while (submitted < total && submitted - done < threads * QUEUE_PER_THREAD) {
+          final int variant = submitted / deals;
+          final long seed = firstSeed + submitted % deals;
+          completion.submit(new Callable<Result>() {
+            public Result call() {
+              return Play(variants.get(variant), variant, seed, strategy.get());
+            }
+          });
+          submitted++;
+        }
+        Result result;
+        try {
+          result = completion.take().get();
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+        done++;
+        totals[result.mVariant].Add(result);
+        if (writer != null) {
+          writer.write(variants.get(result.mVariant).GetName() + "," + result.mSeed + "," +
+                       (result.mWon ? 1 : 0) + "," + result.mMoves + "," +
+                       result.mNanos / 1000 + "\n");
+        }
+        long now = System.nanoTime();
+        if (now > nextProgress) {
+          nextProgress = now + PROGRESS_MILLIS * 1000000;
+          System.err.printf("%d/%d deals, %.1f deals/s%n", done, total,
+                            done * 1e9 / (now - start));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Strategy summary = CreateStrategy(strategyName, nodeLimit);
+    System.out.printf("variant,deals,wins,win_rate,deals_per_s,p50_ms,p99_ms,note%n");
+    for (int i = 0; i < totals.length; i++) {
+      Totals t = totals[i];
+      // Threads share the wall clock, so a variant gets its share of
+      // the time by the time its deals took.
+      double share = t.mNanos / 1e9 / threads;
+      System.out.printf("%s,%d,%d,%.4f,%.1f,%.3f,%.3f,%s%n", variants.get(i).GetName(),
+                        t.mDeals, t.mWins, t.mDeals > 0 ? (double)t.mWins / t.mDeals : 0,
+                        share > 0 ? t.mDeals / share : 0,
+                        t.Percentile(50) / 1e6, t.Percentile(99) / 1e6,
+                        summary.GetNote(variants.get(i).GetType()));
+    }
+    System.out.printf("all,%d,,,%.1f,,,%n", done, done / seconds);
+  }
+
+  private static Result Play(Variant variant, int index, long seed, Strategy strategy) {
+    Result ret = new Result();
+    ret.mVariant = index;
+    ret.mSeed = seed;
+    long start = System.nanoTime();
+    GameSettings settings = variant.GetSettings(strategy);
+    HeadlessGame game = new HeadlessGame(variant.GetType(), seed, settings);
+    ret.mMoves = strategy.Play(game, settings);
+    ret.mWon = game.IsWon();
+    ret.mNanos = System.nanoTime() - start;
+    return ret;
+  }
+
+  // ==========================================================================
+  // Strategies
+  // ----------
+  // Plays the moves of a solver, which need automatic moves off. Forty
+  // Thieves has no solver and follows the hints with their settings, so
+  // its rate is the same as with the hint strategy.
+  private static class SolverStrategy implements Strategy {
+    private final int mNodeLimit;
+    private FreecellSolver mFreecell;
+    private KlondikeSolver mKlondike;
+    private SpiderSolver mSpider;
+    private final HintStrategy mHint = new HintStrategy();
+
+    public SolverStrategy(int nodeLimit) {
+      mNodeLimit = nodeLimit;
+    }
+
+    public void Configure(int type, SimpleSettings settings) {
+      if (HasSolver(type)) {
+        settings.putInt("AutoMoveLevel", Rules.AUTO_MOVE_NEVER);
+      } else {
+        mHint.Configure(type, settings);
+      }
+    }
+
+    public String GetNote(int type) {
+      return type == Rules.SOLITAIRE ? "thoughtful" : mHint.GetNote(type);
+    }
+
+    private static boolean HasSolver(int type) {
+      return type == Rules.SOLITAIRE || type == Rules.SPIDER || type == Rules.FREECELL;
+    }
+
+    public int Play(HeadlessGame game, GameSettings settings) {
+      Rules rules = game.GetRules();
+      List<Move> moves;
+      switch (rules.GetType()) {
+        case Rules.SOLITAIRE:
+          if (mKlondike == null) {
+            mKlondike = mNodeLimit > 0 ?
+              new KlondikeSolver(mNodeLimit, KlondikeSolver.DEFAULT_CACHE_SIZE) :
+              new KlondikeSolver();
+          }
+          moves = mKlondike.Solve(game.GetBoard(),
+                                  settings.getBoolean("SolitaireDealThree", true),
+                                  rules.GetRulesExtra());
+          break;
+        case Rules.SPIDER:
+          if (mSpider == null) {
+            mSpider = mNodeLimit > 0 ?
+              new SpiderSolver(mNodeLimit, SpiderSolver.DEFAULT_CACHE_SIZE) :
+              new SpiderSolver();
+          }
+          moves = mSpider.Solve(game.GetBoard());
+          break;
+        case Rules.FREECELL:
+          if (mFreecell == null) {
+            mFreecell = mNodeLimit > 0 ? new FreecellSolver(mNodeLimit) : new FreecellSolver();
+          }
+          moves = mFreecell.Solve(game.GetBoard());
+          break;
+        default:
+          return mHint.Play(game, settings);
+      }
+      int ret = 0;
+      if (moves != null) {
+        for (Move move : moves) {
+          if (!game.Play(move)) {
+            break;
+          }
+          ret++;
+        }
+      }
+      return ret;
+    }
+  }
+
+  // Follows Rules.GetHint until it runs out of ideas or goes round in
+  // circles.
+  private static class HintStrategy implements Strategy {
+    private final Set<Long> mSeen = new HashSet<Long>();
+
+    public void Configure(int type, SimpleSettings settings) {
+      settings.putInt("AutoMoveLevel", Rules.AUTO_MOVE_ALWAYS);
+    }
+
+    public String GetNote(int type) { return ""; }
+
+    public int Play(HeadlessGame game, GameSettings settings) {
+      mSeen.clear();
+      int ret = 0;
+      while (ret < MAX_MOVES && !game.IsWon()) {
+        if (!mSeen.add(Long.valueOf(game.GetBoard().Hash()))) {
+          break;
+        }
+        Move hint = game.GetRules().GetHintByNodes(HINT_NODES, HINT_DEPTH);
+        if (hint == null) {
+          break;
+        }
+        boolean moved;
+        if (hint.GetFrom() == hint.GetToBegin()) {
+          int historySize = game.GetMoveHistory().Size();
+          game.Deal();
+          moved = game.GetMoveHistory().Size() > historySize;
+        } else {
+          moved = game.MoveCards(hint.GetFrom(), hint.GetCount(), hint.GetToBegin());
+        }
+        if (!moved) {
+          break;
+        }
+        ret++;
+      }
+      return ret;
+    }
+  }
+}
@@ -17,18 +17,29 @@ package com.kmagic.solitaire;
 
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
+import android.content.res.AssetManager;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
 import android.view.Window;
 import android.widget.TextView;
 
 import com.kmagic.solitaire.actionbar.ActionBarActivity;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
 // Base activity class.
 public class Solitaire extends ActionBarActivity {
+
+  // Game definitions shipped in the assets, and the menu ids of their games.
+  private static final String GAMES_DIR = "games";
+  private static final int MENU_DEFINED_GAME = Menu.FIRST;
   
   // View extracted from main.xml.
   private View mMainView;
@@ -52,6 +63,7 @@ public class Solitaire extends ActionBarActivity {
 
     // If the user has never accepted the EULA show it again.
     mSettings = getSharedPreferences("SolitairePreferences", 0);
+    LoadGameDefinitions();
     setContentView(R.layout.main);
     mMainView = findViewById(R.id.main_view);
     mSolitaireView = (SolitaireView) findViewById(R.id.solitaire);
@@ -76,10 +88,42 @@ public class Solitaire extends ActionBarActivity {
       }
     }
 
-    mSolitaireView.InitGame(mSettings.getInt("LastType", Rules.SOLITAIRE));
+    mSolitaireView.InitGame(LastType());
     HelpSplashScreen();
   }
 
+  // The game last played, if it is still around.
+  private int LastType() {
+    int type = mSettings.getInt("LastType", Rules.SOLITAIRE);
+    if (type >= GameDefinition.FIRST_TYPE && GameDefinition.Get(type) == null) {
+      return Rules.SOLITAIRE;
+    }
+    return type;
+  }
+
+  // Read the games in assets/games once per process.
+  private void LoadGameDefinitions() {
+    if (GameDefinition.GetAll().length > 0) {
+      return;
+    }
+    AssetManager assets = getAssets();
+    try {
+      for (String name : assets.list(GAMES_DIR)) {
+        String path = GAMES_DIR + "/" + name;
+        Reader reader = new InputStreamReader(assets.open(path), "UTF-8");
+        try {
+          GameDefinition.Register(GameDefinition.Parse(path, reader));
+        } catch (IOException e) {
+          Log.e("Solitaire.java", "Skipping game: " + e.getMessage());
+        } finally {
+          reader.close();
+        }
+      }
+    } catch (IOException e) {
+      Log.e("Solitaire.java", "LoadGameDefinitions(): " + e);
+    }
+  }
+
   // Force show the help if this is the first time played. Sadly no one reads
   // it anyways.
   private void HelpSplashScreen() {
@@ -93,11 +137,26 @@ public class Solitaire extends ActionBarActivity {
     
     MenuInflater menuInflater = getMenuInflater();
     menuInflater.inflate(R.menu.main, menu);
+    SubMenu newGame = menu.findItem(R.id.menu_new_game).getSubMenu();
+    if (newGame != null) {
+      for (GameDefinition def : GameDefinition.GetAll()) {
+        newGame.add(Menu.NONE, MENU_DEFINED_GAME + def.GetType(), Menu.NONE, def.GetName());
+      }
+    }
 
     return super.onCreateOptionsMenu(menu);
 
   }
 
+  @Override
+  public boolean onPrepareOptionsMenu(Menu menu) {
+    MenuItem deal = menu.findItem(R.id.menu_deal);
+    if (deal != null && mSolitaireView.GetRules() != null) {
+      deal.setVisible(mSolitaireView.GetRules().HasDeal());
+    }
+    return super.onPrepareOptionsMenu(menu);
+  }
+
   @Override
   public boolean onOptionsItemSelected(MenuItem item) {
     switch (item.getItemId()) {
@@ -116,6 +175,12 @@ public class Solitaire extends ActionBarActivity {
       case R.id.menu_deal:
         mSolitaireView.dealGame();
         break;
+      case R.id.menu_hint:
+        mSolitaireView.DisplayHint();
+        break;
+      case R.id.menu_redo:
+        mSolitaireView.Redo();
+        break;
       case R.id.menu_restart:
         mSolitaireView.RestartGame();
         break;
@@ -137,6 +202,12 @@ public class Solitaire extends ActionBarActivity {
         mDoSave = false;
         finish();
         break;
+      default:
+        int type = item.getItemId() - MENU_DEFINED_GAME;
+        if (GameDefinition.Get(type) != null) {
+          mSolitaireView.InitGame(type);
+        }
+        break;
     }
 
     return false;
@@ -185,7 +256,7 @@ public class Solitaire extends ActionBarActivity {
 
   public void NewOptions() {
     setContentView(mMainView);
-    mSolitaireView.InitGame(mSettings.getInt("LastType", Rules.SOLITAIRE));
+    mSolitaireView.InitGame(LastType());
   }
 
   // This is called for option changes that require a refresh, but not a new game
@@ -20,34 +20,35 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.PointF;
-import android.os.Bundle;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.MotionEvent;
 import android.view.Gravity;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.lang.Math;
 import java.lang.Runnable;
 import java.util.Map;
-import java.util.Stack;
 import java.util.TreeMap;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.StreamCorruptedException;
 
 import com.kmagic.solitaire.Card.SuiteEnum;
 import com.kmagic.solitaire.Card.ValueEnum;
 
 // The brains of the operation
-public class SolitaireView extends View {
+public class SolitaireView extends View implements GameListener {
 
   private static final int MODE_NORMAL      = 1;
   private static final int MODE_MOVE_CARD   = 2;
@@ -58,8 +59,17 @@ public class SolitaireView extends View {
   private static final int MODE_WIN_STOP    = 7;
 
   private static final String SAVE_FILENAME = "solitaire_save.bin";
-  // This is incremented only when the save system changes.
-  private static final String SAVE_VERSION = "solitaire_save_2";
+  private static final String JOURNAL_FILENAME = "solitaire_save.journal";
+  // Time a frame gives the rules to work through posted events, in ms.
+  private static final int EVENT_BUDGET_MS = 4;
+
+  private static final String GAME_LOG_FILE = "games.log";
+
+  // Variants whose totals were kept in the preferences before the game log.
+  private static final String[] PREFERENCE_STATS = {
+    "SolitaireNormalDeal1", "SolitaireNormalDeal3", "SolitaireVegasDeal1",
+    "SolitaireVegasDeal3", "Spider1Suit", "Spider2Suit", "Spider4Suit",
+    "Freecell", "Forty Thieves" };
 
   private CharSequence mHelpText;
   private CharSequence mWinText;
@@ -78,15 +88,21 @@ public class SolitaireView extends View {
   private PointF mLastPoint;
   private PointF mDownPoint;
   private RefreshHandler mRefreshHandler;
-  private Thread mRefreshThread;
-  private Stack<Move> mMoveHistory;
+  private boolean mRefreshRunning;
+  private MoveHistory mMoveHistory;
+  private HistoryNavigator mNavigator;
   private Replay mReplay;
+  private WinnableDeals mWinnableDeals;
+  private SaveFile mSaveFile;
+  private MoveJournal mJournal;
+  private GameLog mGameLog;
+  private Move mHint;
+  // Hints are searched on a copy of the board, one at a time.
+  private final ExecutorService mHintExecutor;
   private Context mContext;
   private boolean mHasMoved;
   private Speed mSpeed;
 
-  private Card[] mUndoStorage;
-
   private int mElapsed = 0;
   private long mStartTime;
   private boolean mTimePaused;
@@ -103,26 +119,68 @@ public class SolitaireView extends View {
     setFocusableInTouchMode(true);
 
     mDrawMaster = new DrawMaster(context);
+    mHintExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread ret = new Thread(runnable, "Hint");
+        ret.setDaemon(true);
+        return ret;
+      }
+    });
+    // Card faces are swapped in as they are drawn after startup.
+    mDrawMaster.SetFacesCallback(new Runnable() {
+      public void run() {
+        if (mCardAnchor != null) {
+          DrawBoard();
+        }
+        Refresh();
+      }
+    });
     mMoveCard = new MoveCard();
     mSelectCard = new SelectCard();
     mViewMode = MODE_NORMAL;
     mLastPoint = new PointF();
     mDownPoint = new PointF();
     mRefreshHandler = new RefreshHandler(this);
-    mRefreshThread = new Thread(mRefreshHandler);
-    mMoveHistory = new Stack<Move>();
-    mUndoStorage = new Card[CardAnchor.MAX_CARDS];
+    mJournal = new MoveJournal(new File(context.getFilesDir(), SAVE_FILENAME),
+                               new File(context.getFilesDir(), JOURNAL_FILENAME));
+    mMoveHistory = new MoveHistory();
+    mMoveHistory.SetListener(mJournal);
     mAnimateCard = new AnimateCard(this);
     mSpeed = new Speed();
     mReplay = new Replay(this, mAnimateCard);
+    mSaveFile = new SaveFile();
 
     Resources res = context.getResources();
     mHelpText = context.getResources().getText(R.string.help_text);
     mWinText = context.getResources().getText(R.string.win_text);
     mContext = context;
     mTextViewDown = false;
-    mRefreshThread.start();
+    mRefreshRunning = true;
     mWinningScore = 0;
+    mGameLog = new GameLog(new File(context.getFilesDir(), GAME_LOG_FILE));
+    ImportStats();
+  }
+
+  // Move the totals once kept in the preferences into the game log.
+  private void ImportStats() {
+    if (GetSettings().getBoolean("GameLogImported", false)) {
+      return;
+    }
+    SharedPreferences.Editor editor = GetSettings().edit();
+    for (String type : PREFERENCE_STATS) {
+      if (GetSettings().contains(type + "Attempts")) {
+        mGameLog.Import(type, GetSettings().getInt(type + "Attempts", 0),
+                        GetSettings().getInt(type + "Wins", 0),
+                        GetSettings().getInt(type + "Time", -1),
+                        GetSettings().getInt(type + "Score", GameLog.NO_SCORE));
+        editor.remove(type + "Attempts");
+        editor.remove(type + "Wins");
+        editor.remove(type + "Time");
+        editor.remove(type + "Score");
+      }
+    }
+    editor.putBoolean("GameLogImported", true);
+    editor.commit();
   }
 
   public void InitGame(int gameType) {
@@ -136,22 +194,27 @@ public class SolitaireView extends View {
 
     SharedPreferences.Editor editor = GetSettings().edit();
     if (mRules != null) {
+      boolean won = mViewMode == MODE_WIN || mViewMode == MODE_WIN_STOP;
+      UpdateTime();
+      if (mGameStarted && !won) {
+        mGameLog.Add(mRules.GetGameTypeString(), GameLog.RESULT_LOST, mRules.GetSeed(),
+                     mElapsed, mRules.GetScore(), mMoveHistory.Size());
+      }
       if (mRules.HasScore()) {
-        if (mViewMode == MODE_WIN || mViewMode == MODE_WIN_STOP) {
+        if (won) {
           oldScore = mWinningScore;
         } else {
           oldScore = mRules.GetScore();
         }
         oldGameType = mRules.GetGameTypeString();
-        if (oldScore > GetSettings().getInt(mRules.GetGameTypeString() + "Score", -52)) {
-          editor.putInt(mRules.GetGameTypeString() + "Score", oldScore);
-        }
       }
     }
     ChangeViewMode(MODE_NORMAL);
     mTextView.setVisibility(View.INVISIBLE);
-    mMoveHistory.clear();
-    mRules = Rules.CreateRules(gameType, null, this, mMoveHistory, mAnimateCard);
+    mMoveHistory.Clear();
+    mRules = Rules.CreateRules(gameType, null, this, GetGameSettings(), mMoveHistory,
+                               NewSeed(gameType));
+    ((Solitaire)mContext).invalidateOptionsMenu();
     if (oldGameType == mRules.GetGameTypeString()) {
       mRules.SetCarryOverScore(oldScore);
     }
@@ -163,20 +226,79 @@ public class SolitaireView extends View {
       Refresh();
     }
     SetDisplayTime(GetSettings().getBoolean("DisplayTime", true));
+    mNavigator = new HistoryNavigator(mRules, mMoveHistory);
+    mNavigator.Update();
+    mJournal.Snapshot(mRules, mMoveHistory, 0);
     editor.putInt("LastType", gameType);
+    editor.putBoolean("SolitaireSaveValid", true);
     editor.commit();
     mStartTime = SystemClock.uptimeMillis();
     mElapsed = 0;
     mTimePaused = false;
+    mRefreshHandler.StartClock();
     mPaused = false;
     mGameStarted = false;
   }
 
   public SharedPreferences GetSettings() { return ((Solitaire)mContext).GetSettings(); }
+  public GameSettings GetGameSettings() { return new PreferenceSettings(GetSettings()); }
   public DrawMaster GetDrawMaster() { return mDrawMaster; }
   public Rules GetRules() { return mRules; }
+  public GameLog GetGameLog() { return mGameLog; }
+  // Deal number for a new game, one the solver could win if asked for and
+  // the pool has one ready. The player is told when it has none.
+  private long NewSeed(int gameType) {
+    WinnableDeals deals = GetWinnableDeals(gameType);
+    if (deals != null) {
+      Long seed = deals.Take();
+      if (seed != null) {
+        return seed.longValue();
+      }
+      Toast.makeText(mContext, R.string.deal_unchecked, Toast.LENGTH_SHORT).show();
+    }
+    return Deck.NewSeed();
+  }
+
+  // The pool of checked deals for gameType, started if needed. Null if the
+  // player did not ask for winnable deals only.
+  private WinnableDeals GetWinnableDeals(int gameType) {
+    boolean winnableOnly = false;
+    if (gameType == Rules.SOLITAIRE) {
+      winnableOnly = GetSettings().getBoolean("SolitaireWinnableOnly", false);
+    } else if (gameType == Rules.SPIDER) {
+      winnableOnly = GetSettings().getBoolean("SpiderWinnableOnly", false);
+    }
+    GameSettings settings = GetGameSettings();
+    if (mWinnableDeals != null &&
+        (!winnableOnly || !mWinnableDeals.IsFor(gameType, settings))) {
+      mWinnableDeals.Stop();
+      SaveWinnableDeals();
+      mWinnableDeals = null;
+    }
+    if (!winnableOnly) {
+      return null;
+    }
+    if (mWinnableDeals == null) {
+      mWinnableDeals = new WinnableDeals(gameType, settings);
+      mWinnableDeals.Restore(GetSettings().getString("WinnableDeals" + mWinnableDeals.GetKey(),
+                                                     null));
+    }
+    mWinnableDeals.Start();
+    return mWinnableDeals;
+  }
+
+  // Keep the checked deals for the next run, solving them again is slow.
+  private void SaveWinnableDeals() {
+    SharedPreferences.Editor editor = GetSettings().edit();
+    editor.putString("WinnableDeals" + mWinnableDeals.GetKey(), mWinnableDeals.Save());
+    editor.commit();
+  }
+
   public void ClearGameStarted() { mGameStarted = false; }
-  public void SetDisplayTime(boolean displayTime) { mDisplayTime = displayTime; }
+  public void SetDisplayTime(boolean displayTime) {
+    mDisplayTime = displayTime;
+    mRefreshHandler.StartClock();
+  }
 
   public void SetTimePassing(boolean timePassing) {
     if (timePassing == true && (mViewMode == MODE_WIN || mViewMode == MODE_WIN_STOP)) {
@@ -185,7 +307,9 @@ public class SolitaireView extends View {
     if (timePassing == true && mTimePaused == true) {
       mStartTime = SystemClock.uptimeMillis() - mElapsed;
       mTimePaused = false;
+      mRefreshHandler.StartClock();
     } else if (timePassing == false) {
+      UpdateTime();
       mTimePaused = true;
     }
   }
@@ -193,14 +317,25 @@ public class SolitaireView extends View {
   public void UpdateTime() {
     if (!mTimePaused) {
       int elapsed = (int)(SystemClock.uptimeMillis() - mStartTime);
-      if (elapsed / 1000 > mElapsed / 1000) {
+      if (elapsed / 1000 > mElapsed / 1000 && mDisplayTime) {
         Refresh();
       }
       mElapsed = elapsed;
     }
   }
 
+  // Milliseconds until the clock shows the next second, -1 if it is stopped
+  // or hidden.
+  public int TimeToNextSecond() {
+    if (mTimePaused || !mDisplayTime) {
+      return -1;
+    }
+    int elapsed = (int)(SystemClock.uptimeMillis() - mStartTime);
+    return 1000 - elapsed % 1000;
+  }
+
   private void ChangeViewMode(int newMode) {
+    mHint = null;
     switch (mViewMode) {
       case MODE_NORMAL:
         if (newMode != MODE_NORMAL) {
@@ -250,104 +385,40 @@ public class SolitaireView extends View {
 
   public void onPause() {
     mPaused = true;
+    if (mWinnableDeals != null) {
+      mWinnableDeals.Stop();
+      SaveWinnableDeals();
+    }
 
-    if (mRefreshThread != null) {
+    if (mRefreshRunning) {
+      UpdateTime();
       mRefreshHandler.SetRunning(false);
+      mRefreshRunning = false;
       mRules.ClearEvent();
       mRules.SetIgnoreEvents(true);
       mReplay.StopPlaying();
-      try {
-        mRefreshThread.join(1000);
-      } catch (InterruptedException e) {
-      }
-      mRefreshThread = null;
       if (mAnimateCard.GetAnimate()) {
         mAnimateCard.Cancel();
       }
       if (mViewMode != MODE_WIN && mViewMode != MODE_WIN_STOP) {
         ChangeViewMode(MODE_NORMAL);
       }
-
-      if (mRules != null && mRules.GetScore() > GetSettings().getInt(mRules.GetGameTypeString() + "Score", -52)) {
-        SharedPreferences.Editor editor = GetSettings().edit();
-        editor.putInt(mRules.GetGameTypeString() + "Score", mRules.GetScore());
-        editor.commit();
-      }
     }
   }
 
   public void SaveGame() {
     // This is supposed to have been called but I've seen instances where it wasn't.
-    if (mRefreshThread != null) {
+    if (mRefreshRunning) {
       onPause();
     }
 
     if (mRules != null && mViewMode == MODE_NORMAL) {
-      try {
-
-        FileOutputStream fout = mContext.openFileOutput(SAVE_FILENAME, 0);
-        ObjectOutputStream oout = new ObjectOutputStream(fout);
-
-        int cardCount = mRules.GetCardCount();
-        int[] value = new int[cardCount];
-        int[] suit = new int[cardCount];
-        int[] anchorCardCount = new int[mCardAnchor.length];
-        int[] anchorHiddenCount = new int[mCardAnchor.length];
-        int historySize = mMoveHistory.size();
-        int[] historyFrom = new int[historySize];
-        int[] historyToBegin = new int[historySize];
-        int[] historyToEnd = new int[historySize];
-        int[] historyCount = new int[historySize];
-        int[] historyFlags = new int[historySize];
-        Card[] card;
-
-        cardCount = 0;
-        for (int i = 0; i < mCardAnchor.length; i++) {
-          anchorCardCount[i] = mCardAnchor[i].GetCount();
-          anchorHiddenCount[i] = mCardAnchor[i].GetHiddenCount();
-          card = mCardAnchor[i].GetCards();
-          for (int j = 0; j < anchorCardCount[i]; j++, cardCount++) {
-            value[cardCount] = card[j].getValue().ordinal() + 1;
-            suit[cardCount] = card[j].getSuit().ordinal();
-          }
-        }
+      mJournal.Snapshot(mRules, mMoveHistory, mElapsed);
+      mJournal.Flush();
 
-        for (int i = 0; i < historySize; i++) {
-          Move move = mMoveHistory.pop();
-          historyFrom[i] = move.GetFrom();
-          historyToBegin[i] = move.GetToBegin();
-          historyToEnd[i] = move.GetToEnd();
-          historyCount[i] = move.GetCount();
-          historyFlags[i] = move.GetFlags();
-        }
-
-        oout.writeObject(SAVE_VERSION);
-        oout.writeInt(mCardAnchor.length);
-        oout.writeInt(cardCount);
-        oout.writeInt(mRules.GetType());
-        oout.writeObject(anchorCardCount);
-        oout.writeObject(anchorHiddenCount);
-        oout.writeObject(value);
-        oout.writeObject(suit);
-        oout.writeInt(mRules.GetRulesExtra());
-        oout.writeInt(mRules.GetScore());
-        oout.writeInt(mElapsed);
-        oout.writeObject(historyFrom);
-        oout.writeObject(historyToBegin);
-        oout.writeObject(historyToEnd);
-        oout.writeObject(historyCount);
-        oout.writeObject(historyFlags);
-        oout.close();
-
-        SharedPreferences.Editor editor = GetSettings().edit();
-        editor.putBoolean("SolitaireSaveValid", true);
-        editor.commit();
-
-      } catch (FileNotFoundException e) {
-        Log.e("SolitaireView.java", "onStop(): File not found");
-      } catch (IOException e) {
-        Log.e("SolitaireView.java", "onStop(): IOException");
-      }
+      SharedPreferences.Editor editor = GetSettings().edit();
+      editor.putBoolean("SolitaireSaveValid", true);
+      editor.commit();
     }
   }
 
@@ -356,41 +427,29 @@ public class SolitaireView extends View {
     mTimePaused = true;
 
     try {
-      FileInputStream fin = mContext.openFileInput(SAVE_FILENAME);
-      ObjectInputStream oin = new ObjectInputStream(fin);
-      
-      String version = (String)oin.readObject();
-      if (!version.equals(SAVE_VERSION)) {
-        Log.e("SolitaireView.java", "Invalid save version");
+      if (!mSaveFile.Read(new File(mContext.getFilesDir(), SAVE_FILENAME), mMoveHistory)) {
+        Log.e("SolitaireView.java", "Invalid save");
         return false;
       }
-      Bundle map = new Bundle();
-        
-      map.putInt("cardAnchorCount", oin.readInt());
-      map.putInt("cardCount", oin.readInt());
-      int type = oin.readInt();
-      map.putIntArray("anchorCardCount", (int[])oin.readObject());
-      map.putIntArray("anchorHiddenCount", (int[])oin.readObject());
-      map.putIntArray("value", (int[])oin.readObject());
-      map.putIntArray("suit", (int[])oin.readObject());
-      map.putInt("rulesExtra", oin.readInt());
-      map.putInt("score", oin.readInt());
-      mElapsed = oin.readInt();
+      int type = mSaveFile.GetType();
+      mElapsed = mSaveFile.GetElapsed();
       mStartTime = SystemClock.uptimeMillis() - mElapsed;
-      int[] historyFrom = (int[])oin.readObject();
-      int[] historyToBegin = (int[])oin.readObject();
-      int[] historyToEnd = (int[])oin.readObject();
-      int[] historyCount = (int[])oin.readObject();
-      int[] historyFlags = (int[])oin.readObject();
-      for (int i = historyFrom.length - 1; i >= 0; i--) {
-        mMoveHistory.push(new Move(historyFrom[i], historyToBegin[i], historyToEnd[i],
-                                   historyCount[i], historyFlags[i]));
-      }
-
-      oin.close();
 
-      mGameStarted = !mMoveHistory.isEmpty();
-      mRules = Rules.CreateRules(type, map, this, mMoveHistory, mAnimateCard);
+      mRules = Rules.CreateRules(type, mSaveFile.GetState(), this, GetGameSettings(),
+                                 mMoveHistory);
+      if (mRules == null) {
+        throw new IOException("unknown game type " + type);
+      }
+      ((Solitaire)mContext).invalidateOptionsMenu();
+      // Moves made after the save, if the process was killed before onStop.
+      mJournal.Replay(mRules, mSaveFile.GetCrc());
+      mJournal.Snapshot(mRules, mMoveHistory, mElapsed);
+      mNavigator = new HistoryNavigator(mRules, mMoveHistory);
+      mNavigator.Update();
+      SharedPreferences.Editor editor = GetSettings().edit();
+      editor.putBoolean("SolitaireSaveValid", true);
+      editor.commit();
+      mGameStarted = !mMoveHistory.IsEmpty();
       Card.SetSize(type);
       SetDisplayTime(GetSettings().getBoolean("DisplayTime", true));
       mCardAnchor = mRules.GetAnchorArray();
@@ -399,35 +458,38 @@ public class SolitaireView extends View {
         Refresh();
       }
       mTimePaused = false;
+      mRefreshHandler.StartClock();
       return true;
-      
-    } catch (FileNotFoundException e) {
-      Log.e("SolitaireView.java", "LoadSave(): File not found");
-    } catch (StreamCorruptedException e) {
-      Log.e("SolitaireView.java", "LoadSave(): Stream Corrupted");
+
     } catch (IOException e) {
-      Log.e("SolitaireView.java", "LoadSave(): IOException");
-    } catch (ClassNotFoundException e) {
-      Log.e("SolitaireView.java", "LoadSave(): Class not found exception");
+      Log.e("SolitaireView.java", "LoadSave(): " + e);
     }
     mTimePaused = false;
+    mRefreshHandler.StartClock();
     mPaused = false;
     return false;
   }
 
   public void onResume() {
     mStartTime = SystemClock.uptimeMillis() - mElapsed;
+    mRefreshRunning = true;
     mRefreshHandler.SetRunning(true);
-    mRefreshThread = new Thread(mRefreshHandler);
-    mRefreshThread.start();
     mRules.SetIgnoreEvents(false);
     mPaused = false;
+    GetWinnableDeals(mRules.GetType());
   }
 
   public void Refresh() {
     mRefreshHandler.SingleRefresh();
   }
 
+  // Whatever the budget leaves over is picked up on the next frame.
+  private void HandleEvents() {
+    if (mRules.HandleEvents(EVENT_BUDGET_MS)) {
+      Refresh();
+    }
+  }
+
   public void SetTextView(TextView textView) {
     mTextView = textView;
   }
@@ -456,12 +518,30 @@ public class SolitaireView extends View {
   }
 
   public void RestartGame() {
+    JumpToMove(0);
+  }
+
+  // Undo or redo until moveCount moves of the game are done. Undone moves
+  // can be redone until a new move is made.
+  public void JumpToMove(int moveCount) {
+    if (mViewMode != MODE_NORMAL && mViewMode != MODE_WIN) {
+      return;
+    }
+    boolean oldIgnore = mRules.GetIgnoreEvents();
     mRules.SetIgnoreEvents(true);
-    while (!mMoveHistory.empty()) {
-      Undo();
+
+    mMoveCard.Release();
+    mSelectCard.Release();
+    mHint = null;
+
+    if (mNavigator.JumpTo(moveCount)) {
+      Refresh();
     }
-    mRules.SetIgnoreEvents(false);
-    Refresh();
+    mRules.SetIgnoreEvents(oldIgnore);
+  }
+
+  public void Redo() {
+    JumpToMove(mNavigator.GetPosition() + 1);
   }
 
   public void DisplayText(CharSequence text) {
@@ -471,12 +551,9 @@ public class SolitaireView extends View {
     Refresh();
   }
 
+  // Repaints the anchors that changed since the board was last drawn.
   public void DrawBoard() {
-    Canvas boardCanvas = mDrawMaster.GetBoardCanvas();
-    mDrawMaster.DrawBackground(boardCanvas);
-    for (int i = 0; i < mCardAnchor.length; i++) {
-      mCardAnchor[i].Draw(mDrawMaster, boardCanvas);
-    }
+    mDrawMaster.DrawBoard(mCardAnchor);
   }
 
   @Override
@@ -498,10 +575,10 @@ public class SolitaireView extends View {
 
     switch (mViewMode) {
       case MODE_MOVE_CARD:
-        mMoveCard.Draw(mDrawMaster, canvas);
+        mDrawMaster.DrawMoveCard(canvas, mMoveCard);
         break;
       case MODE_CARD_SELECT:
-        mSelectCard.Draw(mDrawMaster, canvas);
+        mDrawMaster.DrawSelectCard(canvas, mSelectCard);
         break;
       case MODE_WIN:
         if (mReplay.IsPlaying()) {
@@ -513,9 +590,16 @@ public class SolitaireView extends View {
         break;
       case MODE_ANIMATE:
         mAnimateCard.Draw(mDrawMaster, canvas);
+        break;
+      case MODE_NORMAL:
+        if (mHint != null) {
+          mDrawMaster.DrawHint(canvas, mCardAnchor[mHint.GetFrom()], mHint.GetCount(),
+                               mCardAnchor[mHint.GetToBegin()]);
+        }
+        break;
     }
 
-    mRules.HandleEvents();
+    HandleEvents();
   }
   
   @Override
@@ -527,6 +611,7 @@ public class SolitaireView extends View {
       if (mViewMode == MODE_TEXT) {
         ChangeViewMode(MODE_NORMAL);
       } else if (mViewMode == MODE_NORMAL) {
+        mHint = null;
         mRules.EventAlert(Rules.EVENT_DEAL, mCardAnchor[0]);
         Refresh();
       }
@@ -534,19 +619,55 @@ public class SolitaireView extends View {
     case KeyEvent.KEYCODE_BACK:
       Undo();
       return true;
+    case KeyEvent.KEYCODE_DPAD_LEFT:
+      JumpToMove(mNavigator.GetPosition() - 1);
+      return true;
+    case KeyEvent.KEYCODE_DPAD_RIGHT:
+      Redo();
+      return true;
     }
-    mRules.HandleEvents();
+    HandleEvents();
     return super.onKeyDown(keyCode, msg);
   }
   
+  // Outline the move the rules suggest until the next touch. The search
+  // runs on a copy of the board off the UI thread, the hint is dropped if
+  // the board changed before it was found.
+  public void DisplayHint() {
+    if (mViewMode != MODE_NORMAL) {
+      return;
+    }
+    Board board = Board.FromAnchors(mCardAnchor, mRules.GetCardCount());
+    final long hash = board.Hash();
+    final int type = mRules.GetType();
+    final GameState state = board.ToState(mRules.GetRulesExtra(), mRules.GetScore(),
+                                          mRules.GetSeed());
+    final GameSettings settings = GetGameSettings();
+    mHintExecutor.execute(new Runnable() {
+      public void run() {
+        final Move hint = new HeadlessGame(type, state, settings).GetRules().GetHint();
+        post(new Runnable() {
+          public void run() {
+            if (mViewMode == MODE_NORMAL && type == mRules.GetType() &&
+                hash == Board.FromAnchors(mCardAnchor, mRules.GetCardCount()).Hash()) {
+              mHint = hint;
+              Refresh();
+            }
+          }
+        });
+      }
+    });
+  }
+
   public void dealGame() {
     if (mViewMode == MODE_TEXT) {
       ChangeViewMode(MODE_NORMAL);
     } else if (mViewMode == MODE_NORMAL) {
+      mHint = null;
       mRules.EventAlert(Rules.EVENT_DEAL, mCardAnchor[0]);
       Refresh();
     }
-    mRules.HandleEvents();
+    HandleEvents();
   }
 
   @Override
@@ -574,6 +695,14 @@ public class SolitaireView extends View {
 
     switch (event.getAction()) {
       case MotionEvent.ACTION_DOWN:
+        mHint = null;
+        if (mViewMode == MODE_NORMAL) {
+          mNavigator.Update();
+          if (mJournal.NeedsSnapshot()) {
+            UpdateTime();
+            mJournal.Snapshot(mRules, mMoveHistory, mElapsed);
+          }
+        }
         mHasMoved = false;
         mSpeed.Reset();
         ret = onDown(event.getX(), event.getY());
@@ -593,12 +722,12 @@ public class SolitaireView extends View {
     }
     mLastPoint.set(event.getX(), event.getY());
 
-    if (!mGameStarted && !mMoveHistory.empty()) {
+    if (!mGameStarted && !mMoveHistory.IsEmpty()) {
       mGameStarted = true;
       MarkAttempt();
     }
 
-    mRules.HandleEvents();
+    HandleEvents();
     return ret;
   }
 
@@ -619,24 +748,20 @@ public class SolitaireView extends View {
         }
         break;
       case MODE_MOVE_CARD:
-        for (int close = 0; close < 2; close++) {
+        CardAnchor dropAnchor = mRules.GetDropAnchor(mMoveCard);
+        if (dropAnchor != null) {
           CardAnchor prevAnchor = mMoveCard.GetAnchor();
           boolean unhide = (prevAnchor.GetVisibleCount() == 0 &&
                             prevAnchor.GetCount() > 0);
           int count = mMoveCard.GetCount();
 
-          for (int i = 0; i < mCardAnchor.length; i++) {
-            if (mCardAnchor[i] != prevAnchor) {
-              if (mCardAnchor[i].CanDropCard(mMoveCard, close)) {
-                mMoveHistory.push(new Move(prevAnchor.GetNumber(), i, count, false, unhide));
-                mCardAnchor[i].AddMoveCard(mMoveCard);
-                if (mViewMode == MODE_MOVE_CARD) {
-                  ChangeViewMode(MODE_NORMAL);
-                }
-                return true;
-              }
-            }
+          mMoveHistory.Push(prevAnchor.GetNumber(), dropAnchor.GetNumber(), count, false,
+                            unhide);
+          dropAnchor.AddMoveCard(mMoveCard);
+          if (mViewMode == MODE_MOVE_CARD) {
+            ChangeViewMode(MODE_NORMAL);
           }
+          return true;
         }
         if (!mMoveCard.HasMoved()) {
           CardAnchor anchor = mMoveCard.GetAnchor();
@@ -751,13 +876,33 @@ public class SolitaireView extends View {
   }
 
   public void StopAnimating() {
-    if (mViewMode == MODE_ANIMATE) {
+    if (mViewMode == MODE_ANIMATE && !mAnimateCard.GetAnimate()) {
       ChangeViewMode(MODE_NORMAL);
     } else if (mViewMode == MODE_WIN) {
       ChangeViewMode(MODE_WIN_STOP);
     }
   }
 
+  public void AnimateMove(Card card, CardAnchor anchor) {
+    mAnimateCard.MoveCard(card, anchor);
+  }
+
+  public void AnimateDeal(Card[] card, CardAnchor[] anchor, int count) {
+    mAnimateCard.DealCards(card, anchor, count);
+  }
+
+  // Let the rules react to a landed card before the next one lands.
+  public void CardLanded() {
+    HandleEvents();
+  }
+
+  // The last card in the air landed without the rules starting another move.
+  public void AnimationDone() {
+    if (mViewMode == MODE_ANIMATE) {
+      ChangeViewMode(MODE_NORMAL);
+    }
+  }
+
   public void Undo() {
     if (mViewMode != MODE_NORMAL && mViewMode != MODE_WIN) {
       return;
@@ -767,75 +912,35 @@ public class SolitaireView extends View {
 
     mMoveCard.Release();
     mSelectCard.Release();
+    mHint = null;
 
-    if (!mMoveHistory.empty()) {
-      Move move = mMoveHistory.pop();
-      int count = 0;
-      int from = move.GetFrom();
-      if (move.GetToBegin() != move.GetToEnd()) {
-        for (int i = move.GetToBegin(); i <= move.GetToEnd(); i++) {
-          for (int j = 0; j < move.GetCount(); j++) {
-            mUndoStorage[count++] = mCardAnchor[i].PopCard();
-          }
-        }
-      } else {
-        for (int i = 0; i < move.GetCount(); i++) {
-          mUndoStorage[count++] = mCardAnchor[move.GetToBegin()].PopCard();
-        }
-      }
-      if (move.GetUnhide()) {
-        mCardAnchor[from].SetHiddenCount(mCardAnchor[from].GetHiddenCount() + 1);
-      }
-      if (move.GetInvert()) {
-        for (int i = 0; i < count; i++) {
-          mCardAnchor[from].AddCard(mUndoStorage[i]);
-        }
-      } else {
-        for (int i = count-1; i >= 0; i--) {
-          mCardAnchor[from].AddCard(mUndoStorage[i]);
-        }
-      }
-      if (move.GetAddDealCount()) {
-        mRules.AddDealCount();
-      }
-      if (mUndoStorage[0].getValue() == ValueEnum.ACE) {
-        for (int i = 0; i < mCardAnchor[from].GetCount(); i++) {
-          Card card = mCardAnchor[from].GetCards()[i];
-        }
-      }
+    if (mRules.Undo()) {
       Refresh();
     }
     mRules.SetIgnoreEvents(oldIgnore);
   }
 
   private void MarkAttempt() {
-    String gameAttemptString = mRules.GetGameTypeString() + "Attempts";
-    int attempts = GetSettings().getInt(gameAttemptString, 0);
-    SharedPreferences.Editor editor = GetSettings().edit();
-    editor.putInt(gameAttemptString, attempts + 1);
-    editor.commit();
-  }      
+    mGameLog.Add(mRules.GetGameTypeString(), GameLog.RESULT_STARTED, mRules.GetSeed(),
+                 0, mRules.GetScore(), 0);
+  }
 
   private void MarkWin() {
-    String gameWinString = mRules.GetGameTypeString() + "Wins";
-    String gameTimeString = mRules.GetGameTypeString() + "Time";
-    int wins = GetSettings().getInt(gameWinString, 0);
-    int bestTime = GetSettings().getInt(gameTimeString, -1);
+    mJournal.Stop();
     SharedPreferences.Editor editor = GetSettings().edit();
-
-    if (bestTime == -1 || mElapsed < bestTime) {
-      editor.putInt(gameTimeString, mElapsed);
-    }
-
-    editor.putInt(gameWinString, wins + 1);
+    editor.putBoolean("SolitaireSaveValid", false);
     editor.commit();
+    if (!mGameStarted) {
+      mGameStarted = true;
+      MarkAttempt();
+    }
     if (mRules.HasScore()) {
       mWinningScore = mRules.GetScore();
-      if (mWinningScore > GetSettings().getInt(mRules.GetGameTypeString() + "Score", -52)) {
-        editor.putInt(mRules.GetGameTypeString() + "Score", mWinningScore);
-      }
     }
-  }      
+    UpdateTime();
+    mGameLog.Add(mRules.GetGameTypeString(), GameLog.RESULT_WON, mRules.GetSeed(),
+                 mElapsed, mRules.GetScore(), mMoveHistory.Size());
+  }
 
   // Simple function to check for a consistent state in Solitaire.
   private void SanityCheck() {
@@ -845,29 +950,13 @@ public class SolitaireView extends View {
     
     Map<SuiteEnum, int[]> cards = new TreeMap<Card.SuiteEnum, int[]>();
     
-    String type = mRules.GetGameTypeString();
-    if (type == "Spider1Suit") {
-      cards.put(SuiteEnum.CLUBS, new int[13]);
-    } else if (type == "Spider2Suit") {
-      cards.put(SuiteEnum.CLUBS, new int[13]);
-      cards.put(SuiteEnum.DIAMONDS, new int[13]);
-    } else {
-      cards.put(SuiteEnum.CLUBS, new int[13]);
-      cards.put(SuiteEnum.DIAMONDS, new int[13]);
-      cards.put(SuiteEnum.SPADES, new int[13]);
-      cards.put(SuiteEnum.HEARTS, new int[13]);
-    }
-    if (type == "Spider1Suit") {
-      matchCount = 8;
-    } else if (type == "Spider2Suit") {
-      matchCount = 4;
-    } else if (type == "Spider4Suit") {
-      matchCount = 2;
-    } else if (type == "Forty Thieves") {
-      matchCount = 2;
-    } else {
-      matchCount = 1;
+    int suits = mRules.GetSuitCount();
+    for (SuiteEnum suite : SuiteEnum.values()) {
+      if (suite.ordinal() < suits) {
+        cards.put(suite, new int[13]);
+      }
     }
+    matchCount = mRules.GetCardCount() / (13 * suits);
 
     for (SuiteEnum suite : cards.keySet()) {
       //int[] cards = new int[cardCount];
@@ -879,7 +968,8 @@ public class SolitaireView extends View {
       for (int j = 0; j < mCardAnchor[i].GetCount(); j++) {
         Card card = mCardAnchor[i].GetCards()[j];
         int idx = card.getValue().ordinal();
-        if (cards.get(card.getSuit())[idx] >= matchCount) {
+        if (!cards.containsKey(card.getSuit()) ||
+            cards.get(card.getSuit())[idx] >= matchCount) {
           mTextView.setTextSize(20);
           mTextView.setGravity(Gravity.CENTER);
           DisplayText("Sanity Check Failed\nExtra: " + card.getValue() + " " +card.getSuit());
@@ -907,55 +997,172 @@ public class SolitaireView extends View {
   }
 }
 
-class RefreshHandler implements Runnable {
+// Schedules the frames of the view on the UI thread. Frames run on vsync
+// only while a refresh is wanted: every frame while cards are animated or
+// dragged, one frame for a single change. The clock asks for a frame when
+// its second changes, nothing runs while the board is idle or paused.
+class RefreshHandler {
   public static final int NO_REFRESH = 1;
   public static final int SINGLE_REFRESH = 2;
   public static final int LOCK_REFRESH = 3;
 
-  private static final int FPS = 30;
+  // Spacing of locked frames when there is no vsync to wait on, in ms.
+  private static final int FRAME_MS = 16;
 
+  private final SolitaireView mView;
+  private final Handler mHandler;
+  private final VsyncFrames mVsync;
+  private final Runnable mFrame;
+  private final Runnable mTick;
+  private final Runnable mSingleRefresh;
+  // Only used on the UI thread, other threads post their refresh to it.
   private boolean mRun;
   private int mRefresh;
-  private SolitaireView mView;
+  private boolean mFrameScheduled;
+  private boolean mInFrame;
 
   public RefreshHandler(SolitaireView solitaireView) {
     mView = solitaireView;
+    mHandler = new Handler(Looper.getMainLooper());
+    mVsync = Build.VERSION.SDK_INT >= 16 ? new VsyncFrames(this) : null;
+    mFrame = new Runnable() {
+      public void run() {
+        Frame();
+      }
+    };
+    mTick = new Runnable() {
+      public void run() {
+        mView.UpdateTime();
+        StartClock();
+      }
+    };
+    mSingleRefresh = new Runnable() {
+      public void run() {
+        SingleRefresh();
+      }
+    };
     mRun = true;
     mRefresh = NO_REFRESH;
   }
 
   public void SetRefresh(int refresh) {
-    synchronized (this) {
-      mRefresh = refresh;
+    mRefresh = refresh;
+    if (refresh != NO_REFRESH) {
+      ScheduleFrame(0);
     }
   }
 
+  // Safe from any thread.
   public void SingleRefresh() {
-    synchronized (this) {
-      if (mRefresh == NO_REFRESH) {
-        mRefresh = SINGLE_REFRESH;
-      }
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      mHandler.post(mSingleRefresh);
+      return;
     }
+    if (mRefresh == NO_REFRESH) {
+      mRefresh = SINGLE_REFRESH;
+    }
+    ScheduleFrame(0);
   }
 
   public void SetRunning(boolean run) {
     mRun = run;
+    if (run) {
+      ScheduleFrame(0);
+      StartClock();
+    } else {
+      if (mFrameScheduled) {
+        if (mVsync != null) {
+          mVsync.Remove();
+        } else {
+          mHandler.removeCallbacks(mFrame);
+        }
+        mFrameScheduled = false;
+      }
+      mHandler.removeCallbacks(mTick);
+    }
   }
 
-  public void run() {
-    while (mRun) {
-      try {
-        Thread.sleep(1000 / FPS);
-      } catch (InterruptedException e) {
-      }
-      mView.UpdateTime();
-      if (mRefresh != NO_REFRESH) {
-        mView.postInvalidate();
-        if (mRefresh == SINGLE_REFRESH) {
-          SetRefresh(NO_REFRESH);
-        }
+  // Wake up when the shown second of the clock changes.
+  public void StartClock() {
+    mHandler.removeCallbacks(mTick);
+    int delay = mView.TimeToNextSecond();
+    if (mRun && delay >= 0) {
+      mHandler.postDelayed(mTick, delay);
+    }
+  }
+
+  // The next vsync, or delay ms on the handler where there is no vsync.
+  private void ScheduleFrame(long delay) {
+    if (!mRun || mFrameScheduled || mInFrame || mRefresh == NO_REFRESH) {
+      return;
+    }
+    mFrameScheduled = true;
+    if (mVsync != null) {
+      mVsync.Post();
+    } else {
+      mHandler.postDelayed(mFrame, delay);
+    }
+  }
+
+  void Frame() {
+    mFrameScheduled = false;
+    if (!mRun) {
+      return;
+    }
+    mInFrame = true;
+    mView.UpdateTime();
+    int refresh = mRefresh;
+    if (refresh != NO_REFRESH) {
+      mView.invalidate();
+      if (refresh == SINGLE_REFRESH) {
+        mRefresh = NO_REFRESH;
       }
     }
+    mInFrame = false;
+    if (mRefresh != NO_REFRESH) {
+      // Animations are timed by the clock, so a locked refresh draws on
+      // every vsync.
+      ScheduleFrame(mRefresh == LOCK_REFRESH ? FRAME_MS : 0);
+    }
+  }
+
+  // Choreographer is only there from Jelly Bean on, kept in a class of its
+  // own so older platforms never load it.
+  private static class VsyncFrames implements Choreographer.FrameCallback {
+    private final RefreshHandler mRefreshHandler;
+
+    public VsyncFrames(RefreshHandler refreshHandler) {
+      mRefreshHandler = refreshHandler;
+    }
+
+    public void Post() {
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void Remove() {
+      Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    public void doFrame(long frameTimeNanos) {
+      mRefreshHandler.Frame();
+    }
+  }
+}
+
+// Hands the user preferences to the rules.
+class PreferenceSettings implements GameSettings {
+  private SharedPreferences mPreferences;
+
+  public PreferenceSettings(SharedPreferences preferences) {
+    mPreferences = preferences;
+  }
+
+  public boolean getBoolean(String key, boolean defValue) {
+    return mPreferences.getBoolean(key, defValue);
+  }
+
+  public int getInt(String key, int defValue) {
+    return mPreferences.getInt(key, defValue);
   }
 }
 
@@ -0,0 +1,417 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Solver for the Spider rules with one, two or four suits.
+ *
+ * Best first search knowing the face down cards and the stock. Positions
+ * are scored by face down cards, cards out of suited order and cards still
+ * in the stock. Dealing ten cards is a move like any other and completed
+ * runs go to anchor 11 as the rules do. Positions seen are kept in a fixed
+ * size SearchCache and the search stops after a number of positions, so
+ * memory has a fixed bound.
+ *
+ * Moves use the Spider anchor numbers: 0-9 tableau and 10 the stock, the
+ * removal of completed runs is not listed as the rules do it on their own.
+ * Play them with HeadlessGame.Play().
+ *
+ * A solver is not thread safe.
+ */
+public class SpiderSolver {
+
+  public static final int DEFAULT_NODE_LIMIT = 100000;
+  public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+
+  private static final int COLUMNS = 10;
+  private static final int STOCK = 10;
+  private static final int CARDS = 104;
+  private static final int DEAL = -1;
+
+  // Packed position: column counts, hidden counts, stock count, runs
+  // removed and then the column cards.
+  private static final int STATE_COUNT = 0;
+  private static final int STATE_HIDDEN = 10;
+  private static final int STATE_STOCK = 20;
+  private static final int STATE_REMOVED = 21;
+  private static final int STATE_CARDS = 22;
+  private static final int STATE_SIZE = STATE_CARDS + CARDS;
+
+  private final int mNodeLimit;
+  private final SearchCache mSeen;
+  private final SearchQueue mOpen;
+
+  // The stock never changes order, positions only keep its size.
+  private final int[] mStock;
+
+  private byte[] mState;
+  private int[] mParent;
+  private int[] mMove;
+  private int[] mDepth;
+  private int mNodeCount;
+
+  private final Position mBase;
+  private final Position mChild;
+
+  public SpiderSolver() {
+    this(DEFAULT_NODE_LIMIT, DEFAULT_CACHE_SIZE);
+  }
+
+  public SpiderSolver(int nodeLimit, int cacheSize) {
+    mNodeLimit = nodeLimit;
+    mSeen = new SearchCache(cacheSize);
+    mOpen = new SearchQueue(1024);
+    mStock = new int[CARDS];
+    mState = new byte[1024 * STATE_SIZE];
+    mParent = new int[1024];
+    mMove = new int[1024];
+    mDepth = new int[1024];
+    mBase = new Position();
+    mChild = new Position();
+  }
+
+  /**
+   * Solve the Spider board, which is not changed.
+   *
+   * @return the moves to win, null if none was found within the node limit.
+   */
+  public List<Move> Solve(Board board) {
+    mNodeCount = 0;
+    mSeen.Clear();
+    mOpen.Clear();
+
+    for (int i = 0; i < board.GetCount(STOCK); i++) {
+      mStock[i] = board.GetCard(STOCK, i);
+    }
+    mChild.FromBoard(board);
+    mSeen.Add(mChild.Hash());
+    int root = AddNode(-1, 0, 0);
+    if (mChild.IsWon()) {
+      return GetMoves(root);
+    }
+    mOpen.Add(root, mChild.GetEstimate());
+
+    while (!mOpen.IsEmpty() && mNodeCount < mNodeLimit) {
+      int node = mOpen.Poll();
+      mBase.Decode(mState, node * STATE_SIZE);
+      int won = Expand(node);
+      if (won >= 0) {
+        return GetMoves(won);
+      }
+    }
+    return null;
+  }
+
+  // Number of positions the last Solve() stored.
+  public int GetNodeCount() { return mNodeCount; }
+
+  // ==========================================================================
+  // Search
+  // ------
+  private int Expand(int node) {
+    Position pos = mBase;
+    int firstEmpty = -1;
+    for (int i = 0; i < COLUMNS; i++) {
+      if (pos.mCount[i] == 0) {
+        firstEmpty = i;
+        break;
+      }
+    }
+
+    for (int i = 0; i < COLUMNS; i++) {
+      int visible = pos.mCount[i] - pos.mHidden[i];
+      if (visible == 0) {
+        continue;
+      }
+      int run = pos.RunLength(i);
+      int top = pos.Top(i);
+      for (int j = 0; j < COLUMNS; j++) {
+        if (j == i) {
+          continue;
+        }
+        if (pos.mCount[j] == 0) {
+          // Whole runs, or parts of them, to the first empty column. Moving
+          // a whole column over gains nothing.
+          if (j == firstEmpty) {
+            for (int count = run; count >= 1; count--) {
+              if (count == pos.mCount[i]) {
+                continue;
+              }
+              int ret = TryMove(node, i, j, count);
+              if (ret != -1) return ret;
+            }
+          }
+          continue;
+        }
+        int target = pos.Top(j);
+        int count = Board.Rank(target) - Board.Rank(top);
+        if (count < 1 || count > run) {
+          continue;
+        }
+        // Splitting a suited run onto another column leaves a card of the
+        // same rank and suit, which gains nothing.
+        if (count < run) {
+          continue;
+        }
+        boolean sameSuit = Board.Suit(target) == Board.Suit(top);
+        // Moving off a card it already fits on only helps if it goes onto
+        // its own suit, turns a card or empties the column.
+        int below = pos.mCount[i] - count - 1;
+        if (below >= pos.mHidden[i] && below >= 0 && !sameSuit &&
+            Board.Rank(pos.mCard[i][below]) == Board.Rank(pos.mCard[i][below + 1]) + 1) {
+          continue;
+        }
+        int ret = TryMove(node, i, j, count);
+        if (ret != -1) return ret;
+      }
+    }
+
+    if (pos.mStockCount > 0) {
+      int ret = TryMove(node, DEAL, 0, 0);
+      if (ret != -1) return ret;
+    }
+    return -1;
+  }
+
+  // Add the child reached by a move from node unless it was seen already.
+  // Returns the child if it is won, -2 if the node limit was hit, else -1.
+  private int TryMove(int node, int from, int to, int count) {
+    if (mNodeCount >= mNodeLimit) {
+      return -2;
+    }
+    mChild.CopyFrom(mBase);
+    int move;
+    if (from == DEAL) {
+      int dealt = mChild.Deal(mStock);
+      move = STOCK | (dealt << 8);
+    } else {
+      boolean unhide = mChild.Move(from, to, count);
+      move = from | (to << 4) | (count << 8) | (unhide ? 1 << 16 : 0);
+    }
+    if (!mSeen.Add(mChild.Hash())) {
+      return -1;
+    }
+    int child = AddNode(node, mDepth[node] + 1, move);
+    if (mChild.IsWon()) {
+      return child;
+    }
+    mOpen.Add(child, mChild.GetEstimate() + mDepth[child]);
+    return -1;
+  }
+
+  private int AddNode(int parent, int depth, int move) {
+    int node = mNodeCount++;
+    if (node == mParent.length) {
+      int size = node * 2;
+      mState = Arrays.copyOf(mState, size * STATE_SIZE);
+      mParent = Arrays.copyOf(mParent, size);
+      mMove = Arrays.copyOf(mMove, size);
+      mDepth = Arrays.copyOf(mDepth, size);
+    }
+    mChild.Encode(mState, node * STATE_SIZE);
+    mParent[node] = parent;
+    mMove[node] = move;
+    mDepth[node] = depth;
+    return node;
+  }
+
+  private List<Move> GetMoves(int node) {
+    List<Move> ret = new ArrayList<Move>();
+    for (; mParent[node] >= 0; node = mParent[node]) {
+      int move = mMove[node];
+      int from = move & 0xF;
+      int count = (move >> 8) & 0xFF;
+      if (from == STOCK) {
+        // Recorded like the rules record a deal.
+        ret.add(new Move(STOCK, 0, count - 1, 1, false, false));
+      } else {
+        ret.add(new Move(from, (move >> 4) & 0xF, count, false, (move >> 16) != 0));
+      }
+    }
+    Collections.reverse(ret);
+    return ret;
+  }
+
+  // ==========================================================================
+  // Position
+  // --------
+  private static class Position {
+    final int[] mCount = new int[COLUMNS];
+    final int[] mHidden = new int[COLUMNS];
+    final int[][] mCard = new int[COLUMNS][CARDS];
+    int mStockCount;
+    int mRemoved;
+
+    void FromBoard(Board board) {
+      for (int i = 0; i < COLUMNS; i++) {
+        mCount[i] = board.GetCount(i);
+        mHidden[i] = board.GetHiddenCount(i);
+        for (int j = 0; j < mCount[i]; j++) {
+          mCard[i][j] = board.GetCard(i, j);
+        }
+      }
+      mStockCount = board.GetCount(STOCK);
+      mRemoved = board.GetCount(STOCK + 1) / Board.RANK_COUNT;
+    }
+
+    void CopyFrom(Position other) {
+      System.arraycopy(other.mCount, 0, mCount, 0, COLUMNS);
+      System.arraycopy(other.mHidden, 0, mHidden, 0, COLUMNS);
+      for (int i = 0; i < COLUMNS; i++) {
+        System.arraycopy(other.mCard[i], 0, mCard[i], 0, other.mCount[i]);
+      }
+      mStockCount = other.mStockCount;
+      mRemoved = other.mRemoved;
+    }
+
+    void Encode(byte[] data, int offset) {
+      int idx = offset + STATE_CARDS;
+      for (int i = 0; i < COLUMNS; i++) {
+        data[offset + STATE_COUNT + i] = (byte)mCount[i];
+        data[offset + STATE_HIDDEN + i] = (byte)mHidden[i];
+        for (int j = 0; j < mCount[i]; j++) {
+          data[idx++] = (byte)mCard[i][j];
+        }
+      }
+      data[offset + STATE_STOCK] = (byte)mStockCount;
+      data[offset + STATE_REMOVED] = (byte)mRemoved;
+    }
+
+    void Decode(byte[] data, int offset) {
+      int idx = offset + STATE_CARDS;
+      for (int i = 0; i < COLUMNS; i++) {
+        mCount[i] = data[offset + STATE_COUNT + i];
+        mHidden[i] = data[offset + STATE_HIDDEN + i];
+        for (int j = 0; j < mCount[i]; j++) {
+          mCard[i][j] = data[idx++];
+        }
+      }
+      mStockCount = data[offset + STATE_STOCK];
+      mRemoved = data[offset + STATE_REMOVED];
+    }
+
+    // Each column is hashed in order, the columns are added up so their
+    // order does not matter. Adding keeps the two copies of a card apart
+    // where xor would cancel them out.
+    long Hash() {
+      long hash = mStockCount * 0x9E3779B97F4A7C15L;
+      for (int i = 0; i < COLUMNS; i++) {
+        long column = mHidden[i] + 1;
+        for (int j = 0; j < mCount[i]; j++) {
+          column = (column ^ mCard[i][j]) * 0x100000001B3L;
+        }
+        column ^= column >>> 29;
+        column *= 0xBF58476D1CE4E5B9L;
+        column ^= column >>> 32;
+        hash += column;
+      }
+      return hash;
+    }
+
+    boolean IsWon() { return mRemoved * Board.RANK_COUNT == CARDS; }
+
+    int Top(int column) { return mCard[column][mCount[column] - 1]; }
+
+    // Length of the face up suited run on top of column.
+    int RunLength(int column) {
+      int[] card = mCard[column];
+      int visible = mCount[column] - mHidden[column];
+      int ret = 1;
+      for (int i = mCount[column] - 2; ret < visible && IsSuited(card[i + 1], card[i]); i--) {
+        ret++;
+      }
+      return ret;
+    }
+
+    // Every column costs six, a face down card five, a card in the stock
+    // three. A card not on its suited successor costs three, four if the
+    // rank is wrong too, and two more while the column has face down cards
+    // as each run is in the way of turning them.
+    int GetEstimate() {
+      int ret = mStockCount * 3;
+      for (int i = 0; i < COLUMNS; i++) {
+        if (mCount[i] == 0) {
+          continue;
+        }
+        ret += 6 + mHidden[i] * 5;
+        int breaks = 0;
+        for (int j = mHidden[i] + 1; j < mCount[i]; j++) {
+          int card = mCard[i][j];
+          int under = mCard[i][j - 1];
+          if (Board.Rank(card) + 1 != Board.Rank(under)) {
+            ret += 4;
+            breaks++;
+          } else if (Board.Suit(card) != Board.Suit(under)) {
+            ret += 3;
+            breaks++;
+          }
+        }
+        if (mHidden[i] > 0) {
+          ret += breaks * 2;
+        }
+      }
+      return ret;
+    }
+
+    // Returns true if a face down card was turned.
+    boolean Move(int from, int to, int count) {
+      mCount[from] -= count;
+      System.arraycopy(mCard[from], mCount[from], mCard[to], mCount[to], count);
+      mCount[to] += count;
+      boolean ret = Unhide(from);
+      RemoveRun(to);
+      return ret;
+    }
+
+    // Deal a card on every column, returns the number of cards dealt.
+    int Deal(int[] stock) {
+      int count = Math.min(COLUMNS, mStockCount);
+      for (int i = 0; i < count; i++) {
+        mCard[i][mCount[i]++] = stock[--mStockCount];
+        RemoveRun(i);
+      }
+      return count;
+    }
+
+    private boolean Unhide(int column) {
+      if (mHidden[column] > 0 && mHidden[column] == mCount[column]) {
+        mHidden[column]--;
+        return true;
+      }
+      return false;
+    }
+
+    // Take off a completed king to ace run, as the rules do.
+    private void RemoveRun(int column) {
+      if (mCount[column] - mHidden[column] >= Board.RANK_COUNT &&
+          Board.Rank(Top(column)) == 0 && RunLength(column) >= Board.RANK_COUNT) {
+        mCount[column] -= Board.RANK_COUNT;
+        mRemoved++;
+        Unhide(column);
+      }
+    }
+
+    private static boolean IsSuited(int card, int under) {
+      return Board.Rank(card) + 1 == Board.Rank(under) &&
+          Board.Suit(card) == Board.Suit(under);
+    }
+  }
+}
@@ -16,7 +16,6 @@
 package com.kmagic.solitaire;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -31,43 +30,35 @@ public class Stats {
   public Stats(final Solitaire solitaire, final SolitaireView view) {
 
     solitaire.setContentView(R.layout.stats);
-    View statsView = (View) solitaire.findViewById(R.id.stats_view);
+    final View statsView = (View) solitaire.findViewById(R.id.stats_view);
     statsView.setFocusable(true);
     statsView.setFocusableInTouchMode(true);
 
-    Rules rules = view.GetRules();
-    final SharedPreferences settings = solitaire.GetSettings();
-    final String gameAttemptString = rules.GetGameTypeString() + "Attempts";
-    final String gameWinString = rules.GetGameTypeString() + "Wins";
-    final String gameTimeString = rules.GetGameTypeString() + "Time";
-    final String gameScoreString = rules.GetGameTypeString() + "Score";
-    int attempts = settings.getInt(gameAttemptString, 0);
-    int wins = settings.getInt(gameWinString, 0);
-    int bestTime = settings.getInt(gameTimeString, -1);
-    int highScore = settings.getInt(gameScoreString, -52);
-    float ratio = 0;
-    if (attempts > 0) {
-      ratio = (float)wins / (float)attempts * 100.0f;
-    }
-
+    final Rules rules = view.GetRules();
+    final GameLog gameLog = view.GetGameLog();
+    final String gameType = rules.GetGameTypeString();
     TextView tv = (TextView)solitaire.findViewById(R.id.text_title);
     tv.setText(rules.GetPrettyGameTypeString() + " Statistics\n\n");
-    tv = (TextView)solitaire.findViewById(R.id.text_wins);
-    tv.setText("Wins: " + wins + " Attempts: " + attempts);
-    tv = (TextView)solitaire.findViewById(R.id.text_percentage);
-    tv.setText("Winning Percentage: " + ratio);
-    if (bestTime != -1) {
-      int seconds = (bestTime / 1000) % 60;
-      int minutes = bestTime / 60000;
-      tv = (TextView)solitaire.findViewById(R.id.text_best_time);
-      tv.setText("Fastest Time: " + String.format("%d:%02d", minutes, seconds));
-    }
-    if (rules.HasScore()) {
-      tv = (TextView)solitaire.findViewById(R.id.text_high_score);
-      tv.setText("High Score: " + highScore);
+    if (gameLog.IsLoaded()) {
+      ShowTotals(solitaire, rules, gameLog.GetTotals(gameType));
+    } else {
+      tv = (TextView)solitaire.findViewById(R.id.text_wins);
+      tv.setText(R.string.stats_loading);
+      gameLog.WhenLoaded(new Runnable() {
+        public void run() {
+          final GameLog.Totals totals = gameLog.GetTotals(gameType);
+          solitaire.runOnUiThread(new Runnable() {
+            public void run() {
+              // The stats may have been closed while the log was read.
+              if (solitaire.findViewById(R.id.stats_view) == statsView) {
+                ShowTotals(solitaire, rules, totals);
+              }
+            }
+          });
+        }
+      });
     }
 
-
     final Button accept = (Button) solitaire.findViewById(R.id.button_accept);
     accept.setOnClickListener(new View.OnClickListener() {
       public void onClick(View v) {
@@ -77,11 +68,7 @@ public class Stats {
     final Button clear = (Button) solitaire.findViewById(R.id.button_clear);
     clear.setOnClickListener(new View.OnClickListener() {
       public void onClick(View v) {
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putInt(gameAttemptString, 0);
-        editor.putInt(gameWinString, 0);
-        editor.putInt(gameTimeString, -1);
-        editor.commit();
+        gameLog.Clear(gameType);
         view.ClearGameStarted();
         solitaire.CancelOptions();
       }
@@ -100,5 +87,48 @@ public class Stats {
     });
     statsView.requestFocus();
   }
+
+  private static void ShowTotals(Solitaire solitaire, Rules rules, GameLog.Totals totals) {
+    int attempts = totals.GetAttempts();
+    int wins = totals.GetWins();
+    float ratio = 0;
+    if (attempts > 0) {
+      ratio = (float)wins / (float)attempts * 100.0f;
+    }
+
+    TextView tv = (TextView)solitaire.findViewById(R.id.text_wins);
+    tv.setText("Wins: " + wins + " Attempts: " + attempts);
+    tv = (TextView)solitaire.findViewById(R.id.text_percentage);
+    tv.setText("Winning Percentage: " + ratio);
+    tv = (TextView)solitaire.findViewById(R.id.text_streak);
+    tv.setText("Win Streak: " + totals.GetStreak() + " Best: " + totals.GetBestStreak());
+    if (totals.GetBestTime() != -1) {
+      tv = (TextView)solitaire.findViewById(R.id.text_best_time);
+      tv.setText("Fastest Time: " + FormatTime(totals.GetBestTime()));
+    }
+    if (totals.GetTimeCount() > 0) {
+      tv = (TextView)solitaire.findViewById(R.id.text_times);
+      tv.setText("Median Time: " + FormatTime(totals.GetTimePercentile(50)) +
+                 " 90%: " + FormatTime(totals.GetTimePercentile(90)));
+    }
+    if (rules.HasScore()) {
+      if (totals.HasScore()) {
+        tv = (TextView)solitaire.findViewById(R.id.text_high_score);
+        tv.setText("High Score: " + totals.GetHighScore());
+      }
+      if (totals.GetScoreCount() > 0) {
+        tv = (TextView)solitaire.findViewById(R.id.text_scores);
+        tv.setText("Scores: " + totals.GetScorePercentile(0) + " / " +
+                   totals.GetScorePercentile(50) + " / " + totals.GetScorePercentile(100) +
+                   " (low / median / high)");
+      }
+    }
+  }
+
+  private static String FormatTime(int time) {
+    int seconds = (time / 1000) % 60;
+    int minutes = time / 60000;
+    return String.format("%d:%02d", minutes, seconds);
+  }
 }
 
@@ -0,0 +1,206 @@
+/*
+  Copyright 2008 Google Inc.
+  
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+  
+       http://www.apache.org/licenses/LICENSE-2.0
+  
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/ 
+package com.kmagic.solitaire;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of deal numbers the solvers have won, for Klondike and Spider.
+ *
+ * A background thread tries random deals and keeps the ones solved, so a
+ * new game can start on a winnable deal without waiting. Nothing is solved
+ * on the caller's thread. The thread runs at low priority, one at most so
+ * the game keeps a core, and rests once the pool is full. The pool can be
+ * saved with Save() and put back with Restore() so it outlives the process.
+ */
+public class WinnableDeals {
+
+  public static final int POOL_SIZE = 4;
+
+  // Per Klondike deal, more deals with a smaller limit find one sooner.
+  private static final int KLONDIKE_NODE_LIMIT = 20000;
+
+  private final int mType;
+  private final GameSettings mSettings;
+  private final String mKey;
+  private final BlockingQueue<Long> mPool;
+  private Thread mThread;
+
+  public WinnableDeals(int type, GameSettings settings) {
+    mType = type;
+    mSettings = Snapshot(settings);
+    mKey = GetKey(type, settings);
+    mPool = new ArrayBlockingQueue<Long>(POOL_SIZE);
+  }
+
+  // True if there is a solver for the game type.
+  public static boolean CanSolve(int type) {
+    return type == Rules.SOLITAIRE || type == Rules.SPIDER;
+  }
+
+  // True if the pool deals for type and the settings that change the deal.
+  public boolean IsFor(int type, GameSettings settings) {
+    return mKey.equals(GetKey(type, settings));
+  }
+
+  public int GetSize() { return mPool.size(); }
+
+  // Names the type and settings of the pool, for storing it.
+  public String GetKey() { return mKey; }
+
+  public synchronized void Start() {
+    if (mThread != null) {
+      return;
+    }
+    mThread = new Thread(new Runnable() {
+      public void run() {
+        Fill();
+      }
+    }, "WinnableDeals");
+    mThread.setDaemon(true);
+    mThread.setPriority(Thread.MIN_PRIORITY);
+    mThread.start();
+  }
+
+  // The thread finishes the deal it is on, the pool is kept.
+  public synchronized void Stop() {
+    if (mThread == null) {
+      return;
+    }
+    mThread.interrupt();
+    mThread = null;
+  }
+
+  // The deal numbers in the pool, separated by spaces.
+  public String Save() {
+    StringBuilder ret = new StringBuilder();
+    for (Long seed : mPool) {
+      if (ret.length() > 0) {
+        ret.append(' ');
+      }
+      ret.append(seed.longValue());
+    }
+    return ret.toString();
+  }
+
+  // Put back deal numbers from Save(), as many as fit. Anything that does
+  // not parse is dropped.
+  public void Restore(String saved) {
+    if (saved == null) {
+      return;
+    }
+    for (String seed : saved.trim().split(" +")) {
+      try {
+        if (!mPool.offer(Long.valueOf(seed))) {
+          return;
+        }
+      } catch (NumberFormatException e) {
+      }
+    }
+  }
+
+  /**
+   * A deal number from the pool. Solving can take seconds on a phone, so
+   * an empty pool is not waited on, the thread refills it meanwhile.
+   *
+   * @return the deal number, null if the pool is empty.
+   */
+  public Long Take() {
+    return mPool.poll();
+  }
+
+  /**
+   * Look for a deal number the solver can win with settings, trying
+   * random ones until one is found or the time is up.
+   *
+   * @return the deal number, a random unchecked one if time ran out.
+   */
+  public static long Find(int type, GameSettings settings, long timeLimitMillis) {
+    long deadline = System.currentTimeMillis() + timeLimitMillis;
+    Checker checker = new Checker(type, settings);
+    Random random = new Random();
+    do {
+      long seed = random.nextLong();
+      if (checker.IsWinnable(seed)) {
+        return seed;
+      }
+    } while (System.currentTimeMillis() < deadline);
+    return random.nextLong();
+  }
+
+  public static boolean IsWinnable(int type, long seed, GameSettings settings) {
+    return new Checker(type, settings).IsWinnable(seed);
+  }
+
+  private void Fill() {
+    Checker checker = new Checker(mType, mSettings);
+    Random random = new Random();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        long seed = random.nextLong();
+        if (checker.IsWinnable(seed)) {
+          mPool.put(Long.valueOf(seed));
+        }
+      }
+    } catch (InterruptedException e) {
+    }
+  }
+
+  // Only these settings change the deal or whether it can be won.
+  private static GameSettings Snapshot(GameSettings settings) {
+    return new SimpleSettings()
+      .putBoolean("SolitaireDealThree", settings.getBoolean("SolitaireDealThree", true))
+      .putBoolean("SolitaireStyleNormal", settings.getBoolean("SolitaireStyleNormal", true))
+      .putInt("SpiderSuits", settings.getInt("SpiderSuits", 4));
+  }
+
+  private static String GetKey(int type, GameSettings settings) {
+    if (type == Rules.SPIDER) {
+      return type + ":" + settings.getInt("SpiderSuits", 4);
+    }
+    return type + ":" + settings.getBoolean("SolitaireDealThree", true) + ":" +
+      settings.getBoolean("SolitaireStyleNormal", true);
+  }
+
+  // One solver kept for all the deals a thread checks.
+  private static class Checker {
+    private final int mType;
+    private final GameSettings mSettings;
+    private KlondikeSolver mKlondike;
+    private SpiderSolver mSpider;
+
+    public Checker(int type, GameSettings settings) {
+      mType = type;
+      mSettings = settings;
+      if (type == Rules.SPIDER) {
+        mSpider = new SpiderSolver();
+      } else {
+        mKlondike = new KlondikeSolver(KLONDIKE_NODE_LIMIT, KlondikeSolver.DEFAULT_CACHE_SIZE);
+      }
+    }
+
+    public boolean IsWinnable(long seed) {
+      HeadlessGame game = new HeadlessGame(mType, seed, mSettings);
+      if (mType == Rules.SPIDER) {
+        return mSpider.Solve(game.GetBoard()) != null;
+      }
+      return mKlondike.Solve(game.GetBoard(), mSettings.getBoolean("SolitaireDealThree", true),
+                             game.GetRules().GetRulesExtra()) != null;
+    }
+  }
+}